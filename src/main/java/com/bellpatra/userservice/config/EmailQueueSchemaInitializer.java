@@ -0,0 +1,69 @@
+package com.bellpatra.userservice.config;
+
+import com.bellpatra.userservice.service.EmailQueuePartitionManager;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * PostgreSQL-only adjustments to the {@code email_queue} table that Hibernate's ddl-auto cannot express.
+ * Runs after the entity manager so the table already exists; on any other database it does nothing.
+ * Every node runs it at startup, so it holds the schema lock (see
+ * {@link EmailQueuePartitionManager#withSchemaLock}) and each step checks before it changes anything.
+ */
+@Component
+@DependsOn("entityManagerFactory")
+@RequiredArgsConstructor
+@Slf4j
+public class EmailQueueSchemaInitializer {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final EmailQueuePartitionManager emailQueuePartitionManager;
+
+    @Value("${email.queue.metadata-jsonb:false}")
+    private boolean metadataJsonb;
+
+    @PostConstruct
+    void initialize() {
+        if (!emailQueuePartitionManager.isPostgreSql()) {
+            log.info("Skipping email_queue schema tuning: database is not PostgreSQL");
+            return;
+        }
+
+        emailQueuePartitionManager.withSchemaLock(() -> {
+            // Hibernate only writes the enum check constraint at table creation, so it would reject email types added later
+            jdbcTemplate.execute("ALTER TABLE email_queue DROP CONSTRAINT IF EXISTS email_queue_email_type_check");
+
+            if (metadataJsonb) {
+                convertMetadataToJsonb();
+            }
+
+            emailQueuePartitionManager.ensurePartitioned();
+            createWorkSetIndexes();
+        });
+        emailQueuePartitionManager.createUpcomingPartitions();
+    }
+
+    // Partial indexes sized to the hot PENDING and retryable FAILED rows only, matching the dispatcher's claim queries
+    private void createWorkSetIndexes() {
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_email_queue_pending ON email_queue (priority, created_at, scheduled_at)"
+                + " WHERE status = 'PENDING'");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_email_queue_failed ON email_queue (priority, created_at)"
+                + " WHERE status = 'FAILED' AND retry_count < 3");
+    }
+
+    private void convertMetadataToJsonb() {
+        String currentType = jdbcTemplate.queryForObject(
+                "SELECT data_type FROM information_schema.columns WHERE table_name = 'email_queue' AND column_name = 'metadata'",
+                String.class);
+        if (!"jsonb".equals(currentType)) {
+            jdbcTemplate.execute("ALTER TABLE email_queue ALTER COLUMN metadata TYPE jsonb USING NULLIF(metadata, '')::jsonb");
+            log.info("Converted email_queue.metadata from {} to jsonb", currentType);
+        }
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_email_queue_metadata ON email_queue USING gin (metadata jsonb_path_ops)");
+    }
+}
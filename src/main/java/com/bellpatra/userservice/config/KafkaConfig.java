@@ -1,18 +1,36 @@
 package com.bellpatra.userservice.config;
 
+import com.bellpatra.userservice.kafka.EventDeduplicator;
+import com.bellpatra.userservice.kafka.KafkaConsumerService;
+import com.bellpatra.userservice.kafka.KafkaProducerService;
+import com.bellpatra.userservice.kafka.KafkaRetryRouter;
+import com.bellpatra.userservice.kafka.NotificationDigestBuffer;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.admin.NewTopic;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.config.TopicConfig;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.kafka.annotation.EnableKafka;
+import org.springframework.kafka.config.TopicBuilder;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.core.*;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
 import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.util.backoff.ExponentialBackOff;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @Configuration
@@ -25,15 +43,95 @@ public class KafkaConfig {
     @Value("${spring.kafka.consumer.group-id:user-service-group}")
     private String groupId;
 
+    @Value("${outbox.kafka.user-events.partitions:6}")
+    private int userEventsPartitions;
+
+    @Value("${kafka.producer.linger-ms:20}")
+    private int lingerMs;
+
+    @Value("${kafka.producer.batch-size:65536}")
+    private int batchSize;
+
+    @Value("${kafka.producer.compression-type:lz4}")
+    private String compressionType;
+
+    // Built without Boot's container factory configurer, so the factories apply this themselves
+    @Value("${spring.kafka.listener.auto-startup:true}")
+    private boolean listenerAutoStartup;
+
+    @Value("${kafka.listener.max-poll-records:500}")
+    private int maxPollRecords;
+
+    @Value("${kafka.listener.retry.initial-interval-ms:1000}")
+    private long batchRetryInitialIntervalMs;
+
+    @Value("${kafka.listener.retry.max-interval-ms:60000}")
+    private long batchRetryMaxIntervalMs;
+
+    @Value("${user.snapshots.tombstone-retention-ms:604800000}")
+    private long snapshotTombstoneRetentionMs;
+
+    @Value("${kafka.retry.delays-ms:1000,10000,60000}")
+    private List<Long> retryDelaysMs;
+
+    @Value("${kafka.retry.partitions:3}")
+    private int retryPartitions;
+
+    // Keyed by user id, so consumers scale out up to one per partition without losing per-user order
+    @Bean
+    public NewTopic userEventsTopic() {
+        return TopicBuilder.name(KafkaProducerService.USER_EVENTS_TOPIC)
+                .partitions(userEventsPartitions)
+                .build();
+    }
+
+    // Compacted: the latest snapshot per user is kept indefinitely, tombstones long enough for slow consumers to see deletes
+    @Bean
+    public NewTopic userSnapshotsTopic() {
+        return TopicBuilder.name(KafkaProducerService.USER_SNAPSHOTS_TOPIC)
+                .partitions(userEventsPartitions)
+                .compact()
+                .config(TopicConfig.DELETE_RETENTION_MS_CONFIG, String.valueOf(snapshotTombstoneRetentionMs))
+                .build();
+    }
+
+    // Retry tiers and a dead-letter topic for notifications (see KafkaRetryRouter). Presence is read by every
+    // instance, so its failures skip the tiers and only get a dead-letter topic
+    @Bean
+    public KafkaAdmin.NewTopics retryTopics() {
+        List<NewTopic> topics = new ArrayList<>();
+        for (int tier = 0; tier < retryDelaysMs.size(); tier++) {
+            topics.add(TopicBuilder.name(KafkaRetryRouter.retryTopic(KafkaConsumerService.NOTIFICATIONS_TOPIC, tier))
+                    .partitions(retryPartitions).build());
+        }
+        for (String topic : List.of(KafkaConsumerService.NOTIFICATIONS_TOPIC, KafkaConsumerService.USER_PRESENCE_TOPIC)) {
+            topics.add(TopicBuilder.name(KafkaRetryRouter.deadLetterTopic(topic)).partitions(retryPartitions).build());
+        }
+        return new KafkaAdmin.NewTopics(topics.toArray(NewTopic[]::new));
+    }
+
+    // One record per partition and filter generation; compaction keeps only the latest checkpoint
+    @Bean
+    public NewTopic dedupStateTopic() {
+        return TopicBuilder.name(EventDeduplicator.STATE_TOPIC)
+                .partitions(1)
+                .compact()
+                .build();
+    }
+
+    // One record per buffered user; flushed digests are deleted with a tombstone
+    @Bean
+    public NewTopic notificationDigestStateTopic() {
+        return TopicBuilder.name(NotificationDigestBuffer.STATE_TOPIC)
+                .partitions(1)
+                .compact()
+                .build();
+    }
+
     @Bean
     public ProducerFactory<String, String> producerFactory() {
-        Map<String, Object> configProps = new HashMap<>();
-        configProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
-        configProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        Map<String, Object> configProps = producerConfigs();
         configProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
-        configProps.put(ProducerConfig.ACKS_CONFIG, "all");
-        configProps.put(ProducerConfig.RETRIES_CONFIG, 3);
-        configProps.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
         return new DefaultKafkaProducerFactory<>(configProps);
     }
 
@@ -42,24 +140,105 @@ public class KafkaConfig {
         return new KafkaTemplate<>(producerFactory());
     }
 
+    // Forwards consumed records to retry and dead-letter topics byte for byte
+    @Bean
+    public ProducerFactory<String, byte[]> retryProducerFactory() {
+        Map<String, Object> configProps = producerConfigs();
+        configProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+        return new DefaultKafkaProducerFactory<>(configProps);
+    }
+
     @Bean
-    public ConsumerFactory<String, String> consumerFactory() {
+    public KafkaTemplate<String, byte[]> retryKafkaTemplate() {
+        return new KafkaTemplate<>(retryProducerFactory());
+    }
+
+    private Map<String, Object> producerConfigs() {
+        Map<String, Object> configProps = new HashMap<>();
+        configProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        configProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        configProps.put(ProducerConfig.ACKS_CONFIG, "all");
+        configProps.put(ProducerConfig.RETRIES_CONFIG, 3);
+        configProps.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+        // Wait briefly to fill larger batches and compress them; idempotence keeps per-partition order at 5 in flight
+        configProps.put(ProducerConfig.LINGER_MS_CONFIG, lingerMs);
+        configProps.put(ProducerConfig.BATCH_SIZE_CONFIG, batchSize);
+        configProps.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, compressionType);
+        configProps.put(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, 5);
+        return configProps;
+    }
+
+    @Bean
+    public ConsumerFactory<String, byte[]> consumerFactory() {
         Map<String, Object> props = new HashMap<>();
         props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         props.put(ConsumerConfig.GROUP_ID_CONFIG, groupId);
         props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
-        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        // Listeners bind typed events straight from the bytes, without an intermediate String
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
         props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest");
         props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
-        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, 500);
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, maxPollRecords);
         return new DefaultKafkaConsumerFactory<>(props);
     }
 
+    // Listeners receive whole polls and acknowledge once the batch is handled. They only throw when a
+    // record could not be parked or a digest checkpoint failed, i.e. the infrastructure is down: the batch
+    // is then retried with a growing back-off for as long as it takes, never skipped by committing past it
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, byte[]> kafkaListenerContainerFactory(EventDeduplicator eventDeduplicator,
+                                                                                                 NotificationDigestBuffer notificationDigestBuffer) {
+        ConcurrentKafkaListenerContainerFactory<String, byte[]> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(consumerFactory());
+        factory.setBatchListener(true);
+        factory.setAutoStartup(listenerAutoStartup);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        // Moves de-duplication windows and notification digests along with their partitions
+        factory.getContainerProperties().setConsumerRebalanceListener(
+                new CompositeRebalanceListener(List.of(eventDeduplicator, notificationDigestBuffer)));
+        ExponentialBackOff backOff = new ExponentialBackOff(batchRetryInitialIntervalMs, 2.0);
+        backOff.setMaxInterval(batchRetryMaxIntervalMs);
+        backOff.setMaxElapsedTime(Long.MAX_VALUE);
+        factory.setCommonErrorHandler(new DefaultErrorHandler(backOff));
+        return factory;
+    }
+
+    // Presence is rebuilt from the topic on every start (see KafkaConsumerService#onPartitionsAssigned), so the
+    // per-instance presence groups never commit: its listener does not acknowledge, leaving no offsets behind
     @Bean
-    public ConcurrentKafkaListenerContainerFactory<String, String> kafkaListenerContainerFactory() {
-        ConcurrentKafkaListenerContainerFactory<String, String> factory = new ConcurrentKafkaListenerContainerFactory<>();
+    public ConcurrentKafkaListenerContainerFactory<String, byte[]> presenceListenerContainerFactory() {
+        ConcurrentKafkaListenerContainerFactory<String, byte[]> factory = new ConcurrentKafkaListenerContainerFactory<>();
         factory.setConsumerFactory(consumerFactory());
-        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL_IMMEDIATE);
+        factory.setBatchListener(true);
+        factory.setAutoStartup(listenerAutoStartup);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        ExponentialBackOff backOff = new ExponentialBackOff(batchRetryInitialIntervalMs, 2.0);
+        backOff.setMaxInterval(batchRetryMaxIntervalMs);
+        backOff.setMaxElapsedTime(Long.MAX_VALUE);
+        factory.setCommonErrorHandler(new DefaultErrorHandler(backOff));
         return factory;
     }
+
+    private record CompositeRebalanceListener(List<ConsumerAwareRebalanceListener> delegates) implements ConsumerAwareRebalanceListener {
+
+        @Override
+        public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+            delegates.forEach(delegate -> delegate.onPartitionsRevokedBeforeCommit(consumer, partitions));
+        }
+
+        @Override
+        public void onPartitionsRevokedAfterCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+            delegates.forEach(delegate -> delegate.onPartitionsRevokedAfterCommit(consumer, partitions));
+        }
+
+        @Override
+        public void onPartitionsLost(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+            delegates.forEach(delegate -> delegate.onPartitionsLost(consumer, partitions));
+        }
+
+        @Override
+        public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+            delegates.forEach(delegate -> delegate.onPartitionsAssigned(consumer, partitions));
+        }
+    }
 }
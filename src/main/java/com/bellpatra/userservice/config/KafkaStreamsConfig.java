@@ -0,0 +1,32 @@
+package com.bellpatra.userservice.config;
+
+import com.bellpatra.userservice.kafka.LoginActivityTopology;
+import org.apache.kafka.streams.StreamsBuilder;
+import org.apache.kafka.streams.kstream.KStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.annotation.EnableKafkaStreams;
+
+import java.time.Duration;
+
+// Streams settings (application id, state dir, auto-startup) come from spring.kafka.streams.*
+@Configuration
+@EnableKafkaStreams
+public class KafkaStreamsConfig {
+
+    @Value("${login-activity.window-seconds:60}")
+    private long windowSeconds;
+
+    @Value("${login-activity.grace-seconds:30}")
+    private long graceSeconds;
+
+    @Value("${login-activity.retention-hours:168}")
+    private long retentionHours;
+
+    @Bean
+    public KStream<String, String> loginActivityStream(StreamsBuilder streamsBuilder) {
+        return LoginActivityTopology.build(streamsBuilder, Duration.ofSeconds(windowSeconds),
+                Duration.ofSeconds(graceSeconds), Duration.ofHours(retentionHours));
+    }
+}
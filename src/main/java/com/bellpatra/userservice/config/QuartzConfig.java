@@ -1,8 +1,17 @@
 package com.bellpatra.userservice.config;
 
+import com.bellpatra.userservice.entity.EmailQueue;
+import com.bellpatra.userservice.job.ClusterJobRunListener;
+import com.bellpatra.userservice.job.EmailCleanupJob;
+import com.bellpatra.userservice.job.EmailPartitionMaintenanceJob;
 import com.bellpatra.userservice.job.EmailProcessingJob;
+import com.bellpatra.userservice.job.OutboxRelayJob;
+import com.bellpatra.userservice.job.QuartzJobMetrics;
+import com.bellpatra.userservice.job.UserSnapshotBackfillJob;
 import lombok.RequiredArgsConstructor;
 import org.quartz.*;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.quartz.autoconfigure.SchedulerFactoryBeanCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -10,6 +19,33 @@ import org.springframework.context.annotation.Configuration;
 @RequiredArgsConstructor
 public class QuartzConfig {
 
+    // Starting interval only; AdaptiveEmailScheduler retunes the stored trigger from then on
+    @Value("${email.dispatch.interval-seconds:30}")
+    private int emailProcessingIntervalSeconds;
+
+    @Value("${email.dispatch.high.interval-seconds:5}")
+    private int highPriorityIntervalSeconds;
+
+    @Value("${email.queue.cleanup-cron:0 0 3 * * ?}")
+    private String cleanupCron;
+
+    @Value("${email.queue.partitioning.maintenance-cron:0 15 * * * ?}")
+    private String partitionMaintenanceCron;
+
+    @Value("${outbox.relay.interval-seconds:1}")
+    private int outboxRelayIntervalSeconds;
+
+    // Every job on every node reports its runs, so the cluster view can show which node ran what,
+    // and is instrumented with duration, misfire and concurrency metrics
+    @Bean
+    public SchedulerFactoryBeanCustomizer jobListenerCustomizer(ClusterJobRunListener clusterJobRunListener,
+                                                                QuartzJobMetrics quartzJobMetrics) {
+        return schedulerFactoryBean -> {
+            schedulerFactoryBean.setGlobalJobListeners(clusterJobRunListener, quartzJobMetrics);
+            schedulerFactoryBean.setGlobalTriggerListeners(quartzJobMetrics);
+        };
+    }
+
     @Bean
     public JobDetail emailProcessingJobDetail() {
         return JobBuilder.newJob(EmailProcessingJob.class)
@@ -26,7 +62,7 @@ public class QuartzConfig {
                 .withIdentity("emailProcessingTrigger")
                 .withDescription("Trigger for email processing job")
                 .withSchedule(SimpleScheduleBuilder.simpleSchedule()
-                        .withIntervalInSeconds(30) // Run every 30 seconds
+                        .withIntervalInSeconds(emailProcessingIntervalSeconds)
                         .repeatForever())
                 .build();
     }
@@ -52,4 +88,97 @@ public class QuartzConfig {
                 .build();
     }
 
+    @Bean
+    public JobDetail emailHighPriorityJobDetail() {
+        return JobBuilder.newJob(EmailProcessingJob.class)
+                .withIdentity("emailHighPriorityJob")
+                .withDescription("Drain the high priority (OTP) email lane")
+                .usingJobData(EmailProcessingJob.PRIORITY_KEY, EmailQueue.EmailPriority.HIGH.name())
+                .storeDurably()
+                .build();
+    }
+
+    @Bean
+    public Trigger emailHighPriorityTrigger() {
+        return TriggerBuilder.newTrigger()
+                .forJob(emailHighPriorityJobDetail())
+                .withIdentity("emailHighPriorityTrigger")
+                .withDescription("Trigger for high priority email lane")
+                .withSchedule(SimpleScheduleBuilder.simpleSchedule()
+                        .withIntervalInSeconds(highPriorityIntervalSeconds)
+                        .repeatForever())
+                .build();
+    }
+
+    @Bean
+    public JobDetail emailCleanupJobDetail() {
+        return JobBuilder.newJob(EmailCleanupJob.class)
+                .withIdentity("emailCleanupJob")
+                .withDescription("Drop expired email partitions and create upcoming ones")
+                .storeDurably()
+                .build();
+    }
+
+    @Bean
+    public Trigger emailCleanupTrigger() {
+        return TriggerBuilder.newTrigger()
+                .forJob(emailCleanupJobDetail())
+                .withIdentity("emailCleanupTrigger")
+                .withDescription("Trigger for email cleanup job")
+                .withSchedule(CronScheduleBuilder.cronSchedule(cleanupCron))
+                .build();
+    }
+
+    @Bean
+    public JobDetail emailPartitionJobDetail() {
+        return JobBuilder.newJob(EmailPartitionMaintenanceJob.class)
+                .withIdentity("emailPartitionJob")
+                .withDescription("Create upcoming email partitions and alert when tomorrow's is missing")
+                .storeDurably()
+                .build();
+    }
+
+    // Hourly, so a failed or misfired daily cleanup never leaves the queue without tomorrow's partition
+    @Bean
+    public Trigger emailPartitionTrigger() {
+        return TriggerBuilder.newTrigger()
+                .forJob(emailPartitionJobDetail())
+                .withIdentity("emailPartitionTrigger")
+                .withDescription("Trigger for email partition maintenance job")
+                .withSchedule(CronScheduleBuilder.cronSchedule(partitionMaintenanceCron))
+                .build();
+    }
+
+    @Bean
+    public JobDetail outboxRelayJobDetail() {
+        return JobBuilder.newJob(OutboxRelayJob.class)
+                .withIdentity("outboxRelayJob")
+                .withDescription("Forward outbox events to Kafka and the email queue")
+                .storeDurably()
+                .build();
+    }
+
+    @Bean
+    public Trigger outboxRelayTrigger() {
+        return TriggerBuilder.newTrigger()
+                .forJob(outboxRelayJobDetail())
+                .withIdentity("outboxRelayTrigger")
+                .withDescription("Trigger for outbox relay job")
+                .withSchedule(SimpleScheduleBuilder.simpleSchedule()
+                        .withIntervalInSeconds(outboxRelayIntervalSeconds)
+                        .repeatForever()
+                        .withMisfireHandlingInstructionNextWithRemainingCount())
+                .build();
+    }
+
+    // No trigger: fired on demand through QuartzController
+    @Bean
+    public JobDetail userSnapshotBackfillJobDetail() {
+        return JobBuilder.newJob(UserSnapshotBackfillJob.class)
+                .withIdentity("userSnapshotBackfillJob")
+                .withDescription("Publish a snapshot of every user to user-snapshots")
+                .storeDurably()
+                .build();
+    }
+
 }
@@ -0,0 +1,132 @@
+package com.bellpatra.userservice.config;
+
+import org.quartz.SchedulerConfigException;
+import org.quartz.spi.ThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Quartz {@link ThreadPool} that runs each job on its own virtual thread instead of a fixed set of
+ * platform worker threads. {@code threadCount} no longer sizes a pool; it only caps how many jobs run
+ * at once, so a burst of fires cannot take every connection of the shared datasource.
+ * Selected with {@code org.quartz.threadPool.class}; Quartz sets the properties below by reflection.
+ */
+public class VirtualThreadQuartzPool implements ThreadPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(VirtualThreadQuartzPool.class);
+
+    private int threadCount = 10;
+    private String threadNamePrefix;
+    private String schedulerName = "Quartz";
+    private Semaphore slots;
+    private ExecutorService executor;
+    private volatile boolean shutdown;
+
+    public void setThreadCount(int threadCount) {
+        this.threadCount = threadCount;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    public void setThreadNamePrefix(String threadNamePrefix) {
+        this.threadNamePrefix = threadNamePrefix;
+    }
+
+    @Override
+    public void initialize() throws SchedulerConfigException {
+        if (threadCount <= 0) {
+            throw new SchedulerConfigException("threadCount must be > 0");
+        }
+        String prefix = threadNamePrefix != null ? threadNamePrefix : schedulerName + "_Worker-";
+        slots = new Semaphore(threadCount);
+        executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(prefix, 0).factory());
+        logger.info("Quartz jobs of {} run on virtual threads, at most {} at a time", schedulerName, threadCount);
+    }
+
+    @Override
+    public boolean runInThread(Runnable runnable) {
+        if (runnable == null) {
+            return false;
+        }
+        if (shutdown) {
+            // Like SimpleThreadPool: a job handed over while shutting down still gets a thread of its own
+            Thread.ofVirtual().name(schedulerName + "_LastJob").start(runnable);
+            return true;
+        }
+
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    runnable.run();
+                } finally {
+                    slots.release();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            slots.release();
+            return false;
+        }
+    }
+
+    /**
+     * Blocks until at least one job slot is free; Quartz then acquires up to that many triggers at once.
+     */
+    @Override
+    public int blockForAvailableThreads() {
+        while (!shutdown) {
+            try {
+                if (slots.tryAcquire(500, TimeUnit.MILLISECONDS)) {
+                    slots.release();
+                    return Math.max(1, slots.availablePermits());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public void shutdown(boolean waitForJobsToComplete) {
+        shutdown = true;
+        if (executor == null) {
+            return;
+        }
+        if (waitForJobsToComplete) {
+            executor.close();
+        } else {
+            executor.shutdown();
+        }
+        logger.debug("Quartz virtual thread pool of {} shut down", schedulerName);
+    }
+
+    @Override
+    public int getPoolSize() {
+        return threadCount;
+    }
+
+    @Override
+    public void setInstanceId(String schedInstId) {
+    }
+
+    @Override
+    public void setInstanceName(String schedName) {
+        this.schedulerName = schedName;
+    }
+}
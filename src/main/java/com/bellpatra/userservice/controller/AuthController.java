@@ -6,7 +6,6 @@ import com.bellpatra.userservice.dto.LoginRequest;
 import com.bellpatra.userservice.dto.RefreshTokenRequest;
 import com.bellpatra.userservice.dto.RegisterRequest;
 import com.bellpatra.userservice.service.AuthenticationService;
-import com.bellpatra.userservice.kafka.KafkaProducerService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -21,21 +20,13 @@ import java.util.Map;
 public class AuthController {
 
     private final AuthenticationService authenticationService;
-    private final KafkaProducerService kafkaProducerService;
 
     @PostMapping("/register")
     public ResponseEntity<ApiResponse<AuthResponse>> register(@RequestBody RegisterRequest request) {
         try {
+            // The registration event is published through the outbox, in the registration transaction
             AuthResponse response = authenticationService.register(request);
             
-            // Publish user registration event to Kafka
-            kafkaProducerService.publishUserRegistration(
-                response.getUser().getId().toString(),
-                response.getUser().getEmail(),
-                response.getUser().getFirstName(),
-                response.getUser().getLastName()
-            );
-            
             return ResponseEntity.status(HttpStatus.CREATED)
                     .body(ApiResponse.created(response, "User registered successfully"));
         } catch (RuntimeException e) {
@@ -50,16 +41,10 @@ public class AuthController {
             // Extract IP address from request
             String ipAddress = getClientIpAddress(httpRequest);
             request.setIpAddress(ipAddress);
+            request.setUserAgent(httpRequest.getHeader("User-Agent"));
             
             AuthResponse response = authenticationService.login(request);
             
-            // Publish user login event to Kafka
-            kafkaProducerService.publishUserLogin(
-                response.getUser().getId().toString(),
-                response.getUser().getEmail(),
-                ipAddress
-            );
-            
             return ResponseEntity.ok(ApiResponse.success(response, "Login successful"));
         } catch (RuntimeException e) {
             return ResponseEntity.badRequest()
@@ -1,11 +1,18 @@
 package com.bellpatra.userservice.controller;
 
 import com.bellpatra.userservice.dto.ApiResponse;
+import com.bellpatra.userservice.dto.BroadcastEmailRequest;
 import com.bellpatra.userservice.entity.EmailQueue;
+import com.bellpatra.userservice.entity.User;
+import com.bellpatra.userservice.service.EmailDispatcher;
 import com.bellpatra.userservice.service.EmailQueueService;
-import com.bellpatra.userservice.service.EmailProcessor;
+import com.bellpatra.userservice.service.EmailSendGovernor;
+import com.bellpatra.userservice.service.UserService;
+import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
@@ -18,7 +25,9 @@ import java.util.Map;
 public class EmailQueueController {
 
     private final EmailQueueService emailQueueService;
-    private final EmailProcessor emailProcessor;
+    private final EmailDispatcher emailDispatcher;
+    private final UserService userService;
+    private final EmailSendGovernor emailSendGovernor;
 
     @GetMapping("/stats")
     public ResponseEntity<ApiResponse<Map<String, Object>>> getEmailStats() {
@@ -29,6 +38,9 @@ public class EmailQueueController {
             Map<String, Object> stats = Map.of(
                     "pendingEmails", pendingCount,
                     "failedEmails", failedCount,
+                    "queue", emailQueueService.getEmailQueueStats(),
+                    "lanes", emailDispatcher.getLaneStats(),
+                    "quota", emailSendGovernor.getQuotaStats(),
                     "timestamp", System.currentTimeMillis()
             );
             
@@ -61,10 +73,36 @@ public class EmailQueueController {
         }
     }
 
+    @PostMapping("/broadcast")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> broadcast(
+            @Valid @RequestBody BroadcastEmailRequest request,
+            Authentication authentication) {
+        try {
+            List<User> recipients = (request.getRole() != null
+                    ? userService.getUsersByRole(request.getRole())
+                    : userService.getUsersByStatus(User.UserStatus.ACTIVE)).stream()
+                    .filter(user -> user.getStatus() == User.UserStatus.ACTIVE)
+                    .toList();
+            
+            int queued = emailQueueService.queueAnnouncement(
+                    recipients, request.getSubject(), request.getHtmlContent(), authentication.getName()).size();
+            
+            Map<String, Object> result = Map.of(
+                    "queuedEmails", queued,
+                    "timestamp", System.currentTimeMillis()
+            );
+            return ResponseEntity.ok(ApiResponse.success(result, "Broadcast queued for " + queued + " users"));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest()
+                    .body(ApiResponse.badRequest("Failed to queue broadcast: " + e.getMessage()));
+        }
+    }
+
     @PostMapping("/process")
     public ResponseEntity<ApiResponse<String>> processPendingEmails() {
         try {
-            emailProcessor.processPendingEmails();
+            emailDispatcher.dispatchAll();
             return ResponseEntity.ok(ApiResponse.success("Pending emails processed successfully", "Email processing completed"));
         } catch (Exception e) {
             return ResponseEntity.badRequest()
@@ -0,0 +1,62 @@
+package com.bellpatra.userservice.controller;
+
+import com.bellpatra.userservice.dto.ApiResponse;
+import com.bellpatra.userservice.service.LoginActivityService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/v1/login-activity")
+@RequiredArgsConstructor
+@CrossOrigin(origins = "*")
+public class LoginActivityController {
+
+    private final LoginActivityService loginActivityService;
+
+    @Value("${login-activity.max-minutes:1440}")
+    private int maxMinutes;
+
+    @GetMapping
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<ApiResponse<List<Map<String, Object>>>> getLoginActivity(
+            @RequestParam(defaultValue = "60") int minutes,
+            @RequestHeader(HttpHeaders.AUTHORIZATION) String authorization) {
+        try {
+            if (minutes < 1 || minutes > maxMinutes) {
+                return ResponseEntity.badRequest()
+                        .body(ApiResponse.badRequest("minutes must be between 1 and " + maxMinutes));
+            }
+            List<Map<String, Object>> activity = loginActivityService.getRecentActivity(minutes, authorization);
+            return ResponseEntity.ok(ApiResponse.success(activity, "Login activity retrieved successfully"));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest()
+                    .body(ApiResponse.badRequest("Failed to retrieve login activity: " + e.getMessage()));
+        }
+    }
+
+    // Local window counts for one store key; called by the instance that received getLoginActivity
+    @GetMapping("/windows")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<ApiResponse<Map<Long, Long>>> getLocalWindows(
+            @RequestParam String store,
+            @RequestParam String key,
+            @RequestParam long from,
+            @RequestParam long to) {
+        try {
+            Map<Long, Long> windows = loginActivityService.getLocalWindows(store, key,
+                    Instant.ofEpochMilli(from), Instant.ofEpochMilli(to));
+            return ResponseEntity.ok(ApiResponse.success(windows, "Login activity windows retrieved successfully"));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest()
+                    .body(ApiResponse.badRequest("Failed to retrieve login activity windows: " + e.getMessage()));
+        }
+    }
+}
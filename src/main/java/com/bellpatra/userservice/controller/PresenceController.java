@@ -0,0 +1,53 @@
+package com.bellpatra.userservice.controller;
+
+import com.bellpatra.userservice.dto.ApiResponse;
+import com.bellpatra.userservice.dto.PresenceQueryRequest;
+import com.bellpatra.userservice.service.PresenceStore;
+import jakarta.validation.Valid;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+import java.util.UUID;
+
+@RestController
+@RequestMapping("/api/v1/presence")
+@RequiredArgsConstructor
+@CrossOrigin(origins = "*")
+public class PresenceController {
+
+    private final PresenceStore presenceStore;
+
+    @Value("${presence.query.max-ids:1000}")
+    private int maxIdsPerQuery;
+
+    // Returns only the users that are present; any id missing from the result is offline
+    @PostMapping("/query")
+    public ResponseEntity<ApiResponse<Map<UUID, PresenceStore.Status>>> queryPresence(
+            @Valid @RequestBody PresenceQueryRequest request) {
+        try {
+            if (request.getUserIds().size() > maxIdsPerQuery) {
+                return ResponseEntity.badRequest()
+                        .body(ApiResponse.badRequest("At most " + maxIdsPerQuery + " user ids per query"));
+            }
+            Map<UUID, PresenceStore.Status> present = presenceStore.getPresent(request.getUserIds());
+            return ResponseEntity.ok(ApiResponse.success(present, present.size() + " of " + request.getUserIds().size() + " users online"));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest()
+                    .body(ApiResponse.badRequest("Failed to query presence: " + e.getMessage()));
+        }
+    }
+
+    @GetMapping("/{userId}")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> getPresence(@PathVariable UUID userId) {
+        PresenceStore.Status status = presenceStore.get(userId);
+        Map<String, Object> presence = Map.of(
+                "userId", userId,
+                "online", status != null,
+                "status", status != null ? status.name() : "OFFLINE"
+        );
+        return ResponseEntity.ok(ApiResponse.success(presence, "User presence retrieved successfully"));
+    }
+}
@@ -1,6 +1,9 @@
 package com.bellpatra.userservice.controller;
 
 import com.bellpatra.userservice.dto.ApiResponse;
+import com.bellpatra.userservice.job.QuartzJobMetrics;
+import com.bellpatra.userservice.service.AdaptiveEmailScheduler;
+import com.bellpatra.userservice.service.QuartzClusterService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.quartz.*;
@@ -20,6 +23,9 @@ import java.util.Map;
 public class QuartzController {
 
     private final Scheduler scheduler;
+    private final QuartzClusterService quartzClusterService;
+    private final AdaptiveEmailScheduler adaptiveEmailScheduler;
+    private final QuartzJobMetrics quartzJobMetrics;
 
     @GetMapping("/jobs")
     public ResponseEntity<ApiResponse<List<Map<String, Object>>>> getAllJobs() {
@@ -37,7 +43,8 @@ public class QuartzController {
                             "jobClass", jobDetail.getJobClass().getSimpleName(),
                             "description", jobDetail.getDescription(),
                             "triggerCount", triggers.size(),
-                            "isDurable", jobDetail.isDurable()
+                            "isDurable", jobDetail.isDurable(),
+                            "metrics", quartzJobMetrics.getStats(jobKey)
                     );
                     jobs.add(jobInfo);
                 }
@@ -130,6 +137,7 @@ public class QuartzController {
                     "isStarted", scheduler.isStarted(),
                     "isInStandbyMode", scheduler.isInStandbyMode(),
                     "isShutdown", scheduler.isShutdown(),
+                    "isClustered", scheduler.getMetaData().isJobStoreClustered(),
                     "jobGroupNames", scheduler.getJobGroupNames(),
                     "triggerGroupNames", scheduler.getTriggerGroupNames()
             );
@@ -142,6 +150,32 @@ public class QuartzController {
         }
     }
 
+    // Which node of the cluster is alive, what it is executing now and the last run of each job on it
+    @GetMapping("/cluster")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> getClusterInfo() {
+        try {
+            Map<String, Object> cluster = quartzClusterService.getClusterView();
+            return ResponseEntity.ok(ApiResponse.success(cluster, "Cluster info retrieved successfully"));
+        } catch (Exception e) {
+            log.error("Failed to retrieve cluster info", e);
+            return ResponseEntity.badRequest()
+                    .body(ApiResponse.badRequest("Failed to retrieve cluster info: " + e.getMessage()));
+        }
+    }
+
+    // Current interval of the adaptive email processing trigger and what it was last tuned from
+    @GetMapping("/email/schedule")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> getEmailSchedule() {
+        try {
+            Map<String, Object> schedule = adaptiveEmailScheduler.getScheduleStats();
+            return ResponseEntity.ok(ApiResponse.success(schedule, "Email schedule retrieved successfully"));
+        } catch (Exception e) {
+            log.error("Failed to retrieve email schedule", e);
+            return ResponseEntity.badRequest()
+                    .body(ApiResponse.badRequest("Failed to retrieve email schedule: " + e.getMessage()));
+        }
+    }
+
     @GetMapping("/health")
     public ResponseEntity<ApiResponse<Map<String, Object>>> healthCheck() {
         Map<String, Object> healthData = Map.of(
@@ -11,6 +11,7 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -338,9 +339,6 @@ public class UserController {
     public ResponseEntity<ApiResponse<Map<String, Object>>> seedUsers(
             @RequestParam(defaultValue = "100") int count) {
         try {
-            int created = 0;
-            int skipped = 0;
-            
             // Sample data arrays
             String[] firstNames = {"John", "Jane", "Michael", "Sarah", "David", "Emily", "James", "Jessica", "Robert", "Ashley",
                 "William", "Amanda", "Richard", "Jennifer", "Charles", "Lisa", "Joseph", "Nancy", "Thomas", "Karen"};
@@ -350,27 +348,26 @@ public class UserController {
             User.UserRole[] roles = {User.UserRole.USER, User.UserRole.USER, User.UserRole.USER, User.UserRole.MANAGER, User.UserRole.ADMIN};
             User.UserStatus[] statuses = {User.UserStatus.ACTIVE, User.UserStatus.ACTIVE, User.UserStatus.ACTIVE, User.UserStatus.INACTIVE, User.UserStatus.SUSPENDED};
             
+            List<User> users = new ArrayList<>(count);
             for (int i = 0; i < count; i++) {
-                try {
-                    User user = new User();
-                    user.setFirstName(firstNames[i % firstNames.length] + (i + 1));
-                    user.setLastName(lastNames[i % lastNames.length] + (i + 1));
-                    user.setEmail("user" + (i + 1) + "@example.com");
-                    user.setPassword("password123");
-                    user.setPhoneNumber("+123456789" + String.format("%03d", i + 1));
-                    user.setGender(genders[i % genders.length]);
-                    user.setRole(roles[i % roles.length]);
-                    user.setStatus(statuses[i % statuses.length]);
-                    user.setBirthDate(java.time.LocalDate.of(1990 + (i % 30), 1 + (i % 12), 1 + (i % 28)));
-                    
-                    userService.createUser(user);
-                    created++;
-                } catch (Exception e) {
-                    skipped++;
-                    // Continue with next user
-                }
+                User user = new User();
+                user.setFirstName(firstNames[i % firstNames.length] + (i + 1));
+                user.setLastName(lastNames[i % lastNames.length] + (i + 1));
+                user.setEmail("user" + (i + 1) + "@example.com");
+                user.setPassword("password123");
+                user.setPhoneNumber("+123456789" + String.format("%03d", i + 1));
+                user.setGender(genders[i % genders.length]);
+                user.setRole(roles[i % roles.length]);
+                user.setStatus(statuses[i % statuses.length]);
+                user.setBirthDate(java.time.LocalDate.of(1990 + (i % 30), 1 + (i % 12), 1 + (i % 28)));
+                
+                users.add(user);
             }
             
+            // Single transaction: users and their welcome emails are inserted in JDBC batches
+            int created = userService.createUsers(users).size();
+            int skipped = count - created;
+            
             Map<String, Object> result = Map.of(
                 "message", "Users seeded successfully",
                 "created", created,
@@ -4,6 +4,7 @@ import com.bellpatra.userservice.dto.ApiResponse;
 import com.bellpatra.userservice.dto.CreatePinRequest;
 import com.bellpatra.userservice.dto.PinResponse;
 import com.bellpatra.userservice.dto.VerifyPinRequest;
+import com.bellpatra.userservice.security.JwtPrincipal;
 import com.bellpatra.userservice.service.UserPinService;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
@@ -53,7 +54,7 @@ public class UserPinController {
             Authentication authentication) {
         try {
             String userEmail = authentication.getName();
-            PinResponse response = userPinService.verifyPin(userEmail, request);
+            PinResponse response = userPinService.verifyPin(JwtPrincipal.userIdOf(authentication), userEmail, request);
             
             if (response.isLocked()) {
                 return ResponseEntity.status(HttpStatus.LOCKED)
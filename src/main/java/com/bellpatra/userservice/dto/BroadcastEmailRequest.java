@@ -0,0 +1,18 @@
+package com.bellpatra.userservice.dto;
+
+import com.bellpatra.userservice.entity.User;
+import jakarta.validation.constraints.NotBlank;
+import lombok.Data;
+
+@Data
+public class BroadcastEmailRequest {
+    
+    @NotBlank(message = "Subject is required")
+    private String subject;
+    
+    @NotBlank(message = "HTML content is required")
+    private String htmlContent;
+    
+    // Optional: restrict the broadcast to one role; otherwise all active users receive it
+    private User.UserRole role;
+}
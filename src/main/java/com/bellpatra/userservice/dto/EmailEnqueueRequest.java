@@ -0,0 +1,7 @@
+package com.bellpatra.userservice.dto;
+
+import com.bellpatra.userservice.entity.EmailQueue;
+import com.bellpatra.userservice.entity.User;
+
+public record EmailEnqueueRequest(User user, EmailQueue.EmailType emailType, EmailPayload payload) {
+}
@@ -0,0 +1,43 @@
+package com.bellpatra.userservice.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+/**
+ * Typed contents of {@code EmailQueue.metadata}, one record per email type.
+ * Property names match the keys the queue has always written, so existing rows still decode.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public sealed interface EmailPayload {
+
+    record Welcome(String userId, String userRole, String registrationTime, String loginUrl) implements EmailPayload {
+    }
+
+    record LoginSuccess(String userId, String userRole, String ipAddress, String deviceInfo, String loginTime) implements EmailPayload {
+    }
+
+    // Logins from known devices coalesced within one window; only the most recent entries are kept in logins
+    record LoginDigest(String userId, int totalLogins, List<Login> logins) implements EmailPayload {
+
+        public record Login(String ipAddress, String deviceInfo, String loginTime) {
+        }
+    }
+
+    record PasswordReset(String otp, String ipAddress) implements EmailPayload {
+    }
+
+    record PasswordChange(String ipAddress, String deviceInfo) implements EmailPayload {
+    }
+
+    record Announcement(String subject, String htmlContent, String sentBy) implements EmailPayload {
+    }
+
+    // Mentions and messages received while offline; totals count everything, notifications keeps the most recent
+    record NotificationDigest(String userId, String windowStart, int totalMentions, int totalMessages,
+                              List<Notification> notifications) implements EmailPayload {
+
+        public record Notification(String type, String from, String channelId, String content, String receivedAt) {
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.bellpatra.userservice.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+
+/**
+ * Messages on the {@code notifications} topic, one record per kind, selected by the {@code type} field.
+ */
+@JsonTypeInfo(use = JsonTypeInfo.Id.NAME, include = JsonTypeInfo.As.EXISTING_PROPERTY, property = "type")
+@JsonSubTypes({
+        @JsonSubTypes.Type(value = NotificationEvent.Mention.class, name = "MENTION"),
+        @JsonSubTypes.Type(value = NotificationEvent.Message.class, name = "MESSAGE"),
+        @JsonSubTypes.Type(value = NotificationEvent.Call.class, name = "CALL")
+})
+public sealed interface NotificationEvent {
+
+    String userId();
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    record Mention(String userId, String mentionedBy, String content) implements NotificationEvent {
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    record Message(String userId, String channelId) implements NotificationEvent {
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    record Call(String userId, String callType) implements NotificationEvent {
+    }
+}
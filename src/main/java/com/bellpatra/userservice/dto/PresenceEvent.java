@@ -0,0 +1,12 @@
+package com.bellpatra.userservice.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.UUID;
+
+/**
+ * A message on the {@code user-presence} topic. {@code timestamp} is optional; the record timestamp is used without it.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record PresenceEvent(UUID userId, String status, Long timestamp) {
+}
@@ -0,0 +1,14 @@
+package com.bellpatra.userservice.dto;
+
+import jakarta.validation.constraints.NotEmpty;
+import lombok.Data;
+
+import java.util.List;
+import java.util.UUID;
+
+@Data
+public class PresenceQueryRequest {
+
+    @NotEmpty(message = "At least one user id is required")
+    private List<UUID> userIds;
+}
@@ -0,0 +1,7 @@
+package com.bellpatra.userservice.dto;
+
+/**
+ * Fully rendered email, ready for MIME assembly and SMTP hand-off.
+ */
+public record RenderedEmail(String to, String subject, String htmlContent) {
+}
@@ -0,0 +1,30 @@
+package com.bellpatra.userservice.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+
+import java.util.UUID;
+
+/**
+ * Envelope for everything published to {@code user-events}. Records are keyed by {@code userId}, so all
+ * events of one user land on one partition in order; {@code eventId} lets consumers drop redeliveries.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record UserEvent(
+        UUID eventId,
+        String userId,
+        long timestamp,
+        @JsonTypeInfo(use = JsonTypeInfo.Id.NAME, include = JsonTypeInfo.As.EXTERNAL_PROPERTY, property = "eventType")
+        UserEventPayload payload) {
+
+    // A null userId publishes an unkeyed event, e.g. a failed login for an unknown email
+    public static UserEvent of(UUID userId, UserEventPayload payload) {
+        return new UserEvent(UUID.randomUUID(), userId != null ? userId.toString() : null, System.currentTimeMillis(), payload);
+    }
+
+    @JsonIgnore
+    public String eventType() {
+        return payload.eventType();
+    }
+}
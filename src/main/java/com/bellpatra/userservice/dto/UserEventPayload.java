@@ -0,0 +1,68 @@
+package com.bellpatra.userservice.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+
+import java.util.Map;
+
+/**
+ * Typed body of a {@link UserEvent}, one record per event type. The type name travels as the
+ * envelope's {@code eventType} field.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonSubTypes({
+        @JsonSubTypes.Type(value = UserEventPayload.Registration.class, name = UserEventPayload.USER_REGISTRATION),
+        @JsonSubTypes.Type(value = UserEventPayload.Login.class, name = UserEventPayload.USER_LOGIN),
+        @JsonSubTypes.Type(value = UserEventPayload.LoginFailed.class, name = UserEventPayload.USER_LOGIN_FAILED),
+        @JsonSubTypes.Type(value = UserEventPayload.Logout.class, name = UserEventPayload.USER_LOGOUT),
+        @JsonSubTypes.Type(value = UserEventPayload.PasswordChange.class, name = UserEventPayload.PASSWORD_CHANGE),
+        @JsonSubTypes.Type(value = UserEventPayload.ProfileUpdate.class, name = UserEventPayload.PROFILE_UPDATE)
+})
+public sealed interface UserEventPayload {
+
+    String USER_REGISTRATION = "USER_REGISTRATION";
+    String USER_LOGIN = "USER_LOGIN";
+    String USER_LOGIN_FAILED = "USER_LOGIN_FAILED";
+    String USER_LOGOUT = "USER_LOGOUT";
+    String PASSWORD_CHANGE = "PASSWORD_CHANGE";
+    String PROFILE_UPDATE = "PROFILE_UPDATE";
+
+    String eventType();
+
+    record Registration(String email, String firstName, String lastName) implements UserEventPayload {
+        public String eventType() {
+            return USER_REGISTRATION;
+        }
+    }
+
+    record Login(String email, String ipAddress) implements UserEventPayload {
+        public String eventType() {
+            return USER_LOGIN;
+        }
+    }
+
+    // Sent without a user id when the email is unknown
+    record LoginFailed(String email, String ipAddress, String reason) implements UserEventPayload {
+        public String eventType() {
+            return USER_LOGIN_FAILED;
+        }
+    }
+
+    record Logout(String email) implements UserEventPayload {
+        public String eventType() {
+            return USER_LOGOUT;
+        }
+    }
+
+    record PasswordChange(String email) implements UserEventPayload {
+        public String eventType() {
+            return PASSWORD_CHANGE;
+        }
+    }
+
+    record ProfileUpdate(String email, Map<String, Object> changes) implements UserEventPayload {
+        public String eventType() {
+            return PROFILE_UPDATE;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.bellpatra.userservice.dto;
+
+import com.bellpatra.userservice.entity.User;
+import com.fasterxml.jackson.annotation.JsonFormat;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Latest state of a user on the compacted {@code user-snapshots} topic, keyed by user id. Carries only
+ * what other services read (names, email, role, status); a null record value means the user was deleted.
+ * Consumers should ignore a snapshot whose {@code updatedAt} is older than the one they already hold.
+ */
+public record UserSnapshot(
+        UUID id,
+        String firstName,
+        String lastName,
+        String email,
+        User.UserRole role,
+        User.UserStatus status,
+        @JsonFormat(shape = JsonFormat.Shape.STRING) LocalDateTime createdAt,
+        @JsonFormat(shape = JsonFormat.Shape.STRING) LocalDateTime updatedAt) {
+
+    public static UserSnapshot of(User user) {
+        return new UserSnapshot(user.getId(), user.getFirstName(), user.getLastName(), user.getEmail(),
+                user.getRole(), user.getStatus(), user.getCreatedAt(), user.getUpdatedAt());
+    }
+}
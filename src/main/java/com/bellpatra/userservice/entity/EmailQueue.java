@@ -5,14 +5,19 @@ import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.ColumnDefault;
 import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.JdbcTypeCode;
 import org.hibernate.annotations.UpdateTimestamp;
+import org.hibernate.type.SqlTypes;
 
 import java.time.LocalDateTime;
 import java.util.UUID;
 
 @Entity
-@Table(name = "email_queue")
+@Table(name = "email_queue", indexes = {
+        @Index(name = "idx_email_queue_status_scheduled", columnList = "status, scheduled_at")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -43,6 +48,11 @@ public class EmailQueue {
     @Column(nullable = false)
     private EmailStatus status = EmailStatus.PENDING;
     
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    @ColumnDefault("'NORMAL'")
+    private EmailPriority priority;
+    
     @Column
     private Integer retryCount = 0;
     
@@ -58,8 +68,17 @@ public class EmailQueue {
     @Column
     private LocalDateTime processedAt;
     
+    // Written by each claim, so a dispatcher can tell its rows from a concurrent claim on another node
+    @Column(name = "claim_token")
+    private UUID claimToken;
+    
+    // Set with the claim; PROCESSING rows claimed too long ago are released by EmailDispatcher#releaseStaleClaims
+    @Column(name = "claimed_at")
+    private LocalDateTime claimedAt;
+    
+    @JdbcTypeCode(SqlTypes.JSON)
     @Column(columnDefinition = "TEXT")
-    private String metadata; // JSON string for additional data like IP address, device info, etc.
+    private String metadata; // EmailPayload JSON; stored as jsonb when email.queue.metadata-jsonb=true
     
     @CreationTimestamp
     @Column(name = "created_at", nullable = false, updatable = false)
@@ -69,11 +88,38 @@ public class EmailQueue {
     @Column(name = "updated_at")
     private LocalDateTime updatedAt;
     
+    @PrePersist
+    void applyDefaultPriority() {
+        if (priority == null && emailType != null) {
+            priority = emailType.getDefaultPriority();
+        }
+    }
+    
     public enum EmailType {
-        WELCOME_EMAIL,
-        LOGIN_SUCCESS,
-        PASSWORD_RESET,
-        PASSWORD_CHANGE
+        WELCOME_EMAIL(EmailPriority.LOW),
+        LOGIN_SUCCESS(EmailPriority.NORMAL),
+        LOGIN_DIGEST(EmailPriority.NORMAL),
+        PASSWORD_RESET(EmailPriority.HIGH),
+        PASSWORD_CHANGE(EmailPriority.HIGH),
+        ANNOUNCEMENT(EmailPriority.LOW),
+        NOTIFICATION_DIGEST(EmailPriority.LOW);
+        
+        private final EmailPriority defaultPriority;
+        
+        EmailType(EmailPriority defaultPriority) {
+            this.defaultPriority = defaultPriority;
+        }
+        
+        public EmailPriority getDefaultPriority() {
+            return defaultPriority;
+        }
+    }
+    
+    // Declaration order is dispatch order: HIGH lanes are always claimed first
+    public enum EmailPriority {
+        HIGH,
+        NORMAL,
+        LOW
     }
     
     public enum EmailStatus {
@@ -0,0 +1,47 @@
+package com.bellpatra.userservice.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+@Entity
+@Table(name = "known_login_devices", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_known_login_devices_user_fingerprint", columnNames = {"user_email", "fingerprint"})
+})
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class KnownLoginDevice {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private UUID id;
+    
+    @Column(name = "user_email", nullable = false)
+    private String userEmail;
+    
+    // SHA-256 of the User-Agent without version numbers
+    @Column(nullable = false, length = 64)
+    private String fingerprint;
+    
+    @Column(name = "device_info")
+    private String deviceInfo;
+    
+    // Address of the latest login from the device
+    @Column(name = "ip_address")
+    private String ipAddress;
+    
+    @CreationTimestamp
+    @Column(name = "first_seen_at", nullable = false, updatable = false)
+    private LocalDateTime firstSeenAt;
+    
+    @Column(name = "last_seen_at")
+    private LocalDateTime lastSeenAt;
+}
@@ -0,0 +1,78 @@
+package com.bellpatra.userservice.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * A side effect (Kafka event or email) recorded in the same transaction as the business change that
+ * caused it. The relay drains in creation order; ids come from a pooled sequence so bulk writes can be
+ * batched, which makes them unique but not ordered across nodes. An event that keeps failing
+ * is parked ({@code parkedAt} set) and skipped by the relay until someone looks at it.
+ */
+@Entity
+@Table(name = "outbox_events", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_outbox_events_event_id", columnNames = {"event_id"})
+}, indexes = {
+        @Index(name = "idx_outbox_events_destination", columnList = "destination, parked_at, created_at, id"),
+        @Index(name = "idx_outbox_events_aggregate", columnList = "aggregate_id, topic, parked_at")
+})
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class OutboxEvent {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "outbox_events_seq")
+    @SequenceGenerator(name = "outbox_events_seq", sequenceName = "outbox_events_seq", allocationSize = 50)
+    private Long id;
+    
+    // Idempotency key carried to consumers
+    @Column(name = "event_id", nullable = false)
+    private UUID eventId;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private Destination destination;
+    
+    // Kafka topic, or "email_queue" for email events
+    @Column(nullable = false)
+    private String topic;
+    
+    // Kafka record key; events for the same aggregate land on the same partition
+    @Column(name = "aggregate_id", nullable = false)
+    private String aggregateId;
+    
+    @Column(name = "event_type", nullable = false)
+    private String eventType;
+    
+    @Column(columnDefinition = "TEXT", nullable = false)
+    private String payload;
+    
+    @CreationTimestamp
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+    
+    // Failed relay attempts that were the event's own fault, not the broker's
+    @Column(nullable = false, columnDefinition = "integer not null default 0")
+    @Builder.Default
+    private Integer attempts = 0;
+    
+    @Column(name = "last_error", length = 500)
+    private String lastError;
+    
+    @Column(name = "parked_at")
+    private LocalDateTime parkedAt;
+    
+    public enum Destination {
+        KAFKA,
+        EMAIL
+    }
+}
@@ -0,0 +1,62 @@
+package com.bellpatra.userservice.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+// Latest execution of each job on each scheduler node of the Quartz cluster
+@Entity
+@Table(name = "quartz_job_runs", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_quartz_job_runs_node_job", columnNames = {"instance_id", "job_name", "job_group"})
+})
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class QuartzJobRun {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private UUID id;
+    
+    @Column(name = "instance_id", nullable = false)
+    private String instanceId;
+    
+    @Column(name = "job_name", nullable = false)
+    private String jobName;
+    
+    @Column(name = "job_group", nullable = false)
+    private String jobGroup;
+    
+    @Column(name = "last_trigger_name")
+    private String lastTriggerName;
+    
+    @Column(name = "execution_count", nullable = false)
+    private long executionCount;
+    
+    @Column(name = "failure_count", nullable = false)
+    private long failureCount;
+    
+    @Column(name = "last_fired_at")
+    private LocalDateTime lastFiredAt;
+    
+    @Column(name = "last_finished_at")
+    private LocalDateTime lastFinishedAt;
+    
+    @Column(name = "last_duration_ms")
+    private Long lastDurationMs;
+    
+    @Column(name = "last_succeeded")
+    private Boolean lastSucceeded;
+    
+    @Column(name = "last_succeeded_at")
+    private LocalDateTime lastSucceededAt;
+    
+    @Column(name = "last_error")
+    private String lastError;
+}
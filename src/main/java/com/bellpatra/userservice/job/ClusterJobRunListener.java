@@ -0,0 +1,107 @@
+package com.bellpatra.userservice.job;
+
+import com.bellpatra.userservice.entity.QuartzJobRun;
+import com.bellpatra.userservice.repository.QuartzJobRunRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.quartz.JobKey;
+import org.quartz.listeners.JobListenerSupport;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * Records which cluster node ran each job, with the outcome of its latest run and the time of its latest
+ * successful one, in {@code quartz_job_runs}.
+ * Registered as a global job listener, so every job on every node reports here.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ClusterJobRunListener extends JobListenerSupport {
+
+    private static final int MAX_ERROR_LENGTH = 255;
+
+    private final QuartzJobRunRepository quartzJobRunRepository;
+
+    @Value("${quartz.cluster.job-runs.retention-hours:72}")
+    private long retentionHours;
+
+    private volatile LocalDateTime lastPrunedAt = LocalDateTime.MIN;
+
+    @Override
+    public String getName() {
+        return "clusterJobRunListener";
+    }
+
+    @Override
+    public void jobWasExecuted(JobExecutionContext context, JobExecutionException jobException) {
+        try {
+            String instanceId = context.getScheduler().getSchedulerInstanceId();
+            JobKey jobKey = context.getJobDetail().getKey();
+            String triggerName = context.getTrigger().getKey().getName();
+            LocalDateTime firedAt = LocalDateTime.ofInstant(context.getFireTime().toInstant(), ZoneId.systemDefault());
+            LocalDateTime finishedAt = LocalDateTime.now();
+            long durationMs = context.getJobRunTime();
+            boolean succeeded = jobException == null;
+            String error = succeeded ? null : truncate(jobException.getMessage());
+
+            int updated = quartzJobRunRepository.recordRun(instanceId, jobKey.getName(), jobKey.getGroup(), triggerName,
+                    firedAt, finishedAt, durationMs, succeeded, error, succeeded ? 0 : 1, succeeded ? finishedAt : null);
+            if (updated == 0) {
+                insertFirstRun(instanceId, jobKey, triggerName, firedAt, finishedAt, durationMs, succeeded, error);
+            }
+            pruneDepartedNodes(finishedAt);
+        } catch (Exception e) {
+            // Bookkeeping only: never fail or delay the job over it
+            log.warn("Could not record run of job {}: {}", context.getJobDetail().getKey(), e.getMessage());
+        }
+    }
+
+    private void insertFirstRun(String instanceId, JobKey jobKey, String triggerName, LocalDateTime firedAt,
+                                LocalDateTime finishedAt, long durationMs, boolean succeeded, String error) {
+        try {
+            quartzJobRunRepository.saveAndFlush(QuartzJobRun.builder()
+                    .instanceId(instanceId)
+                    .jobName(jobKey.getName())
+                    .jobGroup(jobKey.getGroup())
+                    .lastTriggerName(triggerName)
+                    .executionCount(1)
+                    .failureCount(succeeded ? 0 : 1)
+                    .lastFiredAt(firedAt)
+                    .lastFinishedAt(finishedAt)
+                    .lastDurationMs(durationMs)
+                    .lastSucceeded(succeeded)
+                    .lastSucceededAt(succeeded ? finishedAt : null)
+                    .lastError(error)
+                    .build());
+        } catch (DataIntegrityViolationException e) {
+            // A concurrent run of the same job on this node inserted the row first
+            quartzJobRunRepository.recordRun(instanceId, jobKey.getName(), jobKey.getGroup(), triggerName,
+                    firedAt, finishedAt, durationMs, succeeded, error, succeeded ? 0 : 1, succeeded ? finishedAt : null);
+        }
+    }
+
+    private void pruneDepartedNodes(LocalDateTime now) {
+        if (lastPrunedAt.isAfter(now.minusHours(1))) {
+            return;
+        }
+        lastPrunedAt = now;
+        int pruned = quartzJobRunRepository.deleteFinishedBefore(now.minusHours(retentionHours));
+        if (pruned > 0) {
+            log.info("Pruned {} job run records of departed scheduler nodes", pruned);
+        }
+    }
+
+    private static String truncate(String message) {
+        if (message == null || message.length() <= MAX_ERROR_LENGTH) {
+            return message;
+        }
+        return message.substring(0, MAX_ERROR_LENGTH);
+    }
+}
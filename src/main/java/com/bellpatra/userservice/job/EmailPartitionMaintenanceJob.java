@@ -0,0 +1,27 @@
+package com.bellpatra.userservice.job;
+
+import com.bellpatra.userservice.service.EmailQueuePartitionManager;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.quartz.Job;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.springframework.stereotype.Component;
+
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class EmailPartitionMaintenanceJob implements Job {
+
+    private final EmailQueuePartitionManager emailQueuePartitionManager;
+
+    @Override
+    public void execute(JobExecutionContext context) throws JobExecutionException {
+        try {
+            emailQueuePartitionManager.createUpcomingPartitions();
+        } catch (Exception e) {
+            log.error("Error in email partition maintenance job", e);
+            throw new JobExecutionException("Email partition maintenance job failed", e);
+        }
+    }
+}
@@ -1,8 +1,8 @@
 package com.bellpatra.userservice.job;
 
 import com.bellpatra.userservice.entity.EmailQueue;
-import com.bellpatra.userservice.repository.EmailQueueRepository;
-import com.bellpatra.userservice.service.EmailProcessor;
+import com.bellpatra.userservice.service.AdaptiveEmailScheduler;
+import com.bellpatra.userservice.service.EmailDispatcher;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.quartz.Job;
@@ -11,27 +11,46 @@ import org.quartz.JobExecutionException;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalDateTime;
-import java.util.List;
 
 @Component
 @RequiredArgsConstructor
 @Slf4j
 public class EmailProcessingJob implements Job {
 
-    private final EmailQueueRepository emailQueueRepository;
-    private final EmailProcessor emailProcessor;
+    public static final String PRIORITY_KEY = "priority";
+
+    private final EmailDispatcher emailDispatcher;
+    private final AdaptiveEmailScheduler adaptiveEmailScheduler;
 
     @Override
     public void execute(JobExecutionContext context) throws JobExecutionException {
         try {
             log.debug("Starting email processing job at: {}", LocalDateTime.now());
             
-            // Process pending emails
+            // Send concurrency is tuned cluster-wide; pick it up on whichever node this run landed
+            adaptiveEmailScheduler.applySharedConcurrency(context.getTrigger());
+            
+            // A job bound to a single lane only drains that lane (used by the fast OTP trigger)
+            String priority = context.getMergedJobDataMap().getString(PRIORITY_KEY);
+            if (priority != null) {
+                emailDispatcher.dispatch(EmailQueue.EmailPriority.valueOf(priority));
+                return;
+            }
+            
+            // Process pending emails, highest lane first
             processPendingEmails();
             
+            // Emails a dead node claimed but never acknowledged become retries
+            releaseStaleClaims();
+            
             // Process failed emails for retry
             processFailedEmails();
             
+            // Only the main trigger is retuned; the retry trigger shares this job but keeps its interval
+            if (adaptiveEmailScheduler.isAdaptiveTrigger(context.getTrigger())) {
+                adaptiveEmailScheduler.adjust(context.getTrigger());
+            }
+            
             log.debug("Email processing job completed at: {}", LocalDateTime.now());
             
         } catch (Exception e) {
@@ -42,55 +61,26 @@ public class EmailProcessingJob implements Job {
 
     private void processPendingEmails() {
         try {
-            List<EmailQueue> pendingEmails = emailQueueRepository.findByStatusAndScheduledAtLessThanEqualOrderByCreatedAtAsc(
-                    EmailQueue.EmailStatus.PENDING, 
-                    LocalDateTime.now()
-            );
-
-            if (pendingEmails.isEmpty()) {
-                log.debug("No pending emails to process");
-                return;
-            }
-
-            log.info("Processing {} pending emails", pendingEmails.size());
-
-            for (EmailQueue emailQueue : pendingEmails) {
-                try {
-                    emailProcessor.processEmail(emailQueue);
-                } catch (Exception e) {
-                    log.error("Failed to process email ID: {} for recipient: {}", 
-                            emailQueue.getId(), emailQueue.getRecipientEmail(), e);
-                }
-            }
-
+            emailDispatcher.dispatchAll();
         } catch (Exception e) {
             log.error("Error processing pending emails", e);
         }
     }
 
-    private void processFailedEmails() {
+    private void releaseStaleClaims() {
         try {
-            List<EmailQueue> failedEmails = emailQueueRepository.findByStatusAndRetryCountLessThanOrderByCreatedAtAsc(
-                    EmailQueue.EmailStatus.FAILED, 
-                    3 // max retries
-            );
-
-            if (failedEmails.isEmpty()) {
-                log.debug("No failed emails to retry");
-                return;
-            }
-
-            log.info("Retrying {} failed emails", failedEmails.size());
+            emailDispatcher.releaseStaleClaims();
+        } catch (Exception e) {
+            log.error("Error releasing stale email claims", e);
+        }
+    }
 
-            for (EmailQueue emailQueue : failedEmails) {
-                try {
-                    emailProcessor.processEmail(emailQueue);
-                } catch (Exception e) {
-                    log.error("Failed to retry email ID: {} for recipient: {}", 
-                            emailQueue.getId(), emailQueue.getRecipientEmail(), e);
-                }
+    private void processFailedEmails() {
+        try {
+            int retried = emailDispatcher.dispatchRetries();
+            if (retried > 0) {
+                log.info("Retrying {} failed emails", retried);
             }
-
         } catch (Exception e) {
             log.error("Error processing failed emails", e);
         }
@@ -0,0 +1,33 @@
+package com.bellpatra.userservice.job;
+
+import com.bellpatra.userservice.service.OutboxRelay;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.quartz.DisallowConcurrentExecution;
+import org.quartz.Job;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.springframework.stereotype.Component;
+
+// One relay at a time keeps the outbox drained in id order
+@Component
+@DisallowConcurrentExecution
+@RequiredArgsConstructor
+@Slf4j
+public class OutboxRelayJob implements Job {
+
+    private final OutboxRelay outboxRelay;
+
+    @Override
+    public void execute(JobExecutionContext context) throws JobExecutionException {
+        try {
+            int relayed = outboxRelay.drain();
+            if (relayed > 0) {
+                log.debug("Outbox relay forwarded {} events", relayed);
+            }
+        } catch (Exception e) {
+            log.error("Error in outbox relay job", e);
+            throw new JobExecutionException("Outbox relay job failed", e);
+        }
+    }
+}
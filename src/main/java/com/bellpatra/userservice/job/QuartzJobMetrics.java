@@ -0,0 +1,176 @@
+package com.bellpatra.userservice.job;
+
+import com.bellpatra.userservice.repository.QuartzJobRunRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.quartz.JobKey;
+import org.quartz.JobListener;
+import org.quartz.Trigger;
+import org.quartz.TriggerListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Global job and trigger listener that instruments every Quartz job on this node: run duration
+ * histograms by outcome, misfires, jobs currently executing and the time of the last successful run.
+ * Meters are tagged by job so each job gets its own series. Any node may run a given fire, so the
+ * counts and last success in {@link #getStats} come from {@code quartz_job_runs}, which every node
+ * writes (see {@link ClusterJobRunListener}); only durations and running jobs are this node's own.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class QuartzJobMetrics implements JobListener, TriggerListener {
+
+    private final MeterRegistry meterRegistry;
+    private final QuartzJobRunRepository quartzJobRunRepository;
+
+    private final Map<JobKey, JobMeters> meters = new ConcurrentHashMap<>();
+
+    @Override
+    public String getName() {
+        return "quartzJobMetrics";
+    }
+
+    @Override
+    public void jobToBeExecuted(JobExecutionContext context) {
+        JobMeters job = metersFor(context.getJobDetail().getKey());
+        int running = job.running.incrementAndGet();
+        job.peakRunning.accumulateAndGet(running, Math::max);
+    }
+
+    @Override
+    public void jobExecutionVetoed(JobExecutionContext context) {
+    }
+
+    @Override
+    public void jobWasExecuted(JobExecutionContext context, JobExecutionException jobException) {
+        JobMeters job = metersFor(context.getJobDetail().getKey());
+        job.running.decrementAndGet();
+
+        long runTime = Math.max(0, context.getJobRunTime());
+        job.lastDurationMs.set(runTime);
+        if (jobException == null) {
+            job.succeeded.record(runTime, TimeUnit.MILLISECONDS);
+            job.lastSuccessAt.set(System.currentTimeMillis());
+        } else {
+            job.failed.record(runTime, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void triggerFired(Trigger trigger, JobExecutionContext context) {
+    }
+
+    @Override
+    public boolean vetoJobExecution(Trigger trigger, JobExecutionContext context) {
+        return false;
+    }
+
+    // Reported by whichever node's job store applied the misfire instruction
+    @Override
+    public void triggerMisfired(Trigger trigger) {
+        metersFor(trigger.getJobKey()).misfires.increment();
+        log.warn("Trigger {} of job {} misfired", trigger.getKey(), trigger.getJobKey());
+    }
+
+    @Override
+    public void triggerComplete(Trigger trigger, JobExecutionContext context,
+                                Trigger.CompletedExecutionInstruction triggerInstructionCode) {
+    }
+
+    /**
+     * Cluster-wide executions, failures and last success of the job, over the nodes still on record in
+     * {@code quartz_job_runs}, plus this node's running count and durations. Misfires are only a meter:
+     * they are counted by whichever node's job store noticed them, so only the sum across nodes means anything.
+     */
+    public Map<String, Object> getStats(JobKey jobKey) {
+        Map<String, Object> cluster = new LinkedHashMap<>();
+        List<Object[]> summary = quartzJobRunRepository.summarizeJob(jobKey.getName(), jobKey.getGroup());
+        Object[] row = summary.isEmpty() ? new Object[3] : summary.get(0);
+        cluster.put("executions", row[0] != null ? ((Number) row[0]).longValue() : 0L);
+        cluster.put("failures", row[1] != null ? ((Number) row[1]).longValue() : 0L);
+        cluster.put("lastSuccessAt", row[2] != null ? ((LocalDateTime) row[2]).toString() : "N/A");
+
+        JobMeters job = metersFor(jobKey);
+        Map<String, Object> node = new LinkedHashMap<>();
+        node.put("executions", job.succeeded.count() + job.failed.count());
+        node.put("running", job.running.get());
+        node.put("peakRunning", job.peakRunning.get());
+        node.put("meanDurationMs", job.succeeded.mean(TimeUnit.MILLISECONDS));
+        node.put("lastDurationMs", job.lastDurationMs.get());
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("cluster", cluster);
+        stats.put("node", node);
+        return stats;
+    }
+
+    private JobMeters metersFor(JobKey jobKey) {
+        return meters.computeIfAbsent(jobKey, this::register);
+    }
+
+    private JobMeters register(JobKey jobKey) {
+        String job = jobKey.getName();
+        String group = jobKey.getGroup();
+        JobMeters jobMeters = new JobMeters(
+                durationTimer(job, group, "success"),
+                durationTimer(job, group, "failure"),
+                Counter.builder("quartz.job.misfires")
+                        .tags("job", job, "group", group)
+                        .description("Triggers of the job that missed their fire time")
+                        .register(meterRegistry));
+        Gauge.builder("quartz.job.running", jobMeters.running, AtomicInteger::get)
+                .tags("job", job, "group", group)
+                .description("Executions of the job currently running on this node")
+                .register(meterRegistry);
+        TimeGauge.builder("quartz.job.last.success", jobMeters.lastSuccessAt, TimeUnit.MILLISECONDS, AtomicLong::get)
+                .tags("job", job, "group", group)
+                .description("Epoch time the job last completed without error on this node")
+                .register(meterRegistry);
+        return jobMeters;
+    }
+
+    private Timer durationTimer(String job, String group, String outcome) {
+        return Timer.builder("quartz.job.duration")
+                .tags("job", job, "group", group, "outcome", outcome)
+                .description("Quartz job execution time")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofMinutes(30))
+                .register(meterRegistry);
+    }
+
+    private static final class JobMeters {
+
+        private final Timer succeeded;
+        private final Timer failed;
+        private final Counter misfires;
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger peakRunning = new AtomicInteger();
+        private final AtomicLong lastDurationMs = new AtomicLong();
+        private final AtomicLong lastSuccessAt = new AtomicLong();
+
+        JobMeters(Timer succeeded, Timer failed, Counter misfires) {
+            this.succeeded = succeeded;
+            this.failed = failed;
+            this.misfires = misfires;
+        }
+    }
+}
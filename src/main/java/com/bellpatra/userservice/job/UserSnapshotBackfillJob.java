@@ -0,0 +1,31 @@
+package com.bellpatra.userservice.job;
+
+import com.bellpatra.userservice.service.UserSnapshotBackfill;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.quartz.DisallowConcurrentExecution;
+import org.quartz.Job;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.springframework.stereotype.Component;
+
+// Run on demand (POST /api/v1/quartz/jobs/userSnapshotBackfillJob/trigger) to seed user-snapshots
+@Component
+@DisallowConcurrentExecution
+@RequiredArgsConstructor
+@Slf4j
+public class UserSnapshotBackfillJob implements Job {
+
+    private final UserSnapshotBackfill userSnapshotBackfill;
+
+    @Override
+    public void execute(JobExecutionContext context) throws JobExecutionException {
+        try {
+            long recorded = userSnapshotBackfill.backfill();
+            context.setResult(recorded);
+        } catch (Exception e) {
+            log.error("Error in user snapshot backfill job", e);
+            throw new JobExecutionException("User snapshot backfill job failed", e);
+        }
+    }
+}
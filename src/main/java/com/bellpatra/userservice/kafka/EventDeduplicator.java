@@ -0,0 +1,243 @@
+package com.bellpatra.userservice.kafka;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drops redelivered events by their {@code event-id} header. Each owned partition of a de-duplicated
+ * topic gets a {@link RotatingBloomFilter} of recently processed ids. The filters are checkpointed to
+ * the compacted {@link #STATE_TOPIC}, so a partition's window moves with it on a rebalance and is
+ * reloaded on restart; only ids processed after the last checkpoint can be seen twice.
+ */
+@Component
+public class EventDeduplicator implements ConsumerAwareRebalanceListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventDeduplicator.class);
+
+    public static final String STATE_TOPIC = "user-service-dedup-state";
+
+    @Autowired
+    private KafkaTemplate<String, byte[]> retryKafkaTemplate;
+
+    @Autowired
+    private ConsumerFactory<String, byte[]> consumerFactory;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${kafka.dedup.topics:notifications}")
+    private List<String> dedupTopics;
+
+    @Value("${kafka.dedup.generations:3}")
+    private int generations;
+
+    @Value("${kafka.dedup.ids-per-generation:100000}")
+    private int idsPerGeneration;
+
+    @Value("${kafka.dedup.false-positive-rate:0.000001}")
+    private double falsePositiveRate;
+
+    @Value("${kafka.dedup.checkpoint-interval-ms:30000}")
+    private long checkpointIntervalMs;
+
+    @Value("${kafka.dedup.checkpoint-timeout-ms:10000}")
+    private long checkpointTimeoutMs;
+
+    private final Map<TopicPartition, RotatingBloomFilter> filters = new ConcurrentHashMap<>();
+    private final AtomicLong checkpointSequence = new AtomicLong(System.currentTimeMillis());
+    private volatile long lastCheckpointAt = System.currentTimeMillis();
+
+    @PostConstruct
+    void init() {
+        Gauge.builder("kafka.consumer.dedup.memory", filters, owned -> owned.values().stream()
+                        .mapToLong(RotatingBloomFilter::memoryBytes).sum())
+                .baseUnit("bytes")
+                .description("Memory held by de-duplication windows of owned partitions")
+                .register(meterRegistry);
+    }
+
+    public boolean isDuplicate(ConsumerRecord<String, ?> record) {
+        RotatingBloomFilter filter = filters.get(new TopicPartition(record.topic(), record.partition()));
+        UUID eventId = eventId(record);
+        if (filter == null || eventId == null || !filter.mightContain(eventId)) {
+            return false;
+        }
+        Counter.builder("kafka.consumer.duplicates").tag("topic", record.topic()).register(meterRegistry).increment();
+        logger.debug("Skipping duplicate event {} at {}-{}@{}", eventId, record.topic(), record.partition(), record.offset());
+        return true;
+    }
+
+    public void markProcessed(ConsumerRecord<String, ?> record) {
+        RotatingBloomFilter filter = filters.get(new TopicPartition(record.topic(), record.partition()));
+        UUID eventId = eventId(record);
+        if (filter != null && eventId != null) {
+            filter.put(eventId);
+        }
+    }
+
+    /**
+     * Writes changed filter generations to the state topic once the checkpoint interval has passed.
+     * Called by listeners after acknowledging a batch.
+     */
+    public void maybeCheckpoint() {
+        if (System.currentTimeMillis() - lastCheckpointAt < checkpointIntervalMs) {
+            return;
+        }
+        synchronized (this) {
+            if (System.currentTimeMillis() - lastCheckpointAt < checkpointIntervalMs) {
+                return;
+            }
+            lastCheckpointAt = System.currentTimeMillis();
+            filters.keySet().forEach(this::checkpoint);
+        }
+    }
+
+    @Override
+    public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        List<TopicPartition> tracked = partitions.stream().filter(partition -> dedupTopics.contains(partition.topic())).toList();
+        if (!tracked.isEmpty()) {
+            restore(tracked);
+        }
+    }
+
+    // The new owner restores as soon as the rebalance completes, so the window must be on the broker by then
+    @Override
+    public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        List<CompletableFuture<?>> acks = new ArrayList<>();
+        List<TopicPartition> revoked = partitions.stream().filter(filters::containsKey).toList();
+        for (TopicPartition partition : revoked) {
+            acks.addAll(checkpoint(partition));
+        }
+        try {
+            CompletableFuture.allOf(acks.toArray(CompletableFuture[]::new)).get(checkpointTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while checkpointing de-duplication state of revoked partitions {}", revoked);
+        } catch (Exception e) {
+            logger.warn("Could not checkpoint de-duplication state of revoked partitions {}", revoked, e);
+        }
+        revoked.forEach(filters::remove);
+    }
+
+    @Override
+    public void onPartitionsLost(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        partitions.forEach(filters::remove);
+    }
+
+    // A generation whose snapshot did not reach the broker is marked dirty again for the next checkpoint
+    private List<CompletableFuture<?>> checkpoint(TopicPartition partition) {
+        RotatingBloomFilter filter = filters.get(partition);
+        if (filter == null) {
+            return List.of();
+        }
+        List<CompletableFuture<?>> acks = new ArrayList<>();
+        long sequence = checkpointSequence.incrementAndGet();
+        for (int generation = 0; generation < filter.generationCount(); generation++) {
+            byte[] snapshot = filter.snapshotIfDirty(generation, sequence);
+            if (snapshot != null) {
+                String key = stateKey(partition, generation);
+                int written = generation;
+                acks.add(retryKafkaTemplate.send(STATE_TOPIC, key, snapshot).whenComplete((result, error) -> {
+                    if (error != null) {
+                        filter.markDirty(written);
+                        logger.warn("Failed to checkpoint de-duplication state {}: {}", key, error.getMessage());
+                    }
+                }));
+            }
+        }
+        return acks;
+    }
+
+    private void restore(List<TopicPartition> partitions) {
+        Map<String, TopicPartition> wanted = new HashMap<>();
+        for (TopicPartition partition : partitions) {
+            filters.put(partition, new RotatingBloomFilter(generations, idsPerGeneration, falsePositiveRate));
+            for (int generation = 0; generation < generations; generation++) {
+                wanted.put(stateKey(partition, generation), partition);
+            }
+        }
+
+        // The topic is compacted to one record per key, so reading it end to end is cheap
+        Map<String, byte[]> latest = new HashMap<>();
+        try (Consumer<String, byte[]> reader = consumerFactory.createConsumer(null, "dedup-restore")) {
+            List<TopicPartition> stateParts = new ArrayList<>();
+            for (PartitionInfo info : reader.partitionsFor(STATE_TOPIC)) {
+                stateParts.add(new TopicPartition(info.topic(), info.partition()));
+            }
+            reader.assign(stateParts);
+            reader.seekToBeginning(stateParts);
+            Map<TopicPartition, Long> end = reader.endOffsets(stateParts);
+            while (stateParts.stream().anyMatch(part -> reader.position(part) < end.get(part))) {
+                ConsumerRecords<String, byte[]> records = reader.poll(Duration.ofMillis(500));
+                for (ConsumerRecord<String, byte[]> record : records) {
+                    if (wanted.containsKey(record.key())) {
+                        if (record.value() == null) {
+                            latest.remove(record.key());
+                        } else {
+                            latest.put(record.key(), record.value());
+                        }
+                    }
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("Could not restore de-duplication state for {}; starting with empty windows", partitions, e);
+            return;
+        }
+
+        // Apply in checkpoint order so the newest snapshot decides the current generation
+        latest.entrySet().stream()
+                .sorted(Map.Entry.comparingByValue((a, b) -> Long.compare(sequenceOf(a), sequenceOf(b))))
+                .forEach(entry -> filters.get(wanted.get(entry.getKey())).restore(entry.getValue()));
+        logger.info("Restored de-duplication windows for {} ({} snapshots)", partitions, latest.size());
+    }
+
+    private static long sequenceOf(byte[] snapshot) {
+        return ByteBuffer.wrap(snapshot).getLong();
+    }
+
+    private static String stateKey(TopicPartition partition, int generation) {
+        return partition.topic() + "/" + partition.partition() + "/" + generation;
+    }
+
+    private static UUID eventId(ConsumerRecord<String, ?> record) {
+        Header header = record.headers().lastHeader(KafkaProducerService.EVENT_ID_HEADER);
+        if (header == null) {
+            return null;
+        }
+        try {
+            return UUID.fromString(new String(header.value(), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -1,102 +1,200 @@
 package com.bellpatra.userservice.kafka;
 
+import com.bellpatra.userservice.dto.NotificationEvent;
+import com.bellpatra.userservice.dto.PresenceEvent;
+import com.bellpatra.userservice.service.PresenceStore;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import jakarta.annotation.PostConstruct;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.ConsumerSeekAware;
+import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 @Service
-public class KafkaConsumerService {
+public class KafkaConsumerService implements ConsumerSeekAware {
 
     private static final Logger logger = LoggerFactory.getLogger(KafkaConsumerService.class);
 
+    public static final String NOTIFICATIONS_TOPIC = "notifications";
+    public static final String USER_PRESENCE_TOPIC = "user-presence";
+
     @Autowired
     private ObjectMapper objectMapper;
 
-    @KafkaListener(topics = "notifications", groupId = "user-service-group")
-    public void handleNotification(String message) {
-        try {
-            logger.info("Received notification: {}", message);
-            
-            // Parse the notification message
-            Map<String, Object> notification = objectMapper.readValue(message, Map.class);
-            
-            // Process notification based on type
-            String type = (String) notification.get("type");
-            String userId = (String) notification.get("userId");
-            
-            switch (type) {
-                case "MENTION":
-                    handleMentionNotification(notification);
-                    break;
-                case "MESSAGE":
-                    handleMessageNotification(notification);
-                    break;
-                case "CALL":
-                    handleCallNotification(notification);
-                    break;
-                default:
-                    logger.warn("Unknown notification type: {}", type);
+    @Autowired
+    private KeyOrderedBatchProcessor batchProcessor;
+
+    @Autowired
+    private PresenceStore presenceStore;
+
+    @Autowired
+    private KafkaRetryRouter retryRouter;
+
+    @Autowired
+    private EventDeduplicator deduplicator;
+
+    @Autowired
+    private NotificationDigestBuffer notificationDigestBuffer;
+
+    @Value("${presence.ttl-seconds:300}")
+    private int presenceTtlSeconds;
+
+    // Bound once: readers bind straight from the record bytes to the typed events
+    private ObjectReader notificationReader;
+    private ObjectReader presenceReader;
+
+    @PostConstruct
+    void init() {
+        notificationReader = objectMapper.readerFor(NotificationEvent.class);
+        presenceReader = objectMapper.readerFor(PresenceEvent.class);
+    }
+
+    // Failed records are parked on retry topics by the router, so the main listeners never stall on them
+    @KafkaListener(topics = NOTIFICATIONS_TOPIC, groupId = "user-service-group",
+            concurrency = "${kafka.listener.notifications.concurrency:3}")
+    public void handleNotifications(List<ConsumerRecord<String, byte[]>> records, Acknowledgment acknowledgment) {
+        batchProcessor.process(records, deduplicated(this::handleNotification), (record, error) -> {
+            retryRouter.recover(record, error);
+            // Parked once; a redelivery of this batch must not park it again
+            deduplicator.markProcessed(record);
+        });
+        // Digest entries from this batch must be durable before its offsets are committed
+        notificationDigestBuffer.checkpoint(records);
+        acknowledgment.acknowledge();
+        deduplicator.maybeCheckpoint();
+    }
+
+    // Each instance keeps its own presence store, so each joins with its own group and sees every partition.
+    // The group is thrown away with the instance, so nothing is committed for it (see onPartitionsAssigned)
+    @KafkaListener(topics = USER_PRESENCE_TOPIC, groupId = "user-service-presence-#{T(java.util.UUID).randomUUID()}",
+            concurrency = "${kafka.listener.user-presence.concurrency:3}",
+            containerFactory = "presenceListenerContainerFactory")
+    public void handleUserPresence(List<ConsumerRecord<String, byte[]>> records) {
+        // Every instance reads every presence record; parking them would retry each failure once per instance
+        batchProcessor.process(records, this::handlePresenceUpdate, retryRouter::deadLetter);
+    }
+
+    /**
+     * Rebuilds the presence store after a start or rebalance: presence partitions are read from one TTL
+     * back, the oldest updates that can still be live, instead of from the end where users already
+     * online would stay unknown until their next heartbeat.
+     */
+    @Override
+    public void onPartitionsAssigned(Map<TopicPartition, Long> assignments, ConsumerSeekCallback callback) {
+        List<TopicPartition> presencePartitions = assignments.keySet().stream()
+                .filter(partition -> USER_PRESENCE_TOPIC.equals(partition.topic()))
+                .toList();
+        if (!presencePartitions.isEmpty()) {
+            callback.seekToTimestamp(presencePartitions, System.currentTimeMillis() - presenceTtlSeconds * 1000L);
+        }
+    }
+
+    // Runs in one container per retry tier (see NotificationRetryListeners)
+    public void retryNotifications(List<ConsumerRecord<String, byte[]>> records, Acknowledgment acknowledgment) {
+        retry(records, acknowledgment, this::handleNotification, notificationDigestBuffer::checkpoint);
+    }
+
+    private KeyOrderedBatchProcessor.RecordHandler<byte[]> deduplicated(KeyOrderedBatchProcessor.RecordHandler<byte[]> handler) {
+        return record -> {
+            if (deduplicator.isDuplicate(record)) {
+                return;
+            }
+            handler.handle(record);
+            deduplicator.markProcessed(record);
+        };
+    }
+
+    /**
+     * Handles parked records in order once they are due. The first record not yet due ends the batch:
+     * everything before it is committed and the consumer of this retry tier alone sleeps until it is.
+     * {@code beforeCommit} is given the handled records right before their offsets are committed.
+     */
+    private void retry(List<ConsumerRecord<String, byte[]>> records, Acknowledgment acknowledgment,
+                       KeyOrderedBatchProcessor.RecordHandler<byte[]> handler,
+                       Consumer<List<ConsumerRecord<String, byte[]>>> beforeCommit) {
+        for (int i = 0; i < records.size(); i++) {
+            ConsumerRecord<String, byte[]> record = records.get(i);
+            long delay = retryRouter.delayRemaining(record);
+            if (delay > 0) {
+                beforeCommit.accept(records.subList(0, i));
+                acknowledgment.nack(i, Duration.ofMillis(delay));
+                return;
+            }
+            try {
+                handler.handle(record);
+            } catch (Exception e) {
+                retryRouter.recover(record, e);
             }
-            
-        } catch (Exception e) {
-            logger.error("Error processing notification: {}", e.getMessage(), e);
         }
+        beforeCommit.accept(records);
+        acknowledgment.acknowledge();
     }
 
-    @KafkaListener(topics = "user-presence", groupId = "user-service-group")
-    public void handleUserPresence(String message) {
-        try {
-            logger.info("Received user presence update: {}", message);
-            
-            // Parse the presence message
-            Map<String, Object> presence = objectMapper.readValue(message, Map.class);
-            String userId = (String) presence.get("userId");
-            String status = (String) presence.get("status");
-            
-            // Update user presence in database or cache
-            logger.info("User {} is now {}", userId, status);
-            
-        } catch (Exception e) {
-            logger.error("Error processing user presence: {}", e.getMessage(), e);
+    private void handleNotification(ConsumerRecord<String, byte[]> record) throws IOException {
+        NotificationEvent notification = notificationReader.readValue(record.value());
+        logger.debug("Received notification: {}", notification);
+
+        switch (notification) {
+            case NotificationEvent.Mention mention -> handleMentionNotification(record, mention);
+            case NotificationEvent.Message message -> handleMessageNotification(record, message);
+            case NotificationEvent.Call call -> handleCallNotification(call);
         }
     }
 
-    private void handleMentionNotification(Map<String, Object> notification) {
-        String userId = (String) notification.get("userId");
-        String mentionedBy = (String) notification.get("mentionedBy");
-        String content = (String) notification.get("content");
-        
-        logger.info("User {} was mentioned by {} in message: {}", userId, mentionedBy, content);
-        
+    private void handlePresenceUpdate(ConsumerRecord<String, byte[]> record) throws IOException {
+        PresenceEvent presence = presenceReader.readValue(record.value());
+        logger.debug("Received user presence update: {}", presence);
+
+        if (presence.userId() == null) {
+            throw new IllegalArgumentException("Presence update without userId");
+        }
+        // Unknown statuses throw IllegalArgumentException and are dead-lettered
+        String value = String.valueOf(presence.status()).toUpperCase();
+        PresenceStore.Status status = "OFFLINE".equals(value) ? null : PresenceStore.Status.valueOf(value);
+
+        long timestamp = presence.timestamp() != null ? presence.timestamp() : record.timestamp();
+        presenceStore.update(presence.userId(), status, timestamp);
+    }
+
+    private void handleMentionNotification(ConsumerRecord<String, byte[]> record, NotificationEvent.Mention mention) {
+        logger.info("User {} was mentioned by {} in message: {}", mention.userId(), mention.mentionedBy(), mention.content());
+
+        // Offline users get it in their next notification digest email
+        notificationDigestBuffer.add(record, mention);
+
         // Here you could:
         // 1. Store notification in database
-        // 2. Send email notification
-        // 3. Send push notification
-        // 4. Update user's notification count
+        // 2. Send push notification
+        // 3. Update user's notification count
     }
 
-    private void handleMessageNotification(Map<String, Object> notification) {
-        String userId = (String) notification.get("userId");
-        String channelId = (String) notification.get("channelId");
-        
-        logger.info("New message notification for user {} in channel {}", userId, channelId);
-        
+    private void handleMessageNotification(ConsumerRecord<String, byte[]> record, NotificationEvent.Message message) {
+        logger.info("New message notification for user {} in channel {}", message.userId(), message.channelId());
+
+        // Offline users get it in their next notification digest email
+        notificationDigestBuffer.add(record, message);
+
         // Here you could:
         // 1. Store notification in database
         // 2. Send push notification if user is offline
         // 3. Update unread message count
     }
 
-    private void handleCallNotification(Map<String, Object> notification) {
-        String userId = (String) notification.get("userId");
-        String callType = (String) notification.get("callType");
-        
-        logger.info("Call notification for user {}: {}", userId, callType);
+    private void handleCallNotification(NotificationEvent.Call call) {
+        logger.info("Call notification for user {}: {}", call.userId(), call.callType());
         
         // Here you could:
         // 1. Store call history
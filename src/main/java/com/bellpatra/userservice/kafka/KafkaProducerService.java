@@ -1,85 +1,136 @@
 package com.bellpatra.userservice.kafka;
 
+import com.bellpatra.userservice.dto.UserEvent;
+import com.bellpatra.userservice.dto.UserEventPayload;
+import com.bellpatra.userservice.dto.UserSnapshot;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.apache.kafka.clients.producer.ProducerRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class KafkaProducerService {
 
     private static final Logger logger = LoggerFactory.getLogger(KafkaProducerService.class);
 
+    public static final String USER_EVENTS_TOPIC = "user-events";
+    public static final String USER_SNAPSHOTS_TOPIC = "user-snapshots";
+    public static final String EVENT_ID_HEADER = "event-id";
+    public static final String EVENT_TYPE_HEADER = "event-type";
+
     @Autowired
     private KafkaTemplate<String, String> kafkaTemplate;
 
     @Autowired
     private ObjectMapper objectMapper;
 
-    public void publishUserEvent(String eventType, Map<String, Object> data) {
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private ObjectWriter userEventWriter;
+    private ObjectWriter userSnapshotWriter;
+
+    @PostConstruct
+    void init() {
+        userEventWriter = objectMapper.writerFor(UserEvent.class);
+        userSnapshotWriter = objectMapper.writerFor(UserSnapshot.class);
+    }
+
+    public String serialize(UserEvent event) {
         try {
-            data.put("eventType", eventType);
-            data.put("timestamp", System.currentTimeMillis());
-            
-            String message = objectMapper.writeValueAsString(data);
-            kafkaTemplate.send("user-events", message);
-            
-            logger.info("Published user event {}: {}", eventType, data.get("userId"));
-        } catch (Exception e) {
-            logger.error("Error publishing user event: {}", e.getMessage(), e);
+            return userEventWriter.writeValueAsString(event);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Failed to serialize " + event.eventType() + " event", e);
         }
     }
 
-    public void publishUserLogin(String userId, String email, String ipAddress) {
-        Map<String, Object> data = Map.of(
-            "userId", userId,
-            "email", email,
-            "ipAddress", ipAddress,
-            "action", "LOGIN"
-        );
-        publishUserEvent("USER_LOGIN", data);
+    public String serialize(UserSnapshot snapshot) {
+        try {
+            return userSnapshotWriter.writeValueAsString(snapshot);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Failed to serialize snapshot of user " + snapshot.id(), e);
+        }
     }
 
-    public void publishUserLogout(String userId, String email) {
-        Map<String, Object> data = Map.of(
-            "userId", userId,
-            "email", email,
-            "action", "LOGOUT"
-        );
-        publishUserEvent("USER_LOGOUT", data);
+    /**
+     * Publishes an event straight to {@code user-events}, keyed by user id. Events that accompany a
+     * database change should go through {@code OutboxService} instead.
+     */
+    public CompletableFuture<SendResult<String, String>> publishUserEvent(UserEvent event) {
+        return send(USER_EVENTS_TOPIC, event.userId(), event.eventId(), event.eventType(), serialize(event));
+    }
+
+    /**
+     * Sends an already serialized event keyed by its aggregate id. The event id travels as a header so
+     * consumers can drop redeliveries. The outcome is recorded when the broker acknowledges.
+     */
+    public CompletableFuture<SendResult<String, String>> send(String topic, String key, UUID eventId, String eventType, String message) {
+        ProducerRecord<String, String> record = new ProducerRecord<>(topic, key, message);
+        record.headers().add(EVENT_ID_HEADER, eventId.toString().getBytes(StandardCharsets.UTF_8));
+        record.headers().add(EVENT_TYPE_HEADER, eventType.getBytes(StandardCharsets.UTF_8));
+
+        long start = System.nanoTime();
+        return kafkaTemplate.send(record)
+                .whenComplete((result, error) -> recordOutcome(topic, eventType, key, start, error));
     }
 
-    public void publishUserRegistration(String userId, String email, String firstName, String lastName) {
-        Map<String, Object> data = Map.of(
-            "userId", userId,
-            "email", email,
-            "firstName", firstName,
-            "lastName", lastName,
-            "action", "REGISTRATION"
-        );
-        publishUserEvent("USER_REGISTRATION", data);
+    public CompletableFuture<SendResult<String, String>> publishUserLogin(String userId, String email, String ipAddress) {
+        return publishUserEvent(UserEvent.of(UUID.fromString(userId), new UserEventPayload.Login(email, ipAddress)));
     }
 
-    public void publishPasswordChange(String userId, String email) {
-        Map<String, Object> data = Map.of(
-            "userId", userId,
-            "email", email,
-            "action", "PASSWORD_CHANGE"
-        );
-        publishUserEvent("PASSWORD_CHANGE", data);
+    public CompletableFuture<SendResult<String, String>> publishLoginFailed(UUID userId, String email, String ipAddress, String reason) {
+        return publishUserEvent(UserEvent.of(userId, new UserEventPayload.LoginFailed(email, ipAddress, reason)));
     }
 
-    public void publishProfileUpdate(String userId, String email, Map<String, Object> changes) {
-        Map<String, Object> data = Map.of(
-            "userId", userId,
-            "email", email,
-            "changes", changes,
-            "action", "PROFILE_UPDATE"
-        );
-        publishUserEvent("PROFILE_UPDATE", data);
+    public CompletableFuture<SendResult<String, String>> publishUserLogout(String userId, String email) {
+        return publishUserEvent(UserEvent.of(UUID.fromString(userId), new UserEventPayload.Logout(email)));
+    }
+
+    public CompletableFuture<SendResult<String, String>> publishUserRegistration(String userId, String email, String firstName, String lastName) {
+        return publishUserEvent(UserEvent.of(UUID.fromString(userId), new UserEventPayload.Registration(email, firstName, lastName)));
+    }
+
+    public CompletableFuture<SendResult<String, String>> publishPasswordChange(String userId, String email) {
+        return publishUserEvent(UserEvent.of(UUID.fromString(userId), new UserEventPayload.PasswordChange(email)));
+    }
+
+    public CompletableFuture<SendResult<String, String>> publishProfileUpdate(String userId, String email, Map<String, Object> changes) {
+        return publishUserEvent(UserEvent.of(UUID.fromString(userId), new UserEventPayload.ProfileUpdate(email, changes)));
+    }
+
+    private void recordOutcome(String topic, String eventType, String key, long startNanos, Throwable error) {
+        Timer.builder("kafka.producer.send.latency")
+                .tag("topic", topic)
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        Counter.builder("kafka.producer.sends")
+                .tag("topic", topic)
+                .tag("eventType", eventType)
+                .tag("result", error == null ? "success" : "failure")
+                .register(meterRegistry)
+                .increment();
+
+        if (error != null) {
+            logger.error("Failed to publish {} for key {} to {}: {}", eventType, key, topic, error.getMessage(), error);
+        } else {
+            logger.debug("Published {} for key {} to {}", eventType, key, topic);
+        }
     }
 }
@@ -0,0 +1,175 @@
+package com.bellpatra.userservice.kafka;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parks records a listener could not handle, so they never hold up their partition. A failed record
+ * moves through {@code <topic>-retry-0..n}, each tier consumed after its own delay, and ends in
+ * {@code <topic>-dlt} once the tiers are exhausted. Records that can never succeed (unparseable
+ * payloads, invalid values) go to the dead-letter topic directly, as do failures of listeners that
+ * run on every instance (see {@link #deadLetter}).
+ */
+@Component
+public class KafkaRetryRouter {
+
+    private static final Logger logger = LoggerFactory.getLogger(KafkaRetryRouter.class);
+
+    public static final String RETRY_ATTEMPT_HEADER = "retry-attempt";
+    public static final String RETRY_DUE_AT_HEADER = "retry-due-at";
+    public static final String ORIGINAL_TOPIC_HEADER = "failure-original-topic";
+    public static final String ORIGINAL_PARTITION_HEADER = "failure-original-partition";
+    public static final String ORIGINAL_OFFSET_HEADER = "failure-original-offset";
+    public static final String EXCEPTION_HEADER = "failure-exception";
+    public static final String EXCEPTION_MESSAGE_HEADER = "failure-message";
+    public static final String EXCEPTION_STACKTRACE_HEADER = "failure-stacktrace";
+
+    private static final int MAX_STACKTRACE_LENGTH = 4000;
+
+    @Autowired
+    private KafkaTemplate<String, byte[]> retryKafkaTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${kafka.retry.delays-ms:1000,10000,60000}")
+    private List<Long> retryDelaysMs;
+
+    @Value("${kafka.retry.send-timeout-ms:10000}")
+    private long sendTimeoutMs;
+
+    public static String retryTopic(String topic, int tier) {
+        return topic + "-retry-" + tier;
+    }
+
+    public static String deadLetterTopic(String topic) {
+        return topic + "-dlt";
+    }
+
+    public int tiers() {
+        return retryDelaysMs.size();
+    }
+
+    /**
+     * Forwards a failed record to its next retry tier, or to the dead-letter topic. Blocks until the
+     * broker has the copy, so the caller may then commit past the original; throws if it could not be
+     * forwarded, which fails the batch instead of losing the record.
+     */
+    public void recover(ConsumerRecord<String, byte[]> record, Exception error) {
+        int attempt = Integer.parseInt(header(record.headers(), RETRY_ATTEMPT_HEADER, "0"));
+        forward(record, error, attempt, isRetryable(error) && attempt < retryDelaysMs.size());
+    }
+
+    /**
+     * Forwards a failed record straight to the dead-letter topic, skipping the retry tiers. For listeners
+     * every instance runs over every record, where each instance would otherwise park and retry its own copy.
+     */
+    public void deadLetter(ConsumerRecord<String, byte[]> record, Exception error) {
+        forward(record, error, Integer.parseInt(header(record.headers(), RETRY_ATTEMPT_HEADER, "0")), false);
+    }
+
+    private void forward(ConsumerRecord<String, byte[]> record, Exception error, int attempt, boolean retryable) {
+        String originalTopic = header(record.headers(), ORIGINAL_TOPIC_HEADER, record.topic());
+        String target = retryable ? retryTopic(originalTopic, attempt) : deadLetterTopic(originalTopic);
+        ProducerRecord<String, byte[]> forward = new ProducerRecord<>(target, record.key(), record.value());
+        for (Header header : record.headers()) {
+            if (!header.key().startsWith("failure-") && !header.key().startsWith("retry-")) {
+                forward.headers().add(header);
+            }
+        }
+        Headers headers = forward.headers();
+        add(headers, ORIGINAL_TOPIC_HEADER, originalTopic);
+        add(headers, ORIGINAL_PARTITION_HEADER, header(record.headers(), ORIGINAL_PARTITION_HEADER, String.valueOf(record.partition())));
+        add(headers, ORIGINAL_OFFSET_HEADER, header(record.headers(), ORIGINAL_OFFSET_HEADER, String.valueOf(record.offset())));
+        add(headers, RETRY_ATTEMPT_HEADER, String.valueOf(attempt + 1));
+        if (retryable) {
+            add(headers, RETRY_DUE_AT_HEADER, String.valueOf(System.currentTimeMillis() + retryDelaysMs.get(attempt)));
+        }
+        Throwable cause = rootCause(error);
+        add(headers, EXCEPTION_HEADER, cause.getClass().getName());
+        add(headers, EXCEPTION_MESSAGE_HEADER, String.valueOf(cause.getMessage()));
+        add(headers, EXCEPTION_STACKTRACE_HEADER, stackTrace(error));
+
+        try {
+            retryKafkaTemplate.send(forward).get(sendTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to forward " + record.topic() + "-" + record.partition() + "@" + record.offset()
+                    + " to " + target, e);
+        }
+
+        if (retryable) {
+            Counter.builder("kafka.consumer.retries").tag("topic", originalTopic).tag("tier", String.valueOf(attempt))
+                    .register(meterRegistry).increment();
+            logger.warn("Parked {}-{}@{} on {} after attempt {}: {}", record.topic(), record.partition(), record.offset(),
+                    target, attempt + 1, cause.getMessage());
+        } else {
+            Counter.builder("kafka.consumer.dead.letters").tag("topic", originalTopic)
+                    .register(meterRegistry).increment();
+            logger.error("Dead-lettered {}-{}@{} to {} after attempt {}: {}", record.topic(), record.partition(), record.offset(),
+                    target, attempt + 1, cause.getMessage());
+        }
+    }
+
+    /**
+     * Milliseconds until a record read from a retry topic may be handled again; zero when due.
+     */
+    public long delayRemaining(ConsumerRecord<String, byte[]> record) {
+        long dueAt = Long.parseLong(header(record.headers(), RETRY_DUE_AT_HEADER, "0"));
+        return Math.max(0, dueAt - System.currentTimeMillis());
+    }
+
+    public String originalTopic(ConsumerRecord<String, byte[]> record) {
+        return header(record.headers(), ORIGINAL_TOPIC_HEADER, record.topic());
+    }
+
+    // A payload that failed to parse or validate fails the same way on every attempt
+    private static boolean isRetryable(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof JsonProcessingException || cause instanceof IllegalArgumentException) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Throwable rootCause(Throwable error) {
+        Throwable cause = error;
+        while (cause.getCause() != null && cause.getCause() != cause) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    private static String stackTrace(Throwable error) {
+        StringWriter writer = new StringWriter();
+        error.printStackTrace(new PrintWriter(writer));
+        String trace = writer.toString();
+        return trace.length() > MAX_STACKTRACE_LENGTH ? trace.substring(0, MAX_STACKTRACE_LENGTH) : trace;
+    }
+
+    private static String header(Headers headers, String key, String defaultValue) {
+        Header header = headers.lastHeader(key);
+        return header != null ? new String(header.value(), StandardCharsets.UTF_8) : defaultValue;
+    }
+
+    private static void add(Headers headers, String key, String value) {
+        headers.add(key, value.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,129 @@
+package com.bellpatra.userservice.kafka;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Fans a polled batch out across virtual threads while keeping per-key order: records sharing a key
+ * are handled one after another in offset order, distinct keys run in parallel. {@link #process}
+ * returns only once every record is handled, so listeners acknowledge the batch right after it.
+ */
+@Component
+public class KeyOrderedBatchProcessor {
+
+    private static final Logger logger = LoggerFactory.getLogger(KeyOrderedBatchProcessor.class);
+
+    @FunctionalInterface
+    public interface RecordHandler<V> {
+        void handle(ConsumerRecord<String, V> record) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface RecordRecoverer<V> {
+        void recover(ConsumerRecord<String, V> record, Exception error);
+    }
+
+    private final MeterRegistry meterRegistry;
+    private final ExecutorService workers = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("kafka-batch-", 0).factory());
+
+    @Value("${kafka.listener.batch-timeout-ms:60000}")
+    private long batchTimeoutMillis;
+
+    public KeyOrderedBatchProcessor(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        workers.shutdown();
+    }
+
+    /**
+     * Handles every record of the batch. Throws if any record failed or the batch timed out, in which
+     * case the caller must not acknowledge; records after a failed one under the same key are not run.
+     */
+    public <V> void process(List<ConsumerRecord<String, V>> records, RecordHandler<V> handler) {
+        process(records, handler, null);
+    }
+
+    /**
+     * As {@link #process(List, RecordHandler)}, but a failed record is passed to the recoverer and its
+     * key carries on with the next record. Only a failing recoverer fails the batch.
+     */
+    public <V> void process(List<ConsumerRecord<String, V>> records, RecordHandler<V> handler, RecordRecoverer<V> recoverer) {
+        if (records.isEmpty()) {
+            return;
+        }
+        String topic = records.get(0).topic();
+
+        // Keyless records fall back to partition order
+        Map<Object, List<ConsumerRecord<String, V>>> byKey = new LinkedHashMap<>();
+        for (ConsumerRecord<String, V> record : records) {
+            Object orderingKey = record.key() != null ? record.key() : record.partition();
+            byKey.computeIfAbsent(orderingKey, key -> new ArrayList<>()).add(record);
+        }
+
+        CompletableFuture<?>[] groups = byKey.values().stream()
+                .map(group -> CompletableFuture.runAsync(() -> handleInOrder(group, handler, recoverer), workers))
+                .toArray(CompletableFuture[]::new);
+
+        long start = System.nanoTime();
+        try {
+            CompletableFuture.allOf(groups).get(batchTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to process batch of " + records.size() + " records from " + topic, e.getCause());
+        } catch (TimeoutException e) {
+            throw new RuntimeException("Batch of " + records.size() + " records from " + topic
+                    + " not processed within " + batchTimeoutMillis + " ms", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while processing batch from " + topic, e);
+        } finally {
+            Timer.builder("kafka.consumer.batch.duration")
+                    .tag("topic", topic)
+                    .publishPercentiles(0.5, 0.99)
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+
+        Counter.builder("kafka.consumer.records")
+                .tag("topic", topic)
+                .register(meterRegistry)
+                .increment(records.size());
+        logger.debug("Processed {} records from {} across {} keys", records.size(), topic, byKey.size());
+    }
+
+    private static <V> void handleInOrder(List<ConsumerRecord<String, V>> group, RecordHandler<V> handler,
+                                          RecordRecoverer<V> recoverer) {
+        for (ConsumerRecord<String, V> record : group) {
+            try {
+                handler.handle(record);
+            } catch (Exception e) {
+                if (recoverer != null) {
+                    recoverer.recover(record, e);
+                    continue;
+                }
+                throw new CompletionException("Failed at " + record.topic() + "-" + record.partition() + "@" + record.offset(), e);
+            }
+        }
+    }
+}
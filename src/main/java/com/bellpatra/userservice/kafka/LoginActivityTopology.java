@@ -0,0 +1,89 @@
+package com.bellpatra.userservice.kafka;
+
+import com.bellpatra.userservice.dto.UserEventPayload;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.StreamsBuilder;
+import org.apache.kafka.streams.kstream.Consumed;
+import org.apache.kafka.streams.kstream.Grouped;
+import org.apache.kafka.streams.kstream.KStream;
+import org.apache.kafka.streams.kstream.Materialized;
+import org.apache.kafka.streams.kstream.TimeWindows;
+import org.apache.kafka.streams.state.WindowStore;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Windowed login activity over {@code user-events}: successful and failed logins per window, and the
+ * number of distinct users who logged in. Counts live in persistent (RocksDB) window stores that
+ * {@code LoginActivityService} queries. Kept free of Spring so TopologyTestDriver can run it offline.
+ */
+public final class LoginActivityTopology {
+
+    // Keyed by event type (USER_LOGIN, USER_LOGIN_FAILED)
+    public static final String EVENT_COUNTS_STORE = "login-event-counts";
+    // Single key ACTIVE_USERS_KEY
+    public static final String ACTIVE_USERS_STORE = "login-active-users";
+    public static final String ACTIVE_USERS_KEY = "ACTIVE_USERS";
+    static final String USER_WINDOWS_STORE = "login-user-windows";
+
+    private static final ObjectReader EVENT_READER = new ObjectMapper().readerFor(JsonNode.class);
+
+    private LoginActivityTopology() {
+    }
+
+    public static KStream<String, String> build(StreamsBuilder builder, Duration window, Duration grace, Duration retention) {
+        TimeWindows windows = TimeWindows.ofSizeAndGrace(window, grace);
+
+        // Key stays the user id (null for failed logins of unknown emails), value becomes the event type
+        KStream<String, String> logins = builder
+                .stream(KafkaProducerService.USER_EVENTS_TOPIC, Consumed.with(Serdes.String(), Serdes.String()))
+                .flatMapValues(LoginActivityTopology::loginEventType);
+
+        logins.groupBy((userId, eventType) -> eventType, Grouped.with("login-by-type", Serdes.String(), Serdes.String()))
+                .windowedBy(windows)
+                .count(Materialized.<String, Long, WindowStore<Bytes, byte[]>>as(EVENT_COUNTS_STORE)
+                        .withKeySerde(Serdes.String())
+                        .withValueSerde(Serdes.Long())
+                        .withRetention(retention));
+
+        // A user's first login in a window (count == 1, so caching must be off to see it) adds one active user
+        logins.filter((userId, eventType) -> userId != null && UserEventPayload.USER_LOGIN.equals(eventType))
+                .groupByKey(Grouped.with(Serdes.String(), Serdes.String()))
+                .windowedBy(windows)
+                .count(Materialized.<String, Long, WindowStore<Bytes, byte[]>>as(USER_WINDOWS_STORE)
+                        .withKeySerde(Serdes.String())
+                        .withValueSerde(Serdes.Long())
+                        .withRetention(window.plus(grace))
+                        .withCachingDisabled())
+                .toStream()
+                .filter((userWindow, count) -> count != null && count == 1L)
+                .map((userWindow, count) -> KeyValue.pair(ACTIVE_USERS_KEY, userWindow.key()))
+                .groupByKey(Grouped.with("login-active-users", Serdes.String(), Serdes.String()))
+                .windowedBy(windows)
+                .count(Materialized.<String, Long, WindowStore<Bytes, byte[]>>as(ACTIVE_USERS_STORE)
+                        .withKeySerde(Serdes.String())
+                        .withValueSerde(Serdes.Long())
+                        .withRetention(retention));
+        return logins;
+    }
+
+    private static List<String> loginEventType(String value) {
+        if (value == null) {
+            return List.of();
+        }
+        try {
+            String eventType = EVENT_READER.<JsonNode>readValue(value).path("eventType").asText();
+            return UserEventPayload.USER_LOGIN.equals(eventType) || UserEventPayload.USER_LOGIN_FAILED.equals(eventType)
+                    ? List.of(eventType) : List.of();
+        } catch (IOException e) {
+            return List.of();
+        }
+    }
+}
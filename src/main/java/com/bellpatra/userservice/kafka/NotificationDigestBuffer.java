@@ -0,0 +1,595 @@
+package com.bellpatra.userservice.kafka;
+
+import com.bellpatra.userservice.dto.EmailPayload;
+import com.bellpatra.userservice.dto.NotificationEvent;
+import com.bellpatra.userservice.entity.User;
+import com.bellpatra.userservice.repository.UserRepository;
+import com.bellpatra.userservice.service.EmailQueueService;
+import com.bellpatra.userservice.service.PresenceStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+
+/**
+ * Turns mentions and messages for offline users into one NOTIFICATION_DIGEST email per user and window,
+ * instead of an email per notification. Pending digests are held in memory per owned partition of the
+ * notifications topics, capped per user and in total, and checkpointed to the compacted
+ * {@link #STATE_TOPIC} before each batch is acknowledged, so they follow their partition on a
+ * rebalance and survive a restart. A user's notifications can sit in several partitions (the main
+ * topic and its retry tiers); a flush takes all of them together and sends the user one email. A digest
+ * is removed from the state topic once its email is queued.
+ */
+@Component
+public class NotificationDigestBuffer implements ConsumerAwareRebalanceListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(NotificationDigestBuffer.class);
+
+    public static final String STATE_TOPIC = "user-service-notification-digest-state";
+
+    private static final String MENTION = "MENTION";
+    private static final String MESSAGE = "MESSAGE";
+
+    @Autowired
+    private KafkaTemplate<String, byte[]> retryKafkaTemplate;
+
+    @Autowired
+    private ConsumerFactory<String, byte[]> consumerFactory;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private EmailQueueService emailQueueService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private PresenceStore presenceStore;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${notifications.digest.window-minutes:30}")
+    private long windowMinutes;
+
+    @Value("${notifications.digest.max-entries-per-user:20}")
+    private int maxEntriesPerUser;
+
+    @Value("${notifications.digest.max-users:50000}")
+    private int maxUsers;
+
+    @Value("${notifications.digest.content-preview-chars:200}")
+    private int contentPreviewChars;
+
+    @Value("${notifications.digest.flush-interval-seconds:30}")
+    private long flushIntervalSeconds;
+
+    @Value("${notifications.digest.checkpoint-timeout-ms:10000}")
+    private long checkpointTimeoutMs;
+
+    private final Map<TopicPartition, PartitionBuffer> buffers = new ConcurrentHashMap<>();
+    private final AtomicInteger bufferedUsers = new AtomicInteger();
+    private final AtomicBoolean overflowFlushPending = new AtomicBoolean();
+    private ObjectReader stateReader;
+    private ObjectWriter stateWriter;
+    private Counter digestsQueued;
+    private ScheduledExecutorService flusher;
+
+    @PostConstruct
+    void init() {
+        stateReader = objectMapper.readerFor(EmailPayload.NotificationDigest.class);
+        stateWriter = objectMapper.writerFor(EmailPayload.NotificationDigest.class);
+
+        Gauge.builder("notifications.digest.buffered.users", bufferedUsers, AtomicInteger::get)
+                .description("Users with a notification digest waiting to be emailed")
+                .register(meterRegistry);
+        digestsQueued = Counter.builder("notifications.digest.emails")
+                .description("Notification digest emails queued")
+                .register(meterRegistry);
+
+        flusher = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().name("notification-digest-flush").factory());
+        flusher.scheduleWithFixedDelay(this::flushSafely, flushIntervalSeconds, flushIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        flusher.shutdown();
+    }
+
+    /**
+     * Adds a mention or message to its user's digest. Users who are online see it in the app, so
+     * nothing is buffered for them.
+     */
+    public void add(ConsumerRecord<String, ?> record, NotificationEvent notification) {
+        UUID userId = UUID.fromString(String.valueOf(notification.userId()));
+        if (presenceStore.get(userId) != null) {
+            return;
+        }
+
+        LocalDateTime receivedAt = LocalDateTime.ofInstant(Instant.ofEpochMilli(record.timestamp()), ZoneId.systemDefault());
+        EmailPayload.NotificationDigest.Notification entry = switch (notification) {
+            case NotificationEvent.Mention mention -> new EmailPayload.NotificationDigest.Notification(
+                    MENTION, mention.mentionedBy(), null, preview(mention.content()), receivedAt.toString());
+            case NotificationEvent.Message message -> new EmailPayload.NotificationDigest.Notification(
+                    MESSAGE, null, message.channelId(), null, receivedAt.toString());
+            case NotificationEvent.Call call -> throw new IllegalArgumentException("Calls are not part of the notification digest");
+        };
+
+        TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+        if (buffers.computeIfAbsent(partition, PartitionBuffer::new).add(userId.toString(), entry, System.currentTimeMillis())
+                && bufferedUsers.incrementAndGet() > maxUsers && overflowFlushPending.compareAndSet(false, true)) {
+            flusher.execute(this::flushSafely);
+        }
+    }
+
+    /**
+     * Writes digests changed by this batch to the state topic and waits for the writes, so the batch is
+     * only acknowledged once its notifications survive a crash. Throws if the checkpoint failed; the
+     * digests stay dirty in memory and go out with the next checkpoint.
+     */
+    public void checkpoint(List<? extends ConsumerRecord<String, ?>> records) {
+        Set<TopicPartition> partitions = new LinkedHashSet<>();
+        for (ConsumerRecord<String, ?> record : records) {
+            partitions.add(new TopicPartition(record.topic(), record.partition()));
+        }
+        for (TopicPartition partition : partitions) {
+            PartitionBuffer buffer = buffers.get(partition);
+            if (buffer != null) {
+                buffer.checkpoint();
+            }
+        }
+    }
+
+    @Override
+    public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        List<TopicPartition> tracked = partitions.stream().filter(NotificationDigestBuffer::isTracked).toList();
+        if (!tracked.isEmpty()) {
+            restore(tracked);
+        }
+    }
+
+    @Override
+    public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        for (TopicPartition partition : partitions) {
+            PartitionBuffer buffer = buffers.remove(partition);
+            if (buffer == null) {
+                continue;
+            }
+            try {
+                buffer.checkpoint();
+            } catch (Exception e) {
+                logger.warn("Could not checkpoint notification digests of revoked partition {}", partition, e);
+            }
+            buffer.tombstoneDelivered();
+            bufferedUsers.addAndGet(-buffer.size());
+        }
+    }
+
+    @Override
+    public void onPartitionsLost(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        for (TopicPartition partition : partitions) {
+            PartitionBuffer buffer = buffers.remove(partition);
+            if (buffer != null) {
+                bufferedUsers.addAndGet(-buffer.size());
+            }
+        }
+    }
+
+    private void flushSafely() {
+        try {
+            overflowFlushPending.set(false);
+            flush();
+        } catch (Exception e) {
+            logger.warn("Notification digest flush failed", e);
+        }
+    }
+
+    /**
+     * Queues an email for every digest whose window has closed. Over the user cap, the oldest digests
+     * are sent early until the buffer is back under it.
+     */
+    void flush() {
+        long cutoff = System.currentTimeMillis() - Duration.ofMinutes(windowMinutes).toMillis();
+        int excess = bufferedUsers.get() - maxUsers;
+        if (excess > 0) {
+            long[] starts = buffers.values().stream().flatMapToLong(PartitionBuffer::windowStarts).sorted().toArray();
+            if (starts.length > 0) {
+                cutoff = Math.max(cutoff, starts[Math.min(excess, starts.length) - 1]);
+            }
+        }
+
+        Map<PartitionBuffer, Map<String, PendingDigest>> taken = new LinkedHashMap<>();
+        for (PartitionBuffer buffer : buffers.values()) {
+            Map<String, PendingDigest> due = buffer.takeDue(cutoff);
+            if (!due.isEmpty()) {
+                taken.put(buffer, due);
+            }
+        }
+        if (!taken.isEmpty()) {
+            // Whatever else these users have pending, in other partitions, goes out in the same email
+            Set<String> dueUsers = new HashSet<>();
+            taken.values().forEach(due -> dueUsers.addAll(due.keySet()));
+            for (PartitionBuffer buffer : buffers.values()) {
+                Map<String, PendingDigest> rest = buffer.take(dueUsers);
+                if (!rest.isEmpty()) {
+                    taken.computeIfAbsent(buffer, ignored -> new HashMap<>()).putAll(rest);
+                }
+            }
+
+            Map<String, PendingDigest> perUser = new HashMap<>();
+            int takenDigests = 0;
+            for (Map<String, PendingDigest> due : taken.values()) {
+                due.forEach((userId, digest) -> perUser.merge(userId, digest,
+                        (first, second) -> first.mergedWith(second, maxEntriesPerUser)));
+                takenDigests += due.size();
+            }
+            bufferedUsers.addAndGet(-takenDigests);
+            try {
+                deliver(perUser);
+                taken.forEach((buffer, due) -> buffer.delivered(due.keySet()));
+            } catch (Exception e) {
+                logger.warn("Could not queue {} notification digests; keeping them for the next flush", perUser.size(), e);
+                taken.forEach((buffer, due) -> bufferedUsers.addAndGet(buffer.putBack(due)));
+            }
+        }
+
+        // Includes buffers revoked during this flush, whose delivered digests must still be deleted
+        Set<PartitionBuffer> tombstoned = new LinkedHashSet<>(buffers.values());
+        tombstoned.addAll(taken.keySet());
+        for (PartitionBuffer buffer : tombstoned) {
+            buffer.tombstoneDelivered();
+        }
+    }
+
+    private void deliver(Map<String, PendingDigest> due) {
+        List<UUID> userIds = due.keySet().stream().map(UUID::fromString).toList();
+        // Users who came back online during the window have seen these in the app
+        Set<UUID> online = presenceStore.getPresent(userIds).keySet();
+
+        Map<User, EmailPayload.NotificationDigest> digests = new LinkedHashMap<>();
+        for (User user : userRepository.findAllById(userIds)) {
+            if (!online.contains(user.getId())) {
+                String userId = user.getId().toString();
+                digests.put(user, due.get(userId).toPayload(userId));
+            }
+        }
+        if (!digests.isEmpty()) {
+            emailQueueService.queueNotificationDigests(digests);
+            digestsQueued.increment(digests.size());
+        }
+        logger.info("Flushed {} notification digests, {} emailed", due.size(), digests.size());
+    }
+
+    private void restore(List<TopicPartition> partitions) {
+        Map<String, TopicPartition> wanted = new HashMap<>();
+        for (TopicPartition partition : partitions) {
+            buffers.putIfAbsent(partition, new PartitionBuffer(partition));
+            wanted.put(statePrefix(partition), partition);
+        }
+
+        // Compacted to one record per pending digest, and flushed digests are deleted, so the topic stays small
+        Map<String, byte[]> latest = new HashMap<>();
+        try (Consumer<String, byte[]> reader = consumerFactory.createConsumer(null, "digest-restore")) {
+            List<TopicPartition> stateParts = new ArrayList<>();
+            for (PartitionInfo info : reader.partitionsFor(STATE_TOPIC)) {
+                stateParts.add(new TopicPartition(info.topic(), info.partition()));
+            }
+            reader.assign(stateParts);
+            reader.seekToBeginning(stateParts);
+            Map<TopicPartition, Long> end = reader.endOffsets(stateParts);
+            while (stateParts.stream().anyMatch(part -> reader.position(part) < end.get(part))) {
+                ConsumerRecords<String, byte[]> records = reader.poll(Duration.ofMillis(500));
+                for (ConsumerRecord<String, byte[]> record : records) {
+                    if (record.key() == null || !wanted.containsKey(prefixOf(record.key()))) {
+                        continue;
+                    }
+                    if (record.value() == null) {
+                        latest.remove(record.key());
+                    } else {
+                        latest.put(record.key(), record.value());
+                    }
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("Could not restore notification digests for {}; starting with empty buffers", partitions, e);
+            return;
+        }
+
+        int restored = 0;
+        for (Map.Entry<String, byte[]> entry : latest.entrySet()) {
+            String key = entry.getKey();
+            try {
+                EmailPayload.NotificationDigest payload = stateReader.readValue(entry.getValue());
+                if (buffers.get(wanted.get(prefixOf(key))).restore(key.substring(key.lastIndexOf('/') + 1), PendingDigest.of(payload))) {
+                    bufferedUsers.incrementAndGet();
+                    restored++;
+                }
+            } catch (Exception e) {
+                logger.warn("Skipping unreadable notification digest checkpoint {}", key, e);
+            }
+        }
+        logger.info("Restored {} notification digests for {}", restored, partitions);
+    }
+
+    private String preview(String content) {
+        if (content == null || content.length() <= contentPreviewChars) {
+            return content;
+        }
+        return content.substring(0, contentPreviewChars) + "…";
+    }
+
+    private static boolean isTracked(TopicPartition partition) {
+        String topic = partition.topic();
+        return topic.equals(KafkaConsumerService.NOTIFICATIONS_TOPIC)
+                || topic.startsWith(KafkaConsumerService.NOTIFICATIONS_TOPIC + "-retry-");
+    }
+
+    private static String statePrefix(TopicPartition partition) {
+        return partition.topic() + "/" + partition.partition() + "/";
+    }
+
+    private static String prefixOf(String stateKey) {
+        return stateKey.substring(0, stateKey.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * Pending digests of one source partition. Every change and every state-topic write happens under
+     * the buffer's lock, so a checkpoint can never land after the tombstone of the digest it describes.
+     */
+    private final class PartitionBuffer {
+
+        private final TopicPartition partition;
+        private final String statePrefix;
+        private final Map<String, PendingDigest> digests = new HashMap<>();
+        // Users whose digest was queued but whose checkpoint is not yet deleted from the state topic
+        private final Set<String> delivered = new HashSet<>();
+
+        PartitionBuffer(TopicPartition partition) {
+            this.partition = partition;
+            this.statePrefix = statePrefix(partition);
+        }
+
+        // Returns true when this notification opened a new digest
+        synchronized boolean add(String userId, EmailPayload.NotificationDigest.Notification entry, long now) {
+            PendingDigest digest = digests.get(userId);
+            boolean opened = digest == null;
+            if (opened) {
+                digest = new PendingDigest(now);
+                digests.put(userId, digest);
+            }
+            digest.add(entry, maxEntriesPerUser);
+            return opened;
+        }
+
+        void checkpoint() {
+            Map<PendingDigest, Long> written = new IdentityHashMap<>();
+            List<CompletableFuture<?>> acks = new ArrayList<>();
+            synchronized (this) {
+                digests.forEach((userId, digest) -> {
+                    if (digest.isDirty()) {
+                        acks.add(retryKafkaTemplate.send(STATE_TOPIC, statePrefix + userId, encode(digest.toPayload(userId))));
+                        written.put(digest, digest.version);
+                    }
+                });
+            }
+            if (acks.isEmpty()) {
+                return;
+            }
+
+            try {
+                CompletableFuture.allOf(acks.toArray(CompletableFuture[]::new)).get(checkpointTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while checkpointing notification digests of " + partition, e);
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to checkpoint notification digests of " + partition, e);
+            }
+
+            synchronized (this) {
+                written.forEach((digest, version) -> digest.checkpointedVersion = Math.max(digest.checkpointedVersion, version));
+            }
+        }
+
+        synchronized Map<String, PendingDigest> takeDue(long cutoff) {
+            Map<String, PendingDigest> due = new HashMap<>();
+            digests.entrySet().removeIf(entry -> {
+                if (entry.getValue().windowStart <= cutoff) {
+                    due.put(entry.getKey(), entry.getValue());
+                    return true;
+                }
+                return false;
+            });
+            return due;
+        }
+
+        synchronized Map<String, PendingDigest> take(Set<String> userIds) {
+            Map<String, PendingDigest> taken = new HashMap<>();
+            for (String userId : userIds) {
+                PendingDigest digest = digests.remove(userId);
+                if (digest != null) {
+                    taken.put(userId, digest);
+                }
+            }
+            return taken;
+        }
+
+        synchronized void delivered(Collection<String> userIds) {
+            delivered.addAll(userIds);
+        }
+
+        /**
+         * Deletes the checkpoints of delivered digests and waits for the deletes, so a restart does not
+         * email them again. Deletes that fail are retried on the next flush.
+         */
+        void tombstoneDelivered() {
+            Map<String, CompletableFuture<?>> acks = new HashMap<>();
+            synchronized (this) {
+                // A user who already has a new digest keeps its checkpoint; the next write replaces the old one
+                delivered.removeIf(digests::containsKey);
+                for (String userId : delivered) {
+                    acks.put(userId, retryKafkaTemplate.send(STATE_TOPIC, statePrefix + userId, null));
+                }
+            }
+            if (acks.isEmpty()) {
+                return;
+            }
+
+            try {
+                CompletableFuture.allOf(acks.values().toArray(CompletableFuture[]::new)).get(checkpointTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                logger.warn("Could not delete all delivered notification digests of {}; retrying on the next flush", partition, e);
+            }
+
+            synchronized (this) {
+                acks.forEach((userId, ack) -> {
+                    if (ack.isDone() && !ack.isCompletedExceptionally()) {
+                        delivered.remove(userId);
+                    }
+                });
+            }
+        }
+
+        // Returns the number of users that are buffered again
+        synchronized int putBack(Map<String, PendingDigest> unsent) {
+            int reopened = 0;
+            for (Map.Entry<String, PendingDigest> entry : unsent.entrySet()) {
+                PendingDigest newer = digests.get(entry.getKey());
+                if (newer == null) {
+                    digests.put(entry.getKey(), entry.getValue());
+                    reopened++;
+                } else {
+                    digests.put(entry.getKey(), entry.getValue().mergedWith(newer, maxEntriesPerUser));
+                }
+            }
+            return reopened;
+        }
+
+        synchronized boolean restore(String userId, PendingDigest digest) {
+            return digests.putIfAbsent(userId, digest) == null;
+        }
+
+        synchronized int size() {
+            return digests.size();
+        }
+
+        synchronized LongStream windowStarts() {
+            // Materialized under the lock; the stream is consumed after it is released
+            return LongStream.of(digests.values().stream().mapToLong(digest -> digest.windowStart).toArray());
+        }
+
+        private byte[] encode(EmailPayload.NotificationDigest payload) {
+            try {
+                return stateWriter.writeValueAsBytes(payload);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to encode notification digest", e);
+            }
+        }
+    }
+
+    // Only touched under its PartitionBuffer's lock
+    private static final class PendingDigest {
+
+        private final long windowStart;
+        private final ArrayDeque<EmailPayload.NotificationDigest.Notification> notifications = new ArrayDeque<>();
+        private int totalMentions;
+        private int totalMessages;
+        private long version;
+        private long checkpointedVersion;
+
+        PendingDigest(long windowStart) {
+            this.windowStart = windowStart;
+        }
+
+        static PendingDigest of(EmailPayload.NotificationDigest payload) {
+            PendingDigest digest = new PendingDigest(Instant.parse(payload.windowStart()).toEpochMilli());
+            digest.totalMentions = payload.totalMentions();
+            digest.totalMessages = payload.totalMessages();
+            if (payload.notifications() != null) {
+                digest.notifications.addAll(payload.notifications());
+            }
+            return digest;
+        }
+
+        void add(EmailPayload.NotificationDigest.Notification entry, int maxEntries) {
+            if (MENTION.equals(entry.type())) {
+                totalMentions++;
+            } else {
+                totalMessages++;
+            }
+            notifications.addLast(entry);
+            while (notifications.size() > maxEntries) {
+                notifications.removeFirst();
+            }
+            version++;
+        }
+
+        PendingDigest mergedWith(PendingDigest newer, int maxEntries) {
+            PendingDigest merged = new PendingDigest(Math.min(windowStart, newer.windowStart));
+            merged.totalMentions = totalMentions + newer.totalMentions;
+            merged.totalMessages = totalMessages + newer.totalMessages;
+            merged.notifications.addAll(notifications);
+            merged.notifications.addAll(newer.notifications);
+            while (merged.notifications.size() > maxEntries) {
+                merged.notifications.removeFirst();
+            }
+            merged.version = 1;
+            return merged;
+        }
+
+        boolean isDirty() {
+            return version != checkpointedVersion;
+        }
+
+        EmailPayload.NotificationDigest toPayload(String userId) {
+            return new EmailPayload.NotificationDigest(userId, Instant.ofEpochMilli(windowStart).toString(),
+                    totalMentions, totalMessages, List.copyOf(notifications));
+        }
+    }
+}
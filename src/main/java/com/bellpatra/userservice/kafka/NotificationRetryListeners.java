@@ -0,0 +1,117 @@
+package com.bellpatra.userservice.kafka;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.annotation.KafkaListenerConfigurer;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.config.KafkaListenerEndpoint;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistrar;
+import org.springframework.kafka.listener.BatchAcknowledgingMessageListener;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.support.TopicPartitionOffset;
+import org.springframework.kafka.support.converter.MessageConverter;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Consumes the notification retry tiers, one listener container per tier. A retry consumer sleeps until
+ * its next record is due, so tiers must not share one: a record parked for a minute would otherwise hold
+ * up every record parked for a second. The tier count follows {@code kafka.retry.delays-ms}, which is why
+ * the endpoints are registered here rather than declared with {@code @KafkaListener}; they still live in
+ * the listener endpoint registry, so they start and stop with the {@code @KafkaListener} containers.
+ */
+@Component
+public class NotificationRetryListeners implements KafkaListenerConfigurer {
+
+    private static final Logger logger = LoggerFactory.getLogger(NotificationRetryListeners.class);
+
+    private static final String GROUP_ID = "user-service-group-retry";
+
+    @Autowired
+    private ConcurrentKafkaListenerContainerFactory<String, byte[]> kafkaListenerContainerFactory;
+
+    @Autowired
+    private KafkaConsumerService kafkaConsumerService;
+
+    @Autowired
+    private KafkaRetryRouter retryRouter;
+
+    @Override
+    public void configureKafkaListeners(KafkaListenerEndpointRegistrar registrar) {
+        for (int tier = 0; tier < retryRouter.tiers(); tier++) {
+            String topic = KafkaRetryRouter.retryTopic(KafkaConsumerService.NOTIFICATIONS_TOPIC, tier);
+            registrar.registerEndpoint(new RetryTierEndpoint(topic, kafkaConsumerService::retryNotifications),
+                    kafkaListenerContainerFactory);
+        }
+        logger.info("Registered {} notification retry tier listeners", retryRouter.tiers());
+    }
+
+    // Group, topic and listener are fixed; everything else comes from the container factory
+    private record RetryTierEndpoint(String topic, BatchAcknowledgingMessageListener<String, byte[]> listener)
+            implements KafkaListenerEndpoint {
+
+        @Override
+        public String getId() {
+            return topic + "-listener";
+        }
+
+        @Override
+        public String getGroupId() {
+            return GROUP_ID;
+        }
+
+        @Override
+        public String getGroup() {
+            return null;
+        }
+
+        @Override
+        public Collection<String> getTopics() {
+            return List.of(topic);
+        }
+
+        @Override
+        public TopicPartitionOffset[] getTopicPartitionsToAssign() {
+            return new TopicPartitionOffset[0];
+        }
+
+        @Override
+        public Pattern getTopicPattern() {
+            return null;
+        }
+
+        @Override
+        public String getClientIdPrefix() {
+            return null;
+        }
+
+        @Override
+        public Integer getConcurrency() {
+            return null;
+        }
+
+        @Override
+        public Boolean getAutoStartup() {
+            return null;
+        }
+
+        @Override
+        public Boolean getBatchListener() {
+            return true;
+        }
+
+        @Override
+        public void setupListenerContainer(MessageListenerContainer listenerContainer, MessageConverter messageConverter) {
+            listenerContainer.setupMessageListener(listener);
+        }
+
+        @Override
+        public boolean isSplitIterables() {
+            return false;
+        }
+    }
+}
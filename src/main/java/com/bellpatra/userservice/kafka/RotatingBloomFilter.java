@@ -0,0 +1,162 @@
+package com.bellpatra.userservice.kafka;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A sliding window of recently seen UUIDs in a fixed number of bits. The window is split into
+ * generations of Bloom filters: ids are added to the newest one, and once it holds
+ * {@code idsPerGeneration} ids the oldest generation is cleared and becomes the newest, so at least
+ * the last {@code (generations - 1) * idsPerGeneration} ids are always remembered. A lookup checks
+ * every generation, so the per-generation false-positive rate is the target divided by the count.
+ */
+public class RotatingBloomFilter {
+
+    private final int idsPerGeneration;
+    private final long bitsPerGeneration;
+    private final int hashes;
+    private final AtomicLongArray[] generations;
+    private final AtomicInteger[] counts;
+    private final AtomicBoolean[] dirty;
+    private volatile int current;
+
+    public RotatingBloomFilter(int generations, int idsPerGeneration, double falsePositiveRate) {
+        double perGenerationRate = falsePositiveRate / generations;
+        long bits = (long) Math.ceil(-idsPerGeneration * Math.log(perGenerationRate) / (Math.log(2) * Math.log(2)));
+        this.idsPerGeneration = idsPerGeneration;
+        this.bitsPerGeneration = (bits + 63) / 64 * 64;
+        this.hashes = Math.max(1, (int) Math.round((double) bitsPerGeneration / idsPerGeneration * Math.log(2)));
+        this.generations = new AtomicLongArray[generations];
+        this.counts = new AtomicInteger[generations];
+        this.dirty = new AtomicBoolean[generations];
+        for (int i = 0; i < generations; i++) {
+            this.generations[i] = new AtomicLongArray((int) (bitsPerGeneration / 64));
+            this.counts[i] = new AtomicInteger();
+            this.dirty[i] = new AtomicBoolean();
+        }
+    }
+
+    public boolean mightContain(UUID id) {
+        long h1 = mix(id.getMostSignificantBits());
+        long h2 = mix(id.getLeastSignificantBits()) | 1;
+        for (AtomicLongArray words : generations) {
+            if (contains(words, h1, h2)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void put(UUID id) {
+        int generation = current;
+        if (counts[generation].incrementAndGet() > idsPerGeneration) {
+            generation = rotate(generation);
+            counts[generation].incrementAndGet();
+        }
+
+        long h1 = mix(id.getMostSignificantBits());
+        long h2 = mix(id.getLeastSignificantBits()) | 1;
+        AtomicLongArray words = generations[generation];
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitsPerGeneration);
+            words.getAndAccumulate((int) (bit >>> 6), 1L << bit, (word, mask) -> word | mask);
+        }
+        dirty[generation].set(true);
+    }
+
+    public long memoryBytes() {
+        return generations.length * bitsPerGeneration / 8;
+    }
+
+    public int generationCount() {
+        return generations.length;
+    }
+
+    public int hashes() {
+        return hashes;
+    }
+
+    /**
+     * Serialized copy of one generation if it changed since its last snapshot, otherwise null.
+     */
+    public byte[] snapshotIfDirty(int generation, long sequence) {
+        if (!dirty[generation].getAndSet(false)) {
+            return null;
+        }
+        AtomicLongArray words = generations[generation];
+        ByteBuffer buffer = ByteBuffer.allocate(24 + words.length() * 8);
+        buffer.putLong(sequence).putInt(current).putInt(generation).putInt(counts[generation].get()).putInt(words.length());
+        for (int i = 0; i < words.length(); i++) {
+            buffer.putLong(words.get(i));
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Flags a generation for the next {@link #snapshotIfDirty}, e.g. after its last snapshot was lost.
+     */
+    public void markDirty(int generation) {
+        dirty[generation].set(true);
+    }
+
+    /**
+     * Restores one generation from {@link #snapshotIfDirty}; snapshots of a differently sized filter are ignored.
+     * Returns the snapshot's sequence, or -1 if it was not applied.
+     */
+    public long restore(byte[] snapshot) {
+        ByteBuffer buffer = ByteBuffer.wrap(snapshot);
+        long sequence = buffer.getLong();
+        int snapshotCurrent = buffer.getInt();
+        int generation = buffer.getInt();
+        int count = buffer.getInt();
+        int length = buffer.getInt();
+        if (generation >= generations.length || length != generations[generation].length()) {
+            return -1;
+        }
+        AtomicLongArray words = generations[generation];
+        for (int i = 0; i < length; i++) {
+            words.set(i, buffer.getLong());
+        }
+        counts[generation].set(count);
+        current = snapshotCurrent;
+        return sequence;
+    }
+
+    private synchronized int rotate(int full) {
+        if (current != full) {
+            return current;
+        }
+        int next = (full + 1) % generations.length;
+        AtomicLongArray words = generations[next];
+        for (int i = 0; i < words.length(); i++) {
+            words.set(i, 0L);
+        }
+        counts[next].set(0);
+        dirty[next].set(true);
+        current = next;
+        return next;
+    }
+
+    private boolean contains(AtomicLongArray words, long h1, long h2) {
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitsPerGeneration);
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long mix(long value) {
+        // murmur3 fmix64
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
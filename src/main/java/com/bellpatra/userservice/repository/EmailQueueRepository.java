@@ -1,7 +1,10 @@
 package com.bellpatra.userservice.repository;
 
 import com.bellpatra.userservice.entity.EmailQueue;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
@@ -10,6 +13,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
 @Repository
@@ -25,6 +29,20 @@ public interface EmailQueueRepository extends JpaRepository<EmailQueue, UUID> {
             Integer maxRetries
     );
     
+    List<EmailQueue> findByStatusAndPriorityAndScheduledAtLessThanEqualOrderByCreatedAtAsc(
+            EmailQueue.EmailStatus status,
+            EmailQueue.EmailPriority priority,
+            LocalDateTime scheduledAt,
+            Pageable pageable
+    );
+    
+    List<EmailQueue> findByStatusAndPriorityAndRetryCountLessThanOrderByCreatedAtAsc(
+            EmailQueue.EmailStatus status,
+            EmailQueue.EmailPriority priority,
+            Integer maxRetries,
+            Pageable pageable
+    );
+    
     List<EmailQueue> findByRecipientEmailAndStatusOrderByCreatedAtDesc(
             String recipientEmail, 
             EmailQueue.EmailStatus status
@@ -47,10 +65,61 @@ public interface EmailQueueRepository extends JpaRepository<EmailQueue, UUID> {
     
     @Modifying
     @Transactional
-    @Query("DELETE FROM EmailQueue eq WHERE eq.status = :status AND eq.processedAt < :cutoffDate")
-    void deleteOldProcessedEmails(@Param("status") EmailQueue.EmailStatus status, @Param("cutoffDate") LocalDateTime cutoffDate);
+    @Query("UPDATE EmailQueue eq SET eq.status = :status, eq.processedAt = :processedAt WHERE eq.id IN :ids")
+    int updateStatusBatch(@Param("ids") List<UUID> ids, @Param("status") EmailQueue.EmailStatus status, @Param("processedAt") LocalDateTime processedAt);
+    
+    @Modifying
+    @Transactional
+    @Query("UPDATE EmailQueue eq SET eq.status = :status, eq.scheduledAt = :scheduledAt WHERE eq.id IN :ids")
+    int rescheduleBatch(@Param("ids") List<UUID> ids, @Param("status") EmailQueue.EmailStatus status, @Param("scheduledAt") LocalDateTime scheduledAt);
+    
+    @Modifying
+    @Transactional
+    @Query("UPDATE EmailQueue eq SET eq.status = :claimedStatus, eq.claimToken = :claimToken, eq.claimedAt = :claimedAt WHERE eq.id IN :ids AND eq.status = :expectedStatus")
+    int claimBatch(@Param("ids") List<UUID> ids, @Param("expectedStatus") EmailQueue.EmailStatus expectedStatus, @Param("claimedStatus") EmailQueue.EmailStatus claimedStatus, @Param("claimToken") UUID claimToken, @Param("claimedAt") LocalDateTime claimedAt);
+    
+    // Rows without claimedAt were claimed before the column existed, by a dispatch that is long gone
+    @Modifying
+    @Transactional
+    @Query("UPDATE EmailQueue eq SET eq.status = :releasedStatus, eq.retryCount = COALESCE(eq.retryCount, 0) + 1, eq.errorMessage = :errorMessage, eq.claimToken = NULL " +
+           "WHERE eq.status = :claimedStatus AND (eq.claimedAt IS NULL OR eq.claimedAt < :cutoffDate)")
+    int releaseClaimsBefore(@Param("claimedStatus") EmailQueue.EmailStatus claimedStatus, @Param("releasedStatus") EmailQueue.EmailStatus releasedStatus, @Param("cutoffDate") LocalDateTime cutoffDate, @Param("errorMessage") String errorMessage);
+    
+    @Query("SELECT eq.id FROM EmailQueue eq WHERE eq.id IN :ids AND eq.claimToken = :claimToken")
+    List<UUID> findIdsClaimedWith(@Param("ids") List<UUID> ids, @Param("claimToken") UUID claimToken);
+    
+    @Modifying
+    @Transactional
+    @Query("UPDATE EmailQueue eq SET eq.priority = :promotedPriority WHERE eq.status = :status AND eq.priority = :priority AND eq.createdAt < :cutoffDate")
+    int promoteWaitingEmails(@Param("status") EmailQueue.EmailStatus status, @Param("priority") EmailQueue.EmailPriority priority, @Param("promotedPriority") EmailQueue.EmailPriority promotedPriority, @Param("cutoffDate") LocalDateTime cutoffDate);
+    
+    @Query("SELECT eq.id FROM EmailQueue eq WHERE eq.status = :status AND eq.processedAt < :cutoffDate")
+    List<UUID> findIdsProcessedBefore(@Param("status") EmailQueue.EmailStatus status, @Param("cutoffDate") LocalDateTime cutoffDate, Pageable pageable);
+    
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM EmailQueue eq WHERE eq.id IN :ids")
+    int deleteByIdIn(@Param("ids") List<UUID> ids);
+    
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    Optional<EmailQueue> findFirstByRecipientEmailAndEmailTypeAndStatusAndScheduledAtAfterOrderByScheduledAtAsc(
+            String recipientEmail,
+            EmailQueue.EmailType emailType,
+            EmailQueue.EmailStatus status,
+            LocalDateTime scheduledAt
+    );
     
     long countByStatus(EmailQueue.EmailStatus status);
     
+    // One row: number of due emails in the status and the creation time of the oldest
+    @Query("SELECT COUNT(eq), MIN(eq.createdAt) FROM EmailQueue eq WHERE eq.status = :status AND eq.scheduledAt <= :now")
+    List<Object[]> summarizeDue(@Param("status") EmailQueue.EmailStatus status, @Param("now") LocalDateTime now);
+    
+    @Query("SELECT eq.processedAt FROM EmailQueue eq WHERE eq.status = :status AND eq.processedAt >= :since")
+    List<LocalDateTime> findProcessedAtByStatusSince(@Param("status") EmailQueue.EmailStatus status, @Param("since") LocalDateTime since);
+    
+    @Query("SELECT eq.status, COUNT(eq) FROM EmailQueue eq GROUP BY eq.status")
+    List<Object[]> countGroupedByStatus();
+    
     long countByRecipientEmailAndStatus(String recipientEmail, EmailQueue.EmailStatus status);
 }
@@ -0,0 +1,22 @@
+package com.bellpatra.userservice.repository;
+
+import com.bellpatra.userservice.entity.KnownLoginDevice;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+@Repository
+public interface KnownLoginDeviceRepository extends JpaRepository<KnownLoginDevice, UUID> {
+    
+    @Modifying
+    @Transactional
+    @Query("UPDATE KnownLoginDevice d SET d.lastSeenAt = :lastSeenAt, d.ipAddress = :ipAddress WHERE d.userEmail = :userEmail AND d.fingerprint = :fingerprint")
+    int touch(@Param("userEmail") String userEmail, @Param("fingerprint") String fingerprint, @Param("ipAddress") String ipAddress,
+              @Param("lastSeenAt") LocalDateTime lastSeenAt);
+}
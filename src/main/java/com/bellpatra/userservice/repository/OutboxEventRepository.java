@@ -0,0 +1,37 @@
+package com.bellpatra.userservice.repository;
+
+import com.bellpatra.userservice.entity.OutboxEvent;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface OutboxEventRepository extends JpaRepository<OutboxEvent, Long> {
+    
+    List<OutboxEvent> findByDestinationAndParkedAtIsNullOrderByCreatedAtAscIdAsc(OutboxEvent.Destination destination, Pageable pageable);
+    
+    // Oldest unparked events whose aggregate has no parked event ahead of them
+    @Query("SELECT oe FROM OutboxEvent oe WHERE oe.destination = :destination " +
+           "AND oe.parkedAt IS NULL AND NOT EXISTS (SELECT p.id FROM OutboxEvent p WHERE p.destination = oe.destination " +
+           "AND p.topic = oe.topic AND p.aggregateId = oe.aggregateId AND p.parkedAt IS NOT NULL) " +
+           "ORDER BY oe.createdAt ASC, oe.id ASC")
+    List<OutboxEvent> findUnblockedByDestination(@Param("destination") OutboxEvent.Destination destination, Pageable pageable);
+    
+    long countByParkedAtIsNotNull();
+    
+    // Counts a failed attempt and parks the event once it reaches maxAttempts
+    @Modifying
+    @Query("UPDATE OutboxEvent oe SET oe.attempts = oe.attempts + 1, oe.lastError = :error, " +
+           "oe.parkedAt = CASE WHEN oe.attempts + 1 >= :maxAttempts THEN :now ELSE oe.parkedAt END WHERE oe.id = :id")
+    int recordFailure(@Param("id") Long id, @Param("error") String error, @Param("maxAttempts") int maxAttempts, @Param("now") LocalDateTime now);
+    
+    @Modifying
+    @Query("UPDATE OutboxEvent oe SET oe.parkedAt = :now, oe.lastError = :error WHERE oe.id = :id")
+    int park(@Param("id") Long id, @Param("error") String error, @Param("now") LocalDateTime now);
+}
@@ -0,0 +1,43 @@
+package com.bellpatra.userservice.repository;
+
+import com.bellpatra.userservice.entity.QuartzJobRun;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface QuartzJobRunRepository extends JpaRepository<QuartzJobRun, UUID> {
+    
+    @Modifying
+    @Transactional
+    @Query("UPDATE QuartzJobRun r SET r.executionCount = r.executionCount + 1, r.failureCount = r.failureCount + :failures, "
+            + "r.lastTriggerName = :triggerName, r.lastFiredAt = :firedAt, r.lastFinishedAt = :finishedAt, "
+            + "r.lastDurationMs = :durationMs, r.lastSucceeded = :succeeded, r.lastError = :error, "
+            + "r.lastSucceededAt = COALESCE(:succeededAt, r.lastSucceededAt) "
+            + "WHERE r.instanceId = :instanceId AND r.jobName = :jobName AND r.jobGroup = :jobGroup")
+    int recordRun(@Param("instanceId") String instanceId, @Param("jobName") String jobName, @Param("jobGroup") String jobGroup,
+                  @Param("triggerName") String triggerName, @Param("firedAt") LocalDateTime firedAt,
+                  @Param("finishedAt") LocalDateTime finishedAt, @Param("durationMs") Long durationMs,
+                  @Param("succeeded") Boolean succeeded, @Param("error") String error, @Param("failures") long failures,
+                  @Param("succeededAt") LocalDateTime succeededAt);
+    
+    // One row for the job across the nodes still on record: executions, failures and the latest successful finish
+    @Query("SELECT SUM(r.executionCount), SUM(r.failureCount), MAX(r.lastSucceededAt) FROM QuartzJobRun r "
+            + "WHERE r.jobName = :jobName AND r.jobGroup = :jobGroup")
+    List<Object[]> summarizeJob(@Param("jobName") String jobName, @Param("jobGroup") String jobGroup);
+    
+    List<QuartzJobRun> findAllByOrderByInstanceIdAscJobNameAsc();
+    
+    // Nodes get a new instance id on every restart, so rows of departed nodes are pruned after a while
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM QuartzJobRun r WHERE r.lastFinishedAt < :cutoff")
+    int deleteFinishedBefore(@Param("cutoff") LocalDateTime cutoff);
+}
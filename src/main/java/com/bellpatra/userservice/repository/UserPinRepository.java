@@ -8,6 +8,7 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -20,21 +21,26 @@ public interface UserPinRepository extends JpaRepository<UserPin, UUID> {
     
     boolean existsByUserIdAndIsActiveTrue(UUID userId);
     
-    @Modifying
-    @Query("UPDATE UserPin up SET up.failedAttempts = 0, up.lockedUntil = null WHERE up.userId = :userId")
-    void resetFailedAttempts(@Param("userId") UUID userId);
-    
-    @Modifying
-    @Query("UPDATE UserPin up SET up.failedAttempts = up.failedAttempts + 1 WHERE up.userId = :userId")
-    void incrementFailedAttempts(@Param("userId") UUID userId);
-    
-    @Modifying
-    @Query("UPDATE UserPin up SET up.lockedUntil = :lockedUntil WHERE up.userId = :userId")
-    void lockPin(@Param("userId") UUID userId, @Param("lockedUntil") LocalDateTime lockedUntil);
-    
-    @Modifying
-    @Query("UPDATE UserPin up SET up.lastUsedAt = :lastUsedAt WHERE up.userId = :userId")
-    void updateLastUsedAt(@Param("userId") UUID userId, @Param("lastUsedAt") LocalDateTime lastUsedAt);
+    // Resets the attempt counter and stamps the use, unless the PIN got locked meanwhile; returns the state it left
+    @Query(value = "UPDATE user_pins SET " +
+           "failed_attempts = CASE WHEN locked_until > :now THEN failed_attempts ELSE 0 END, " +
+           "last_used_at = CASE WHEN locked_until > :now THEN last_used_at ELSE :now END, " +
+           "locked_until = CASE WHEN locked_until > :now THEN locked_until END, " +
+           "updated_at = :now " +
+           "WHERE user_id = :userId AND is_active = true " +
+           "RETURNING failed_attempts, locked_until", nativeQuery = true)
+    List<Object[]> recordSuccessfulAttempt(@Param("userId") UUID userId, @Param("now") LocalDateTime now);
+    
+    // Counts a wrong guess and locks on reaching maxAttempts; a PIN locked meanwhile is left as is
+    @Query(value = "UPDATE user_pins SET " +
+           "failed_attempts = CASE WHEN locked_until > :now THEN failed_attempts ELSE failed_attempts + 1 END, " +
+           "locked_until = CASE WHEN locked_until > :now THEN locked_until " +
+           "WHEN failed_attempts + 1 >= :maxAttempts THEN :lockUntil ELSE locked_until END, " +
+           "updated_at = :now " +
+           "WHERE user_id = :userId AND is_active = true " +
+           "RETURNING failed_attempts, locked_until", nativeQuery = true)
+    List<Object[]> recordFailedAttempt(@Param("userId") UUID userId, @Param("now") LocalDateTime now,
+                                       @Param("maxAttempts") int maxAttempts, @Param("lockUntil") LocalDateTime lockUntil);
     
     @Modifying
     @Query("UPDATE UserPin up SET up.isActive = false WHERE up.userId = :userId")
@@ -1,14 +1,17 @@
 package com.bellpatra.userservice.repository;
 
 import com.bellpatra.userservice.entity.User;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -18,9 +21,18 @@ public interface UserRepository extends JpaRepository<User, UUID> {
     
     Optional<User> findByEmail(String email);
     
+    List<User> findByEmailIn(Collection<String> emails);
+    
     Optional<User> findByPhoneNumber(String phoneNumber);
     
+    List<User> findByPhoneNumberIn(Collection<String> phoneNumbers);
+    
     List<User> findByRole(User.UserRole role);
+
+    // Keyset paging by id for the snapshot backfill. FOR SHARE: a user cannot change between being read
+    // and its snapshot being written, so a stale backfill snapshot never lands after a newer one
+    @Lock(LockModeType.PESSIMISTIC_READ)
+    List<User> findByIdGreaterThanOrderByIdAsc(UUID id, Pageable pageable);
     
     List<User> findByStatus(User.UserStatus status);
     
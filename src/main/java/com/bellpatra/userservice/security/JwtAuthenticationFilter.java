@@ -1,6 +1,7 @@
 package com.bellpatra.userservice.security;
 
 import com.bellpatra.userservice.util.JwtUtil;
+import io.jsonwebtoken.Claims;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -15,6 +16,7 @@ import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
 import java.util.Collections;
+import java.util.UUID;
 
 @Component
 @RequiredArgsConstructor
@@ -34,13 +36,16 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
             token = authHeader.substring(7);
         }
 
-        if (token != null && jwtUtil.validateToken(token)) {
+        // Verified and parsed once; every claim below is read from the same parse
+        Claims claims = token != null ? jwtUtil.parseClaims(token) : null;
+        if (claims != null) {
             try {
-                String email = jwtUtil.getEmailFromToken(token);
-                String role = jwtUtil.getRoleFromToken(token);
+                String email = claims.getSubject();
+                String role = jwtUtil.getRole(claims);
+                UUID userId = jwtUtil.getUserId(claims);
 
                 UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
-                        email,
+                        new JwtPrincipal(userId, email),
                         null,
                         Collections.singletonList(new SimpleGrantedAuthority("ROLE_" + role))
                 );
@@ -0,0 +1,22 @@
+package com.bellpatra.userservice.security;
+
+import org.springframework.security.core.AuthenticatedPrincipal;
+import org.springframework.security.core.Authentication;
+
+import java.util.UUID;
+
+/**
+ * Principal of a JWT-authenticated request. {@link #getName()} stays the email, so
+ * {@code authentication.getName()} keeps working; {@code userId} is null for tokens without the claim.
+ */
+public record JwtPrincipal(UUID userId, String email) implements AuthenticatedPrincipal {
+
+    @Override
+    public String getName() {
+        return email;
+    }
+
+    public static UUID userIdOf(Authentication authentication) {
+        return authentication.getPrincipal() instanceof JwtPrincipal principal ? principal.userId() : null;
+    }
+}
@@ -0,0 +1,185 @@
+package com.bellpatra.userservice.service;
+
+import com.bellpatra.userservice.entity.EmailQueue;
+import com.bellpatra.userservice.repository.EmailQueueRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.SimpleScheduleBuilder;
+import org.quartz.SimpleTrigger;
+import org.quartz.Trigger;
+import org.quartz.TriggerBuilder;
+import org.quartz.TriggerKey;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Retunes {@code emailProcessingTrigger} after each of its runs. When the queue is behind (more due
+ * emails than one run can claim, or the oldest due email older than the target latency) the interval
+ * is halved and the lanes' send concurrency stepped up; when nothing is due the interval doubles and
+ * concurrency steps back down. Both stay within the configured bounds. The trigger lives in the
+ * clustered job store and carries the concurrency multiplier in its job data, so both are cluster-wide:
+ * whichever node an email job fires on adopts the stored multiplier before it dispatches (see
+ * {@link #applySharedConcurrency}), and a node that runs no email job sends no email.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class AdaptiveEmailScheduler {
+
+    public static final TriggerKey TRIGGER_KEY = TriggerKey.triggerKey("emailProcessingTrigger");
+    public static final String CONCURRENCY_MULTIPLIER_KEY = "concurrencyMultiplier";
+
+    private final Scheduler scheduler;
+    private final EmailQueueRepository emailQueueRepository;
+    private final EmailDispatcher emailDispatcher;
+
+    @Value("${email.dispatch.adaptive.enabled:true}")
+    private boolean enabled;
+
+    @Value("${email.dispatch.adaptive.min-interval-seconds:5}")
+    private int minIntervalSeconds;
+
+    @Value("${email.dispatch.adaptive.max-interval-seconds:300}")
+    private int maxIntervalSeconds;
+
+    @Value("${email.dispatch.adaptive.target-latency-seconds:60}")
+    private long targetLatencySeconds;
+
+    @Value("${email.dispatch.adaptive.max-concurrency-multiplier:4}")
+    private int maxConcurrencyMultiplier;
+
+    // Last multiplier this node applied to its lanes
+    private volatile int concurrencyMultiplier = 1;
+    private volatile long lastDueCount;
+    private volatile long lastOldestAgeSeconds;
+    private volatile LocalDateTime lastEvaluatedAt;
+
+    public boolean isAdaptiveTrigger(Trigger trigger) {
+        return trigger != null && TRIGGER_KEY.equals(trigger.getKey());
+    }
+
+    /**
+     * Sizes this node's lanes to the multiplier stored on the adaptive trigger. Called by every email job
+     * run before it dispatches; runs of other triggers read the stored trigger.
+     */
+    public void applySharedConcurrency(Trigger fired) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            Trigger adaptive = isAdaptiveTrigger(fired) ? fired : scheduler.getTrigger(TRIGGER_KEY);
+            applyConcurrency(storedMultiplier(adaptive));
+        } catch (Exception e) {
+            log.warn("Could not read the shared email send concurrency", e);
+        }
+    }
+
+    /**
+     * Measures the due backlog and reschedules the trigger if its interval or multiplier should change.
+     * Called from the job the trigger fired, once the run has dispatched.
+     */
+    public void adjust(Trigger fired) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            List<Object[]> summary = emailQueueRepository.summarizeDue(EmailQueue.EmailStatus.PENDING, now);
+            Object[] row = summary.isEmpty() ? new Object[]{0L, null} : summary.get(0);
+            long due = row[0] != null ? ((Number) row[0]).longValue() : 0L;
+            LocalDateTime oldest = (LocalDateTime) row[1];
+            long oldestAgeSeconds = oldest != null ? Math.max(0, Duration.between(oldest, now).getSeconds()) : 0L;
+
+            lastDueCount = due;
+            lastOldestAgeSeconds = oldestAgeSeconds;
+            lastEvaluatedAt = now;
+
+            int currentInterval = getCurrentIntervalSeconds();
+            int targetInterval = currentInterval;
+            int storedMultiplier = storedMultiplier(fired);
+            int multiplier = storedMultiplier;
+
+            if (due > emailDispatcher.getBatchCapacity() || oldestAgeSeconds > targetLatencySeconds) {
+                targetInterval = currentInterval / 2;
+                multiplier = Math.min(maxConcurrencyMultiplier, multiplier + 1);
+            } else if (due == 0) {
+                targetInterval = currentInterval * 2;
+                multiplier = Math.max(1, multiplier - 1);
+            }
+            targetInterval = Math.clamp(targetInterval, minIntervalSeconds, maxIntervalSeconds);
+
+            applyConcurrency(multiplier);
+            if (currentInterval > 0 && (targetInterval != currentInterval || multiplier != storedMultiplier)) {
+                reschedule(targetInterval, multiplier);
+                log.info("Email processing interval {}s -> {}s, send concurrency x{} -> x{} ({} due, oldest {}s)",
+                        currentInterval, targetInterval, storedMultiplier, multiplier, due, oldestAgeSeconds);
+            }
+        } catch (Exception e) {
+            log.warn("Could not adapt the email processing schedule", e);
+        }
+    }
+
+    // Interval of the stored trigger, shared by every node of the cluster; 0 if it is missing
+    public int getCurrentIntervalSeconds() throws SchedulerException {
+        Trigger trigger = scheduler.getTrigger(TRIGGER_KEY);
+        if (trigger instanceof SimpleTrigger simpleTrigger) {
+            return (int) (simpleTrigger.getRepeatInterval() / 1000);
+        }
+        return 0;
+    }
+
+    public Map<String, Object> getScheduleStats() throws SchedulerException {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("adaptive", enabled);
+        stats.put("intervalSeconds", getCurrentIntervalSeconds());
+        stats.put("minIntervalSeconds", minIntervalSeconds);
+        stats.put("maxIntervalSeconds", maxIntervalSeconds);
+        stats.put("targetLatencySeconds", targetLatencySeconds);
+        stats.put("concurrencyMultiplier", storedMultiplier(scheduler.getTrigger(TRIGGER_KEY)));
+        stats.put("nodeConcurrencyMultiplier", concurrencyMultiplier);
+        stats.put("maxConcurrencyMultiplier", maxConcurrencyMultiplier);
+        stats.put("lastDueCount", lastDueCount);
+        stats.put("lastOldestAgeSeconds", lastOldestAgeSeconds);
+        stats.put("lastEvaluatedAt", lastEvaluatedAt != null ? lastEvaluatedAt.toString() : "N/A");
+        return stats;
+    }
+
+    private void applyConcurrency(int multiplier) {
+        if (multiplier != concurrencyMultiplier) {
+            concurrencyMultiplier = multiplier;
+            emailDispatcher.scaleSendConcurrency(multiplier);
+        }
+    }
+
+    private int storedMultiplier(Trigger trigger) {
+        if (trigger == null || !trigger.getJobDataMap().containsKey(CONCURRENCY_MULTIPLIER_KEY)) {
+            return 1;
+        }
+        return Math.clamp(trigger.getJobDataMap().getIntValue(CONCURRENCY_MULTIPLIER_KEY), 1, maxConcurrencyMultiplier);
+    }
+
+    private void reschedule(int intervalSeconds, int multiplier) throws SchedulerException {
+        Trigger current = scheduler.getTrigger(TRIGGER_KEY);
+        Trigger updated = TriggerBuilder.newTrigger()
+                .forJob(current.getJobKey())
+                .withIdentity(TRIGGER_KEY)
+                .withDescription(current.getDescription())
+                .usingJobData(CONCURRENCY_MULTIPLIER_KEY, multiplier)
+                .startAt(Date.from(Instant.now().plusSeconds(intervalSeconds)))
+                .withSchedule(SimpleScheduleBuilder.simpleSchedule()
+                        .withIntervalInSeconds(intervalSeconds)
+                        .repeatForever())
+                .build();
+        scheduler.rescheduleJob(TRIGGER_KEY, updated);
+    }
+}
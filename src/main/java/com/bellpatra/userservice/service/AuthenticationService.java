@@ -1,11 +1,16 @@
 package com.bellpatra.userservice.service;
 
 import com.bellpatra.userservice.dto.AuthResponse;
+import com.bellpatra.userservice.dto.EmailEnqueueRequest;
 import com.bellpatra.userservice.dto.LoginRequest;
 import com.bellpatra.userservice.dto.RefreshTokenRequest;
 import com.bellpatra.userservice.dto.RegisterRequest;
+import com.bellpatra.userservice.dto.UserEvent;
+import com.bellpatra.userservice.dto.UserEventPayload;
+import com.bellpatra.userservice.entity.EmailQueue;
 import com.bellpatra.userservice.entity.RefreshToken;
 import com.bellpatra.userservice.entity.User;
+import com.bellpatra.userservice.kafka.KafkaProducerService;
 import com.bellpatra.userservice.repository.RefreshTokenRepository;
 import com.bellpatra.userservice.repository.UserRepository;
 import com.bellpatra.userservice.util.JwtUtil;
@@ -14,8 +19,10 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.LocalDateTime;
+import java.util.List;
 import java.util.UUID;
 
 @Service
@@ -28,7 +35,11 @@ public class AuthenticationService {
     private final PasswordEncoder passwordEncoder;
     private final JwtUtil jwtUtil;
     private final EmailQueueService emailQueueService;
+    private final LoginAlertCoalescer loginAlertCoalescer;
+    private final OutboxService outboxService;
+    private final TransactionTemplate transactionTemplate;
     private final EmailService emailService;
+    private final KafkaProducerService kafkaProducerService;
 
     @Transactional
     public AuthResponse register(RegisterRequest request) {
@@ -68,21 +79,20 @@ public class AuthenticationService {
             user.setStatus(User.UserStatus.ACTIVE);
             log.info("User object created, attempting to save...");
 
-            User savedUser = userRepository.save(user);
+            User savedUser = userRepository.saveAndFlush(user);
             log.info("User saved successfully with ID: {}", savedUser.getId());
 
-            // Queue welcome email
-            try {
-                emailQueueService.queueWelcomeEmail(savedUser);
-                log.info("Welcome email queued successfully for: {}", savedUser.getEmail());
-            } catch (Exception e) {
-                log.error("Failed to queue welcome email for: {}", savedUser.getEmail(), e);
-                // Don't fail registration if email queuing fails - this is non-critical
-            }
+            // Welcome email and registration event commit together with the user; OutboxRelay forwards them
+            outboxService.recordEmail(new EmailEnqueueRequest(
+                    savedUser, EmailQueue.EmailType.WELCOME_EMAIL, emailQueueService.welcomePayload(savedUser)));
+            outboxService.recordUserEvent(UserEvent.of(savedUser.getId(), new UserEventPayload.Registration(
+                    savedUser.getEmail(), savedUser.getFirstName(), savedUser.getLastName())));
+            outboxService.recordUserSnapshots(List.of(savedUser));
+            log.info("Welcome email and registration event recorded for: {}", savedUser.getEmail());
 
             // Generate tokens
             log.info("Generating access token...");
-            String accessToken = jwtUtil.generateToken(savedUser.getEmail(), savedUser.getRole().name());
+            String accessToken = jwtUtil.generateToken(savedUser.getId(), savedUser.getEmail(), savedUser.getRole().name());
             log.info("Access token generated successfully");
             
             log.info("Generating refresh token...");
@@ -110,34 +120,41 @@ public class AuthenticationService {
     }
 
     public AuthResponse login(LoginRequest request) {
-        User user = userRepository.findByEmail(request.getEmail())
-                .orElseThrow(() -> new RuntimeException("Invalid email or password"));
+        User user = userRepository.findByEmail(request.getEmail()).orElse(null);
+        if (user == null) {
+            publishLoginFailed(null, request, "UNKNOWN_EMAIL");
+            throw new RuntimeException("Invalid email or password");
+        }
 
         if (!passwordEncoder.matches(request.getPassword(), user.getPassword())) {
+            publishLoginFailed(user.getId(), request, "BAD_PASSWORD");
             throw new RuntimeException("Invalid email or password");
         }
 
         if (user.getStatus() != User.UserStatus.ACTIVE) {
+            publishLoginFailed(user.getId(), request, "INACTIVE");
             throw new RuntimeException("User account is not active");
         }
 
-        // Revoke existing refresh tokens
-        refreshTokenRepository.revokeByUserEmail(user.getEmail());
-
         // Queue login success email
         try {
-            String ipAddress = getClientIPAddress(); // You can implement this method
-            String deviceInfo = "Web Browser"; // You can enhance this with actual device detection
-            emailQueueService.queueLoginSuccessEmail(user, ipAddress, deviceInfo);
-            log.info("Login success email queued successfully for: {}", user.getEmail());
+            loginAlertCoalescer.queueLoginAlert(user, request.getIpAddress(), request.getUserAgent());
+            log.info("Login alert queued successfully for: {}", user.getEmail());
         } catch (Exception e) {
             log.error("Failed to queue login success email for: {}", user.getEmail(), e);
             // Don't fail login if email queuing fails
         }
 
-        // Generate new tokens
-        String accessToken = jwtUtil.generateToken(user.getEmail(), user.getRole().name());
-        String refreshToken = generateRefreshToken(user.getEmail());
+        // Generate new tokens; token rotation and the login event commit together
+        String accessToken = jwtUtil.generateToken(user.getId(), user.getEmail(), user.getRole().name());
+        String refreshToken = transactionTemplate.execute(status -> {
+            // Revoke existing refresh tokens
+            refreshTokenRepository.revokeByUserEmail(user.getEmail());
+            String token = generateRefreshToken(user.getEmail());
+            outboxService.recordUserEvent(UserEvent.of(user.getId(), new UserEventPayload.Login(
+                    user.getEmail(), request.getIpAddress() != null ? request.getIpAddress() : "Unknown")));
+            return token;
+        });
 
         return new AuthResponse(
                 accessToken,
@@ -170,7 +187,7 @@ public class AuthenticationService {
         refreshTokenRepository.save(refreshToken);
 
         // Generate new tokens
-        String newAccessToken = jwtUtil.generateToken(user.getEmail(), user.getRole().name());
+        String newAccessToken = jwtUtil.generateToken(user.getId(), user.getEmail(), user.getRole().name());
         String newRefreshToken = generateRefreshToken(user.getEmail());
 
         return new AuthResponse(
@@ -215,9 +232,13 @@ public class AuthenticationService {
         refreshTokenRepository.deleteExpiredTokens(LocalDateTime.now());
     }
 
-    private String getClientIPAddress() {
-        // For now, return a placeholder. In a real application, you would get this from the HTTP request
-        // You can inject HttpServletRequest and extract the real IP address
-        return "192.168.1.100";
+    // Failed logins change no data, so they are published directly rather than through the outbox
+    private void publishLoginFailed(UUID userId, LoginRequest request, String reason) {
+        try {
+            kafkaProducerService.publishLoginFailed(userId, request.getEmail(),
+                    request.getIpAddress() != null ? request.getIpAddress() : "Unknown", reason);
+        } catch (Exception e) {
+            log.warn("Failed to publish failed login event for {}: {}", request.getEmail(), e.getMessage());
+        }
     }
 }
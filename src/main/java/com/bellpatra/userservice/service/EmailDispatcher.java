@@ -0,0 +1,458 @@
+package com.bellpatra.userservice.service;
+
+import com.bellpatra.userservice.dto.RenderedEmail;
+import com.bellpatra.userservice.entity.EmailQueue;
+import com.bellpatra.userservice.entity.User;
+import com.bellpatra.userservice.repository.EmailQueueRepository;
+import com.bellpatra.userservice.repository.UserRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Moves queued emails through a staged pipeline: claim → render → send → acknowledge.
+ * Rendering (CPU-bound Thymeleaf) runs on a core-sized pool shared by all lanes, SMTP sends run on
+ * virtual threads limited per priority lane, so OTP mail never waits behind bulk welcome or login-alert
+ * traffic. Each lane caps the emails it has claimed but not yet acknowledged, so a slow send stage
+ * stops further claims instead of piling up work in memory.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class EmailDispatcher {
+
+    private static final int MAX_RETRIES = 3;
+
+    private final EmailQueueRepository emailQueueRepository;
+    private final UserRepository userRepository;
+    private final EmailProcessor emailProcessor;
+    private final EmailSendGovernor emailSendGovernor;
+    private final MeterRegistry meterRegistry;
+    private final EmailQueueMetrics emailQueueMetrics;
+
+    @Value("${email.dispatch.high.pool-size:4}")
+    private int highPoolSize;
+
+    @Value("${email.dispatch.high.batch-size:50}")
+    private int highBatchSize;
+
+    @Value("${email.dispatch.normal.pool-size:4}")
+    private int normalPoolSize;
+
+    @Value("${email.dispatch.normal.batch-size:200}")
+    private int normalBatchSize;
+
+    @Value("${email.dispatch.low.pool-size:2}")
+    private int lowPoolSize;
+
+    @Value("${email.dispatch.low.batch-size:200}")
+    private int lowBatchSize;
+
+    @Value("${email.dispatch.starvation-threshold-minutes:10}")
+    private long starvationThresholdMinutes;
+
+    @Value("${email.throttle.defer-seconds:60}")
+    private long deferSeconds;
+
+    @Value("${email.pipeline.render.pool-size:0}")
+    private int renderPoolSize;
+
+    @Value("${email.dispatch.claim-timeout-minutes:15}")
+    private long claimTimeoutMinutes;
+
+    private final Map<EmailQueue.EmailPriority, Lane> lanes = new EnumMap<>(EmailQueue.EmailPriority.class);
+    private ThreadPoolTaskExecutor renderPool;
+    private ExecutorService sendPool;
+
+    @PostConstruct
+    void initLanes() {
+        registerLane(EmailQueue.EmailPriority.HIGH, highPoolSize, highBatchSize);
+        registerLane(EmailQueue.EmailPriority.NORMAL, normalPoolSize, normalBatchSize);
+        registerLane(EmailQueue.EmailPriority.LOW, lowPoolSize, lowBatchSize);
+
+        // In-flight limits already bound how much work can be queued, so the render queue never rejects
+        int renderThreads = renderPoolSize > 0 ? renderPoolSize : Runtime.getRuntime().availableProcessors();
+        renderPool = new ThreadPoolTaskExecutor();
+        renderPool.setCorePoolSize(renderThreads);
+        renderPool.setMaxPoolSize(renderThreads);
+        renderPool.setQueueCapacity(lanes.values().stream().mapToInt(lane -> lane.maxInFlight).sum());
+        renderPool.setThreadNamePrefix("email-render-");
+        renderPool.setWaitForTasksToCompleteOnShutdown(true);
+        renderPool.initialize();
+
+        sendPool = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("email-send-", 0).factory());
+
+        Gauge.builder("email.pipeline.queue.depth", renderPool, pool -> pool.getThreadPoolExecutor().getQueue().size())
+                .tag("stage", "render")
+                .description("Claimed emails waiting for a render thread")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    void shutdownLanes() {
+        renderPool.shutdown();
+        sendPool.close();
+    }
+
+    public void dispatchAll() {
+        promoteStarvedEmails();
+        for (EmailQueue.EmailPriority priority : EmailQueue.EmailPriority.values()) {
+            dispatch(priority);
+        }
+    }
+
+    public int dispatch(EmailQueue.EmailPriority priority) {
+        Lane lane = lanes.get(priority);
+        int capacity = reserveCapacity(priority, lane);
+        if (capacity == 0) {
+            log.debug("Email lane {} is saturated, skipping claim", priority);
+            return 0;
+        }
+
+        List<EmailQueue> pendingEmails = emailQueueRepository.findByStatusAndPriorityAndScheduledAtLessThanEqualOrderByCreatedAtAsc(
+                EmailQueue.EmailStatus.PENDING,
+                priority,
+                LocalDateTime.now(),
+                PageRequest.of(0, capacity)
+        );
+        return submit(priority, lane, capacity, pendingEmails, EmailQueue.EmailStatus.PENDING);
+    }
+
+    public int dispatchRetries() {
+        int submitted = 0;
+        for (EmailQueue.EmailPriority priority : EmailQueue.EmailPriority.values()) {
+            Lane lane = lanes.get(priority);
+            int capacity = reserveCapacity(priority, lane);
+            if (capacity == 0) {
+                continue;
+            }
+
+            List<EmailQueue> failedEmails = emailQueueRepository.findByStatusAndPriorityAndRetryCountLessThanOrderByCreatedAtAsc(
+                    EmailQueue.EmailStatus.FAILED,
+                    priority,
+                    MAX_RETRIES,
+                    PageRequest.of(0, capacity)
+            );
+            submitted += submit(priority, lane, capacity, failedEmails, EmailQueue.EmailStatus.FAILED);
+        }
+        return submitted;
+    }
+
+    // Aging: LOW mail that has waited past the threshold moves up to NORMAL so it cannot starve.
+    // Nothing is ever promoted into HIGH: that lane is claimed oldest-first, so aged bulk mail there
+    // would queue ahead of fresh OTPs and spend the HIGH quota reserve.
+    public void promoteStarvedEmails() {
+        LocalDateTime cutoffDate = LocalDateTime.now().minusMinutes(starvationThresholdMinutes);
+        int promoted = emailQueueRepository.promoteWaitingEmails(
+                EmailQueue.EmailStatus.PENDING, EmailQueue.EmailPriority.LOW, EmailQueue.EmailPriority.NORMAL, cutoffDate);
+
+        if (promoted > 0) {
+            log.info("Promoted {} starved emails LOW -> NORMAL", promoted);
+        }
+    }
+
+    /**
+     * Releases emails claimed more than {@code email.dispatch.claim-timeout-minutes} ago and never
+     * acknowledged: the node that claimed them died or hung mid-batch, and a clustered Quartz does not
+     * re-run its job. They become FAILED with one more attempt counted, so the retry pass sends them again
+     * until their retries run out. Whether the lost send reached the provider is unknown, so a recipient
+     * may get such an email twice.
+     */
+    public int releaseStaleClaims() {
+        LocalDateTime cutoffDate = LocalDateTime.now().minusMinutes(claimTimeoutMinutes);
+        int released = emailQueueRepository.releaseClaimsBefore(EmailQueue.EmailStatus.PROCESSING, EmailQueue.EmailStatus.FAILED,
+                cutoffDate, "Claim expired after " + claimTimeoutMinutes + " minutes without an acknowledgement");
+        if (released > 0) {
+            emailQueueMetrics.onTransition(EmailQueue.EmailStatus.PROCESSING, EmailQueue.EmailStatus.FAILED, released);
+            log.warn("Released {} emails stuck in PROCESSING since before {}", released, cutoffDate);
+        }
+        return released;
+    }
+
+    /**
+     * Sets every lane's send concurrency to {@code multiplier} times its configured size. Used by
+     * {@link AdaptiveEmailScheduler}; the provider quota still paces the sends themselves.
+     */
+    public void scaleSendConcurrency(int multiplier) {
+        lanes.forEach((priority, lane) -> {
+            int target = lane.baseSendConcurrency * Math.max(1, multiplier);
+            if (lane.resizeSendSlots(target)) {
+                log.info("Send concurrency of {} lane set to {}", priority, target);
+            }
+        });
+    }
+
+    // Emails one dispatchAll run can claim across all lanes
+    public int getBatchCapacity() {
+        return lanes.values().stream().mapToInt(lane -> lane.batchSize).sum();
+    }
+
+    public Map<String, Object> getLaneStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        lanes.forEach((priority, lane) -> {
+            Map<String, Object> stages = new LinkedHashMap<>();
+            lane.stageTimers.forEach((stage, timer) -> stages.put(stage, Map.of(
+                    "count", timer.count(),
+                    "meanMs", timer.mean(TimeUnit.MILLISECONDS),
+                    "maxMs", timer.max(TimeUnit.MILLISECONDS)
+            )));
+
+            stats.put(priority.name(), Map.of(
+                    "sendConcurrency", lane.sendConcurrency,
+                    "inFlight", lane.maxInFlight - lane.inFlight.availablePermits(),
+                    "awaitingSend", lane.awaitingSend.get(),
+                    "sending", lane.sendConcurrency - lane.sendSlots.availablePermits(),
+                    "stageLatency", stages
+            ));
+        });
+        stats.put("renderQueueDepth", renderPool.getThreadPoolExecutor().getQueue().size());
+        stats.put("activeRenderers", renderPool.getActiveCount());
+        return stats;
+    }
+
+    private int submit(EmailQueue.EmailPriority priority, Lane lane, int reserved, List<EmailQueue> emails,
+                       EmailQueue.EmailStatus expectedStatus) {
+        // Hand back the in-flight slots this claim did not fill
+        lane.inFlight.release(reserved - emails.size());
+        if (emails.isEmpty()) {
+            return 0;
+        }
+
+        // Stage 1, claim: flip the whole batch to PROCESSING so the next trigger cannot pick the same rows again
+        long claimStart = System.nanoTime();
+        List<UUID> ids = emails.stream().map(EmailQueue::getId).toList();
+        UUID claimToken = UUID.randomUUID();
+        int claimed = emailQueueRepository.claimBatch(ids, expectedStatus, EmailQueue.EmailStatus.PROCESSING, claimToken, LocalDateTime.now());
+        emailQueueMetrics.onTransition(expectedStatus, EmailQueue.EmailStatus.PROCESSING, claimed);
+        if (claimed != ids.size()) {
+            // Another trigger, possibly on another node, claimed some of these rows first: send only ours
+            Set<UUID> ours = Set.copyOf(emailQueueRepository.findIdsClaimedWith(ids, claimToken));
+            log.info("Claimed {} of {} {} emails in lane {}; the rest were taken by a concurrent dispatch",
+                    ours.size(), ids.size(), expectedStatus, priority);
+            lane.inFlight.release(emails.size() - ours.size());
+            emails = emails.stream().filter(email -> ours.contains(email.getId())).toList();
+            if (emails.isEmpty()) {
+                return 0;
+            }
+        }
+        if (expectedStatus == EmailQueue.EmailStatus.FAILED) {
+            emailQueueMetrics.onRetries(emails);
+        }
+
+        // One IN query for every recipient in the batch instead of a findByEmail per email
+        Set<String> recipients = emails.stream().map(EmailQueue::getRecipientEmail).collect(Collectors.toSet());
+        Map<String, User> usersByEmail = userRepository.findByEmailIn(recipients).stream()
+                .collect(Collectors.toMap(User::getEmail, Function.identity()));
+        lane.stageTimers.get("claim").record(System.nanoTime() - claimStart, TimeUnit.NANOSECONDS);
+
+        Queue<UUID> sentIds = new ConcurrentLinkedQueue<>();
+        Queue<UUID> deferredIds = new ConcurrentLinkedQueue<>();
+        CompletableFuture<?>[] deliveries = new CompletableFuture<?>[emails.size()];
+        for (int i = 0; i < emails.size(); i++) {
+            EmailQueue emailQueue = emails.get(i);
+            User user = usersByEmail.get(emailQueue.getRecipientEmail());
+
+            // Stage 2, render on the CPU pool; stage 3, send on a virtual thread
+            deliveries[i] = CompletableFuture
+                    .supplyAsync(() -> render(lane, emailQueue, user), renderPool)
+                    .thenApplyAsync(rendered -> send(priority, lane, emailQueue, rendered), sendPool)
+                    .exceptionally(error -> emailProcessor.fail(emailQueue, unwrap(error)))
+                    .thenAccept(outcome -> {
+                        switch (outcome) {
+                            case SENT -> sentIds.add(emailQueue.getId());
+                            case DEFERRED -> deferredIds.add(emailQueue.getId());
+                            case FAILED -> { }
+                        }
+                    })
+                    .whenComplete((ignored, error) -> lane.inFlight.release());
+        }
+
+        // Stage 4, acknowledge the whole batch with a single UPDATE per outcome once its last send completes
+        CompletableFuture.allOf(deliveries).whenComplete((ignored, error) -> {
+            long ackStart = System.nanoTime();
+            acknowledgeSent(priority, sentIds);
+            deferUnsent(priority, deferredIds);
+            lane.stageTimers.get("acknowledge").record(System.nanoTime() - ackStart, TimeUnit.NANOSECONDS);
+        });
+
+        log.info("Dispatched {} {} emails to {} lane", emails.size(), expectedStatus, priority);
+        return emails.size();
+    }
+
+    private RenderedEmail render(Lane lane, EmailQueue emailQueue, User user) {
+        long start = System.nanoTime();
+        try {
+            return emailProcessor.render(emailQueue, user);
+        } finally {
+            lane.stageTimers.get("render").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private EmailProcessor.DeliveryOutcome send(EmailQueue.EmailPriority priority, Lane lane, EmailQueue emailQueue,
+                                                RenderedEmail rendered) {
+        // Blocking here is cheap on a virtual thread; the lane's in-flight cap is what pushes back on claiming
+        lane.awaitingSend.incrementAndGet();
+        try {
+            lane.sendSlots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return EmailProcessor.DeliveryOutcome.DEFERRED;
+        } finally {
+            lane.awaitingSend.decrementAndGet();
+        }
+
+        try {
+            // Pace to the provider quota; mail that cannot get a slot goes back to PENDING, not FAILED
+            if (!emailSendGovernor.acquire(priority)) {
+                return EmailProcessor.DeliveryOutcome.DEFERRED;
+            }
+            long start = System.nanoTime();
+            EmailProcessor.DeliveryOutcome outcome = emailProcessor.send(emailQueue, rendered);
+            lane.stageTimers.get("send").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return outcome;
+        } finally {
+            lane.sendSlots.release();
+        }
+    }
+
+    private void acknowledgeSent(EmailQueue.EmailPriority priority, Queue<UUID> sentIds) {
+        if (sentIds.isEmpty()) {
+            return;
+        }
+        try {
+            int updated = emailQueueRepository.updateStatusBatch(List.copyOf(sentIds), EmailQueue.EmailStatus.SENT, LocalDateTime.now());
+            emailQueueMetrics.onTransition(EmailQueue.EmailStatus.PROCESSING, EmailQueue.EmailStatus.SENT, updated);
+            log.info("Marked {} emails as SENT in {} lane", updated, priority);
+        } catch (Exception e) {
+            log.error("Failed to acknowledge {} sent emails in {} lane", sentIds.size(), priority, e);
+        }
+    }
+
+    private void deferUnsent(EmailQueue.EmailPriority priority, Queue<UUID> deferredIds) {
+        if (deferredIds.isEmpty()) {
+            return;
+        }
+        try {
+            LocalDateTime retryAt = LocalDateTime.now().plusSeconds(deferSeconds);
+            int rescheduled = emailQueueRepository.rescheduleBatch(List.copyOf(deferredIds), EmailQueue.EmailStatus.PENDING, retryAt);
+            emailQueueMetrics.onTransition(EmailQueue.EmailStatus.PROCESSING, EmailQueue.EmailStatus.PENDING, rescheduled);
+            log.info("Deferred {} emails in {} lane until {} to stay within provider quota", deferredIds.size(), priority, retryAt);
+        } catch (Exception e) {
+            log.error("Failed to defer {} emails in {} lane", deferredIds.size(), priority, e);
+        }
+    }
+
+    /**
+     * Reserves in-flight slots for the next claim. Only what the lane and the provider quota can absorb is
+     * claimed; the rest stays PENDING for the next cycle. Unused slots are released by {@link #submit}.
+     */
+    private int reserveCapacity(EmailQueue.EmailPriority priority, Lane lane) {
+        int capacity = Math.min(Math.min(lane.batchSize, lane.inFlight.availablePermits()), emailSendGovernor.claimableNow(priority));
+        if (capacity <= 0 || !lane.inFlight.tryAcquire(capacity)) {
+            return 0;
+        }
+        return capacity;
+    }
+
+    private Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private void registerLane(EmailQueue.EmailPriority priority, int sendConcurrency, int batchSize) {
+        Lane lane = new Lane(sendConcurrency, batchSize, batchSize * 2);
+        String laneTag = priority.name().toLowerCase();
+        for (String stage : List.of("claim", "render", "send", "acknowledge")) {
+            lane.stageTimers.put(stage, Timer.builder("email.pipeline.stage.duration")
+                    .tag("stage", stage)
+                    .tag("lane", laneTag)
+                    .publishPercentiles(0.5, 0.99)
+                    .register(meterRegistry));
+        }
+        Gauge.builder("email.pipeline.queue.depth", lane.awaitingSend, AtomicInteger::get)
+                .tag("stage", "send")
+                .tag("lane", laneTag)
+                .description("Rendered emails waiting for a send slot")
+                .register(meterRegistry);
+        Gauge.builder("email.pipeline.in.flight", lane.inFlight, inFlight -> lane.maxInFlight - inFlight.availablePermits())
+                .tag("lane", laneTag)
+                .description("Claimed emails not yet acknowledged")
+                .register(meterRegistry);
+
+        lanes.put(priority, lane);
+    }
+
+    private static final class Lane {
+
+        private final int baseSendConcurrency;
+        private final int batchSize;
+        private final int maxInFlight;
+        private final Semaphore inFlight;
+        private final ResizableSemaphore sendSlots;
+        private final AtomicInteger awaitingSend = new AtomicInteger();
+        private final Map<String, Timer> stageTimers = new LinkedHashMap<>();
+        private volatile int sendConcurrency;
+
+        Lane(int sendConcurrency, int batchSize, int maxInFlight) {
+            this.baseSendConcurrency = sendConcurrency;
+            this.sendConcurrency = sendConcurrency;
+            this.batchSize = batchSize;
+            this.maxInFlight = maxInFlight;
+            this.inFlight = new Semaphore(maxInFlight);
+            this.sendSlots = new ResizableSemaphore(sendConcurrency);
+        }
+
+        // Shrinking takes effect as running sends release their slots
+        synchronized boolean resizeSendSlots(int target) {
+            int delta = target - sendConcurrency;
+            if (delta == 0) {
+                return false;
+            }
+            if (delta > 0) {
+                sendSlots.release(delta);
+            } else {
+                sendSlots.reducePermits(-delta);
+            }
+            sendConcurrency = target;
+            return true;
+        }
+    }
+
+    private static final class ResizableSemaphore extends Semaphore {
+
+        ResizableSemaphore(int permits) {
+            super(permits);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
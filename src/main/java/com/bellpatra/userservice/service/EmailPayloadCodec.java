@@ -0,0 +1,78 @@
+package com.bellpatra.userservice.service;
+
+import com.bellpatra.userservice.dto.EmailPayload;
+import com.bellpatra.userservice.entity.EmailQueue;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encodes and decodes {@link EmailPayload} records with readers and writers resolved once at startup,
+ * instead of building a fresh {@code TypeReference} and {@code LinkedHashMap} for every queued email.
+ */
+@Component
+@Slf4j
+public class EmailPayloadCodec {
+
+    private static final String EMPTY_JSON = "{}";
+
+    private final Map<EmailQueue.EmailType, Class<? extends EmailPayload>> payloadTypes = new EnumMap<>(EmailQueue.EmailType.class);
+    private final Map<Class<? extends EmailPayload>, ObjectReader> readers = new HashMap<>();
+    private final Map<Class<? extends EmailPayload>, ObjectWriter> writers = new HashMap<>();
+
+    public EmailPayloadCodec(ObjectMapper objectMapper) {
+        for (EmailQueue.EmailType emailType : EmailQueue.EmailType.values()) {
+            Class<? extends EmailPayload> payloadType = payloadType(emailType);
+            payloadTypes.put(emailType, payloadType);
+            readers.computeIfAbsent(payloadType, type -> objectMapper.readerFor(type)
+                    .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES));
+            writers.computeIfAbsent(payloadType, objectMapper::writerFor);
+        }
+    }
+
+    public String encode(EmailPayload payload) {
+        try {
+            return writers.get(payload.getClass()).writeValueAsString(payload);
+        } catch (Exception e) {
+            log.error("Failed to encode email payload {}", payload.getClass().getSimpleName(), e);
+            return EMPTY_JSON;
+        }
+    }
+
+    public EmailPayload decode(EmailQueue.EmailType emailType, String json) {
+        return decode(json, payloadTypes.get(emailType));
+    }
+
+    public <T extends EmailPayload> T decode(String json, Class<T> payloadType) {
+        ObjectReader reader = readers.get(payloadType);
+        try {
+            return reader.readValue(json == null || json.isBlank() ? EMPTY_JSON : json);
+        } catch (Exception e) {
+            log.error("Failed to decode {} payload", payloadType.getSimpleName(), e);
+            try {
+                return reader.readValue(EMPTY_JSON);
+            } catch (Exception unexpected) {
+                throw new IllegalStateException("Cannot build empty " + payloadType.getSimpleName(), unexpected);
+            }
+        }
+    }
+
+    private static Class<? extends EmailPayload> payloadType(EmailQueue.EmailType emailType) {
+        return switch (emailType) {
+            case WELCOME_EMAIL -> EmailPayload.Welcome.class;
+            case LOGIN_SUCCESS -> EmailPayload.LoginSuccess.class;
+            case LOGIN_DIGEST -> EmailPayload.LoginDigest.class;
+            case PASSWORD_RESET -> EmailPayload.PasswordReset.class;
+            case PASSWORD_CHANGE -> EmailPayload.PasswordChange.class;
+            case ANNOUNCEMENT -> EmailPayload.Announcement.class;
+            case NOTIFICATION_DIGEST -> EmailPayload.NotificationDigest.class;
+        };
+    }
+}
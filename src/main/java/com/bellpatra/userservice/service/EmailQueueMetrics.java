@@ -0,0 +1,217 @@
+package com.bellpatra.userservice.service;
+
+import com.bellpatra.userservice.entity.EmailQueue;
+import com.bellpatra.userservice.repository.EmailQueueRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.AuthenticationFailedException;
+import jakarta.mail.SendFailedException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.MailAuthenticationException;
+import org.springframework.mail.MailParseException;
+import org.springframework.mail.MailPreparationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Micrometer instrumentation for the email pipeline. Queue depth per status is kept in memory and
+ * adjusted on every transition, so reading it never touches {@code email_queue}. Transitions made on
+ * other cluster nodes are not seen here, so the counts are reconciled against the table every
+ * {@code email.metrics.reconcile-interval-seconds}, as well as at startup and after each cleanup run.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class EmailQueueMetrics {
+
+    private final MeterRegistry meterRegistry;
+    private final EmailQueueRepository emailQueueRepository;
+    private final EmailSendGovernor emailSendGovernor;
+
+    private final Map<EmailQueue.EmailStatus, AtomicLong> depth = new EnumMap<>(EmailQueue.EmailStatus.class);
+    private final Map<EmailQueue.EmailType, Timer> deliveryLatency = new EnumMap<>(EmailQueue.EmailType.class);
+    private final Map<EmailQueue.EmailType, Counter> retries = new EnumMap<>(EmailQueue.EmailType.class);
+    private final Map<EmailQueue.EmailType, Counter> failures = new EnumMap<>(EmailQueue.EmailType.class);
+
+    @Value("${email.metrics.reconcile-interval-seconds:60}")
+    private long reconcileIntervalSeconds;
+
+    private ScheduledExecutorService reconciler;
+
+    @PostConstruct
+    void init() {
+        for (EmailQueue.EmailStatus status : EmailQueue.EmailStatus.values()) {
+            AtomicLong count = new AtomicLong();
+            depth.put(status, count);
+            Gauge.builder("email.queue.depth", count, AtomicLong::get)
+                    .tag("status", status.name())
+                    .description("Emails in email_queue by status")
+                    .register(meterRegistry);
+        }
+
+        for (EmailQueue.EmailType type : EmailQueue.EmailType.values()) {
+            String typeTag = type.name();
+            deliveryLatency.put(type, Timer.builder("email.delivery.latency")
+                    .tag("type", typeTag)
+                    .description("Time from enqueue to SMTP acceptance")
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofMillis(10))
+                    .maximumExpectedValue(Duration.ofHours(6))
+                    .register(meterRegistry));
+            retries.put(type, Counter.builder("email.retries")
+                    .tag("type", typeTag)
+                    .description("Failed emails picked up again for another attempt")
+                    .register(meterRegistry));
+            failures.put(type, Counter.builder("email.failures")
+                    .tag("type", typeTag)
+                    .description("Email attempts that ended in FAILED")
+                    .register(meterRegistry));
+        }
+
+        reconcile();
+
+        reconciler = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().name("email-depth-reconcile").factory());
+        reconciler.scheduleWithFixedDelay(this::reconcile, reconcileIntervalSeconds, reconcileIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        reconciler.shutdownNow();
+    }
+
+    /**
+     * Resets the depth gauges from a single grouped count, correcting any drift from rows changed
+     * outside the pipeline (manual fixes, partition drops).
+     */
+    public void reconcile() {
+        try {
+            Map<EmailQueue.EmailStatus, Long> counts = new EnumMap<>(EmailQueue.EmailStatus.class);
+            for (Object[] row : emailQueueRepository.countGroupedByStatus()) {
+                counts.put((EmailQueue.EmailStatus) row[0], (Long) row[1]);
+            }
+            depth.forEach((status, count) -> {
+                long actual = counts.getOrDefault(status, 0L);
+                long drift = count.getAndSet(actual) - actual;
+                if (drift != 0) {
+                    log.debug("Email queue depth for {} was off by {}", status, drift);
+                }
+            });
+            log.debug("Reconciled email queue depth: {}", counts);
+        } catch (Exception e) {
+            log.warn("Could not reconcile email queue depth gauges", e);
+        }
+    }
+
+    public void onEnqueued(int count) {
+        // Only count rows once the enqueuing transaction has actually committed
+        afterCommit(() -> depth.get(EmailQueue.EmailStatus.PENDING).addAndGet(count));
+    }
+
+    public void onTransition(EmailQueue.EmailStatus from, EmailQueue.EmailStatus to, int count) {
+        if (count <= 0) {
+            return;
+        }
+        depth.get(from).addAndGet(-count);
+        depth.get(to).addAndGet(count);
+    }
+
+    public void onSent(EmailQueue emailQueue) {
+        if (emailQueue.getCreatedAt() != null) {
+            deliveryLatency.get(emailQueue.getEmailType())
+                    .record(Duration.between(emailQueue.getCreatedAt(), LocalDateTime.now()));
+        }
+    }
+
+    public void onFailed(EmailQueue emailQueue) {
+        failures.get(emailQueue.getEmailType()).increment();
+        onTransition(EmailQueue.EmailStatus.PROCESSING, EmailQueue.EmailStatus.FAILED, 1);
+    }
+
+    public void onRetries(List<EmailQueue> emails) {
+        emails.forEach(email -> retries.get(email.getEmailType()).increment());
+    }
+
+    public void onSmtpError(Throwable error) {
+        Counter.builder("email.smtp.errors")
+                .tag("cause", smtpErrorCause(error))
+                .description("SMTP send failures by cause")
+                .register(meterRegistry)
+                .increment();
+    }
+
+    public long getDepth(EmailQueue.EmailStatus status) {
+        return Math.max(0, depth.get(status).get());
+    }
+
+    public Map<String, Object> getQueueStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long total = 0;
+        for (EmailQueue.EmailStatus status : EmailQueue.EmailStatus.values()) {
+            total += getDepth(status);
+        }
+        stats.put("totalEmails", total);
+        stats.put("pendingEmails", getDepth(EmailQueue.EmailStatus.PENDING));
+        stats.put("processingEmails", getDepth(EmailQueue.EmailStatus.PROCESSING));
+        stats.put("sentEmails", getDepth(EmailQueue.EmailStatus.SENT));
+        stats.put("failedEmails", getDepth(EmailQueue.EmailStatus.FAILED));
+        return stats;
+    }
+
+    private String smtpErrorCause(Throwable error) {
+        if (emailSendGovernor.isQuotaError(error)) {
+            return "quota";
+        }
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MailAuthenticationException || cause instanceof AuthenticationFailedException) {
+                return "authentication";
+            }
+            if (cause instanceof SocketTimeoutException) {
+                return "timeout";
+            }
+            if (cause instanceof ConnectException || cause instanceof UnknownHostException) {
+                return "connection";
+            }
+            if (cause instanceof SendFailedException) {
+                return "rejected";
+            }
+            if (cause instanceof MailParseException || cause instanceof MailPreparationException) {
+                return "message";
+            }
+        }
+        return "other";
+    }
+
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+}
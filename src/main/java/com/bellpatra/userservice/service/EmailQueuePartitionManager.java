@@ -0,0 +1,242 @@
+package com.bellpatra.userservice.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Maintains daily range partitions of {@code email_queue} on PostgreSQL, so retention is a
+ * detach-and-drop of whole partitions rather than a table-wide DELETE. A DEFAULT partition catches
+ * rows for days whose partition is missing, so inserts never fail; those rows are moved into the
+ * day's partition once it is created. Every node runs this at startup, so each schema change happens
+ * in a transaction holding a cluster-wide advisory lock and re-checks the catalog under it: the first
+ * node makes the change, the others find it done.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class EmailQueuePartitionManager {
+
+    private static final String TABLE = "email_queue";
+    private static final String LEGACY_PARTITION = "email_queue_legacy";
+    private static final String DEFAULT_PARTITION = "email_queue_default";
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final Pattern UPPER_BOUND = Pattern.compile("TO \\('([^']+)'\\)");
+    // pg_advisory_xact_lock key shared by every node changing the email_queue schema
+    private static final long SCHEMA_LOCK_KEY = 0x656d61696c5f7171L;
+
+    private final DataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${email.queue.partitioning.enabled:false}")
+    private boolean partitioningEnabled;
+
+    @Value("${email.queue.partitioning.premake-days:7}")
+    private int premakeDays;
+
+    private volatile Boolean postgreSql;
+    private final AtomicInteger daysAhead = new AtomicInteger(-1);
+
+    @PostConstruct
+    void registerGauges() {
+        Gauge.builder("email.queue.partitions.ahead", daysAhead, AtomicInteger::get)
+                .description("Days after today covered by an email_queue partition; alert when below 1")
+                .register(meterRegistry);
+    }
+
+    public boolean isPostgreSql() {
+        if (postgreSql == null) {
+            try (Connection connection = dataSource.getConnection()) {
+                postgreSql = "PostgreSQL".equalsIgnoreCase(connection.getMetaData().getDatabaseProductName());
+            } catch (Exception e) {
+                log.warn("Could not determine database product for email_queue partitioning", e);
+                return false;
+            }
+        }
+        return postgreSql;
+    }
+
+    public boolean isEnabled() {
+        return partitioningEnabled && isPostgreSql();
+    }
+
+    /**
+     * Runs the work in a transaction that first takes the email_queue schema lock, serialising schema
+     * changes across the cluster. PostgreSQL DDL is transactional, so a node that fails part way leaves
+     * nothing behind.
+     */
+    public void withSchemaLock(Runnable work) {
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.queryForList("SELECT pg_advisory_xact_lock(?)", SCHEMA_LOCK_KEY);
+            work.run();
+        });
+    }
+
+    // Call from within withSchemaLock
+    public void ensurePartitioned() {
+        if (!isEnabled()) {
+            return;
+        }
+
+        String relkind = jdbcTemplate.queryForObject(
+                "SELECT c.relkind::text FROM pg_class c WHERE c.relname = ? AND pg_table_is_visible(c.oid)",
+                String.class, TABLE);
+        if (!"p".equals(relkind)) {
+            // Swap the plain table in as the first partition: no row copy, only a bound validation scan
+            String firstBound = LocalDate.now().plusDays(1).toString();
+            jdbcTemplate.execute("ALTER TABLE " + TABLE + " RENAME TO " + LEGACY_PARTITION);
+            jdbcTemplate.execute("CREATE TABLE " + TABLE + " (LIKE " + LEGACY_PARTITION + " INCLUDING DEFAULTS INCLUDING CONSTRAINTS)"
+                    + " PARTITION BY RANGE (created_at)");
+            jdbcTemplate.execute("ALTER TABLE " + TABLE + " ADD CONSTRAINT email_queue_partitioned_pkey PRIMARY KEY (id, created_at)");
+            jdbcTemplate.execute("ALTER TABLE " + TABLE + " ATTACH PARTITION " + LEGACY_PARTITION
+                    + " FOR VALUES FROM (MINVALUE) TO ('" + firstBound + "')");
+            log.info("Converted {} to a range-partitioned table; existing rows live in {}", TABLE, LEGACY_PARTITION);
+        }
+
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + DEFAULT_PARTITION + " PARTITION OF " + TABLE + " DEFAULT");
+    }
+
+    /**
+     * Creates the partitions for today and the next {@code premake-days} days, then checks how far
+     * ahead partitions exist. Runs hourly, independently of the daily cleanup.
+     */
+    public void createUpcomingPartitions() {
+        if (!isEnabled()) {
+            return;
+        }
+
+        LocalDate today = LocalDate.now();
+        for (int offset = 0; offset <= premakeDays; offset++) {
+            LocalDate day = today.plusDays(offset);
+            String partition = partitionName(day);
+            if (partitionExists(partition)) {
+                continue;
+            }
+            try {
+                withSchemaLock(() -> {
+                    if (partitionExists(partition)) {
+                        return;
+                    }
+                    if (hasDefaultRows(day)) {
+                        moveOutOfDefault(day, partition);
+                    } else {
+                        jdbcTemplate.execute("CREATE TABLE " + partition + " PARTITION OF " + TABLE
+                                + " FOR VALUES FROM ('" + day + "') TO ('" + day.plusDays(1) + "')");
+                    }
+                });
+            } catch (Exception e) {
+                // Today's range is still covered by the legacy partition right after conversion
+                log.debug("Skipping partition {}: {}", partition, e.getMessage());
+            }
+        }
+        checkDaysAhead(today);
+    }
+
+    private void checkDaysAhead(LocalDate today) {
+        int ahead = 0;
+        while (ahead < premakeDays && partitionExists(partitionName(today.plusDays(ahead + 1)))) {
+            ahead++;
+        }
+        daysAhead.set(ahead);
+        if (ahead == 0) {
+            log.error("No email_queue partition exists for {}: new emails will land in {}",
+                    today.plusDays(1), DEFAULT_PARTITION);
+        }
+    }
+
+    // Rows of the day went to DEFAULT while its partition was missing; PostgreSQL refuses the new
+    // partition until they are moved, which needs DEFAULT detached for the duration. Runs under the schema lock
+    private void moveOutOfDefault(LocalDate day, String partition) {
+        jdbcTemplate.execute("ALTER TABLE " + TABLE + " DETACH PARTITION " + DEFAULT_PARTITION);
+        jdbcTemplate.execute("CREATE TABLE " + partition + " PARTITION OF " + TABLE
+                + " FOR VALUES FROM ('" + day + "') TO ('" + day.plusDays(1) + "')");
+        int moved = jdbcTemplate.update("WITH moved AS (DELETE FROM " + DEFAULT_PARTITION
+                + " WHERE created_at >= ?::date AND created_at < ?::date RETURNING *)"
+                + " INSERT INTO " + TABLE + " SELECT * FROM moved", day.toString(), day.plusDays(1).toString());
+        jdbcTemplate.execute("ALTER TABLE " + TABLE + " ATTACH PARTITION " + DEFAULT_PARTITION + " DEFAULT");
+        log.warn("Created missing partition {} and moved {} rows into it from {}", partition, moved, DEFAULT_PARTITION);
+    }
+
+    private boolean hasDefaultRows(LocalDate day) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM " + DEFAULT_PARTITION + " WHERE created_at >= ?::date AND created_at < ?::date)",
+                Boolean.class, day.toString(), day.plusDays(1).toString()));
+    }
+
+    private boolean partitionExists(String partition) {
+        return jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NOT NULL", Boolean.class, partition);
+    }
+
+    private static String partitionName(LocalDate day) {
+        return TABLE + "_p" + day.format(PARTITION_SUFFIX);
+    }
+
+    /**
+     * Detaches and drops every partition whose whole range is older than the cutoff.
+     * Partitions still holding PENDING or PROCESSING rows are kept.
+     *
+     * @return number of partitions dropped
+     */
+    public int dropExpiredPartitions(LocalDateTime cutoffDate) {
+        if (!isEnabled()) {
+            return 0;
+        }
+
+        List<Map<String, Object>> partitions = jdbcTemplate.queryForList(
+                "SELECT c.relname AS name, pg_get_expr(c.relpartbound, c.oid) AS bound"
+                        + " FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid"
+                        + " WHERE i.inhparent = ?::regclass", TABLE);
+
+        int dropped = 0;
+        for (Map<String, Object> partition : partitions) {
+            String name = (String) partition.get("name");
+            LocalDateTime upperBound = parseUpperBound((String) partition.get("bound"));
+            if (upperBound == null || upperBound.isAfter(cutoffDate)) {
+                continue;
+            }
+
+            Boolean hasLiveRows = jdbcTemplate.queryForObject(
+                    "SELECT EXISTS (SELECT 1 FROM " + name + " WHERE status IN ('PENDING', 'PROCESSING'))", Boolean.class);
+            if (Boolean.TRUE.equals(hasLiveRows)) {
+                log.warn("Keeping expired partition {}: it still holds unsent emails", name);
+                continue;
+            }
+
+            withSchemaLock(() -> {
+                jdbcTemplate.execute("ALTER TABLE " + TABLE + " DETACH PARTITION " + name);
+                jdbcTemplate.execute("DROP TABLE " + name);
+            });
+            log.info("Dropped email_queue partition {} (upper bound {})", name, upperBound);
+            dropped++;
+        }
+        return dropped;
+    }
+
+    private LocalDateTime parseUpperBound(String bound) {
+        Matcher matcher = UPPER_BOUND.matcher(bound == null ? "" : bound);
+        if (!matcher.find()) {
+            return null;
+        }
+        String value = matcher.group(1);
+        return value.length() == 10 ? LocalDate.parse(value).atStartOfDay() : LocalDateTime.parse(value.replace(' ', 'T'));
+    }
+}
@@ -1,21 +1,26 @@
 package com.bellpatra.userservice.service;
 
+import com.bellpatra.userservice.dto.EmailEnqueueRequest;
+import com.bellpatra.userservice.dto.EmailPayload;
 import com.bellpatra.userservice.entity.EmailQueue;
 import com.bellpatra.userservice.entity.User;
 import com.bellpatra.userservice.repository.EmailQueueRepository;
 import com.bellpatra.userservice.repository.PasswordResetTokenRepository;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
 
 @Service
@@ -25,29 +30,26 @@ public class EmailQueueService {
 
     private final EmailQueueRepository emailQueueRepository;
     private final PasswordResetTokenRepository passwordResetTokenRepository;
-    private final ObjectMapper objectMapper;
+    private final EmailPayloadCodec emailPayloadCodec;
+    private final EmailQueuePartitionManager emailQueuePartitionManager;
+    private final EmailQueueMetrics emailQueueMetrics;
+
+    @Value("${email.queue.retention-days:30}")
+    private int retentionDays;
+
+    @Value("${email.queue.cleanup-chunk-size:1000}")
+    private int cleanupChunkSize;
+
+    @Value("${email.login-alerts.max-digest-entries:50}")
+    private int maxDigestEntries;
 
     @Transactional(propagation = Propagation.REQUIRES_NEW)
     public EmailQueue queueWelcomeEmail(User user) {
         try {
-            Map<String, Object> metadata = new HashMap<>();
-            metadata.put("userId", user.getId().toString());
-            metadata.put("userRole", user.getRole().name());
-            metadata.put("registrationTime", user.getCreatedAt() != null ? user.getCreatedAt().toString() : LocalDateTime.now().toString());
-            metadata.put("loginUrl", "http://localhost:8060/login");
-
-            EmailQueue emailQueue = EmailQueue.builder()
-                    .recipientEmail(user.getEmail())
-                    .subject("🎉 Welcome to ChakraERP - Your Account is Ready!")
-                    .htmlContent("") // Will be populated by processor
-                    .textContent("") // Will be populated by processor
-                    .emailType(EmailQueue.EmailType.WELCOME_EMAIL)
-                    .status(EmailQueue.EmailStatus.PENDING)
-                    .scheduledAt(LocalDateTime.now())
-                    .metadata(convertToJson(metadata))
-                    .build();
+            EmailQueue emailQueue = buildEmail(new EmailEnqueueRequest(user, EmailQueue.EmailType.WELCOME_EMAIL, welcomePayload(user)));
 
             EmailQueue savedEmail = emailQueueRepository.save(emailQueue);
+            emailQueueMetrics.onEnqueued(1);
             log.info("Welcome email queued for user: {} with ID: {}", user.getEmail(), savedEmail.getId());
             return savedEmail;
 
@@ -60,25 +62,18 @@ public class EmailQueueService {
     @Transactional(propagation = Propagation.REQUIRES_NEW)
     public EmailQueue queueLoginSuccessEmail(User user, String ipAddress, String deviceInfo) {
         try {
-            Map<String, Object> metadata = new HashMap<>();
-            metadata.put("userId", user.getId().toString());
-            metadata.put("userRole", user.getRole().name());
-            metadata.put("ipAddress", ipAddress);
-            metadata.put("deviceInfo", deviceInfo);
-            metadata.put("loginTime", LocalDateTime.now().toString());
-
-            EmailQueue emailQueue = EmailQueue.builder()
-                    .recipientEmail(user.getEmail())
-                    .subject("🔐 Login Successful - ChakraERP Security Alert")
-                    .htmlContent("") // Will be populated by processor
-                    .textContent("") // Will be populated by processor
-                    .emailType(EmailQueue.EmailType.LOGIN_SUCCESS)
-                    .status(EmailQueue.EmailStatus.PENDING)
-                    .scheduledAt(LocalDateTime.now())
-                    .metadata(convertToJson(metadata))
-                    .build();
+            EmailPayload.LoginSuccess payload = new EmailPayload.LoginSuccess(
+                    user.getId().toString(),
+                    user.getRole().name(),
+                    ipAddress,
+                    deviceInfo,
+                    LocalDateTime.now().toString()
+            );
+
+            EmailQueue emailQueue = buildEmail(new EmailEnqueueRequest(user, EmailQueue.EmailType.LOGIN_SUCCESS, payload));
 
             EmailQueue savedEmail = emailQueueRepository.save(emailQueue);
+            emailQueueMetrics.onEnqueued(1);
             log.info("Login success email queued for user: {} with ID: {}", user.getEmail(), savedEmail.getId());
             return savedEmail;
 
@@ -88,29 +83,62 @@ public class EmailQueueService {
         }
     }
 
+    /**
+     * Adds a login to the recipient's open login digest, or opens a new digest that is held back
+     * for {@code window} so further logins can join it. The open digest row is locked while it is
+     * updated, so concurrent logins and the dispatcher's claim cannot lose an entry.
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public EmailQueue queueLoginDigestEntry(User user, String ipAddress, String deviceInfo, Duration window) {
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            EmailPayload.LoginDigest.Login login = new EmailPayload.LoginDigest.Login(ipAddress, deviceInfo, now.toString());
+
+            Optional<EmailQueue> openDigest = emailQueueRepository.findFirstByRecipientEmailAndEmailTypeAndStatusAndScheduledAtAfterOrderByScheduledAtAsc(
+                    user.getEmail(), EmailQueue.EmailType.LOGIN_DIGEST, EmailQueue.EmailStatus.PENDING, now);
+
+            if (openDigest.isPresent()) {
+                EmailQueue digest = openDigest.get();
+                EmailPayload.LoginDigest payload = emailPayloadCodec.decode(digest.getMetadata(), EmailPayload.LoginDigest.class);
+
+                List<EmailPayload.LoginDigest.Login> logins = new ArrayList<>(payload.logins() != null ? payload.logins() : List.of());
+                int totalLogins = Math.max(payload.totalLogins(), logins.size()) + 1;
+                logins.add(login);
+                if (logins.size() > maxDigestEntries) {
+                    logins = logins.subList(logins.size() - maxDigestEntries, logins.size());
+                }
+
+                digest.setMetadata(emailPayloadCodec.encode(new EmailPayload.LoginDigest(payload.userId(), totalLogins, logins)));
+                EmailQueue savedDigest = emailQueueRepository.save(digest);
+                log.info("Login alert for user: {} merged into digest {} ({} logins)", user.getEmail(), savedDigest.getId(), totalLogins);
+                return savedDigest;
+            }
+
+            EmailPayload.LoginDigest payload = new EmailPayload.LoginDigest(user.getId().toString(), 1, List.of(login));
+            EmailQueue emailQueue = buildEmail(new EmailEnqueueRequest(user, EmailQueue.EmailType.LOGIN_DIGEST, payload));
+            emailQueue.setScheduledAt(now.plus(window));
+
+            EmailQueue savedEmail = emailQueueRepository.save(emailQueue);
+            emailQueueMetrics.onEnqueued(1);
+            log.info("Login digest opened for user: {} with ID: {}, sending at {}", user.getEmail(), savedEmail.getId(), savedEmail.getScheduledAt());
+            return savedEmail;
+
+        } catch (Exception e) {
+            log.error("Failed to queue login digest entry for user: {}", user.getEmail(), e);
+            throw new RuntimeException("Failed to queue login digest entry", e);
+        }
+    }
+
     @Transactional(propagation = Propagation.REQUIRES_NEW)
     public EmailQueue queuePasswordResetEmail(User user, String otp, String ipAddress) {
         try {
-            // Create metadata
-            Map<String, Object> metadata = Map.of(
-                "otp", otp,
-                "ipAddress", ipAddress
-            );
+            // Create payload
+            EmailPayload.PasswordReset payload = new EmailPayload.PasswordReset(otp, ipAddress);
 
-            EmailQueue emailQueue = EmailQueue.builder()
-                .recipientEmail(user.getEmail())
-                .subject("🔐 Password Reset OTP - ChakraERP")
-                .emailType(EmailQueue.EmailType.PASSWORD_RESET)
-                .htmlContent("") // Will be populated by template
-                .textContent("Your password reset OTP is: " + otp)
-                .metadata(objectMapper.writeValueAsString(metadata))
-                .status(EmailQueue.EmailStatus.PENDING)
-                .scheduledAt(LocalDateTime.now())
-                .maxRetries(3)
-                .retryCount(0)
-                .build();
+            EmailQueue emailQueue = buildEmail(new EmailEnqueueRequest(user, EmailQueue.EmailType.PASSWORD_RESET, payload));
 
             EmailQueue savedEmail = emailQueueRepository.save(emailQueue);
+            emailQueueMetrics.onEnqueued(1);
             log.info("Password reset email queued for user: {} with ID: {}", user.getEmail(), savedEmail.getId());
             return savedEmail;
 
@@ -123,26 +151,13 @@ public class EmailQueueService {
     @Transactional(propagation = Propagation.REQUIRES_NEW)
     public EmailQueue queuePasswordChangeEmail(User user, String ipAddress, String deviceInfo) {
         try {
-            // Create metadata
-            Map<String, Object> metadata = Map.of(
-                "ipAddress", ipAddress,
-                "deviceInfo", deviceInfo
-            );
+            // Create payload
+            EmailPayload.PasswordChange payload = new EmailPayload.PasswordChange(ipAddress, deviceInfo);
 
-            EmailQueue emailQueue = EmailQueue.builder()
-                .recipientEmail(user.getEmail())
-                .subject("✅ Password Changed Successfully - ChakraERP Security Alert")
-                .emailType(EmailQueue.EmailType.PASSWORD_CHANGE)
-                .htmlContent("") // Will be populated by template
-                .textContent("Your password has been successfully changed.")
-                .metadata(objectMapper.writeValueAsString(metadata))
-                .status(EmailQueue.EmailStatus.PENDING)
-                .scheduledAt(LocalDateTime.now())
-                .maxRetries(3)
-                .retryCount(0)
-                .build();
+            EmailQueue emailQueue = buildEmail(new EmailEnqueueRequest(user, EmailQueue.EmailType.PASSWORD_CHANGE, payload));
 
             EmailQueue savedEmail = emailQueueRepository.save(emailQueue);
+            emailQueueMetrics.onEnqueued(1);
             log.info("Password change email queued for user: {} with ID: {}", user.getEmail(), savedEmail.getId());
             return savedEmail;
 
@@ -152,6 +167,46 @@ public class EmailQueueService {
         }
     }
 
+    /**
+     * Queues many emails in the caller's transaction. Rows are flushed through Hibernate's JDBC
+     * batching (see {@code hibernate.jdbc.batch_size}), so a large import costs one transaction
+     * and a few multi-row INSERTs instead of one REQUIRES_NEW transaction per email.
+     */
+    @Transactional
+    public List<EmailQueue> queueEmails(Collection<EmailEnqueueRequest> requests) {
+        if (requests.isEmpty()) {
+            return List.of();
+        }
+
+        List<EmailQueue> emails = requests.stream().map(this::buildEmail).toList();
+        List<EmailQueue> savedEmails = emailQueueRepository.saveAll(emails);
+        emailQueueMetrics.onEnqueued(savedEmails.size());
+        log.info("Queued {} emails in bulk", savedEmails.size());
+        return savedEmails;
+    }
+
+    @Transactional
+    public List<EmailQueue> queueWelcomeEmails(Collection<User> users) {
+        return queueEmails(users.stream()
+                .map(user -> new EmailEnqueueRequest(user, EmailQueue.EmailType.WELCOME_EMAIL, welcomePayload(user)))
+                .toList());
+    }
+
+    @Transactional
+    public List<EmailQueue> queueAnnouncement(Collection<User> users, String subject, String htmlContent, String sentBy) {
+        EmailPayload.Announcement payload = new EmailPayload.Announcement(subject, htmlContent, sentBy);
+        return queueEmails(users.stream()
+                .map(user -> new EmailEnqueueRequest(user, EmailQueue.EmailType.ANNOUNCEMENT, payload))
+                .toList());
+    }
+
+    @Transactional
+    public List<EmailQueue> queueNotificationDigests(Map<User, EmailPayload.NotificationDigest> digests) {
+        return queueEmails(digests.entrySet().stream()
+                .map(digest -> new EmailEnqueueRequest(digest.getKey(), EmailQueue.EmailType.NOTIFICATION_DIGEST, digest.getValue()))
+                .toList());
+    }
+
     public List<EmailQueue> getPendingEmails(int limit) {
         return emailQueueRepository.findByStatusAndScheduledAtLessThanEqualOrderByCreatedAtAsc(
                 EmailQueue.EmailStatus.PENDING, 
@@ -181,19 +236,37 @@ public class EmailQueueService {
         emailQueueRepository.updateFailedStatus(emailId, EmailQueue.EmailStatus.FAILED, errorMessage);
     }
 
-    @Transactional
     public void cleanupOldEmails() {
-        LocalDateTime cutoffDate = LocalDateTime.now().minusDays(30); // Keep emails for 30 days
-        emailQueueRepository.deleteOldProcessedEmails(EmailQueue.EmailStatus.SENT, cutoffDate);
-        log.info("Cleaned up old processed emails");
+        LocalDateTime cutoffDate = LocalDateTime.now().minusDays(retentionDays);
+
+        if (emailQueuePartitionManager.isEnabled()) {
+            emailQueuePartitionManager.createUpcomingPartitions();
+            int dropped = emailQueuePartitionManager.dropExpiredPartitions(cutoffDate);
+            log.info("Cleaned up old emails: dropped {} expired partitions", dropped);
+            emailQueueMetrics.reconcile();
+            return;
+        }
+
+        // Fallback for unpartitioned tables (and H2): delete in short chunks, each in its own transaction
+        long deleted = 0;
+        List<UUID> ids;
+        do {
+            ids = emailQueueRepository.findIdsProcessedBefore(EmailQueue.EmailStatus.SENT, cutoffDate, PageRequest.of(0, cleanupChunkSize));
+            if (!ids.isEmpty()) {
+                deleted += emailQueueRepository.deleteByIdIn(ids);
+            }
+        } while (ids.size() == cleanupChunkSize);
+        log.info("Cleaned up {} old processed emails", deleted);
+        emailQueueMetrics.reconcile();
     }
 
+    // Served from the incrementally maintained gauges rather than COUNT(*) scans
     public long getPendingEmailCount() {
-        return emailQueueRepository.countByStatus(EmailQueue.EmailStatus.PENDING);
+        return emailQueueMetrics.getDepth(EmailQueue.EmailStatus.PENDING);
     }
 
     public long getFailedEmailCount() {
-        return emailQueueRepository.countByStatus(EmailQueue.EmailStatus.FAILED);
+        return emailQueueMetrics.getDepth(EmailQueue.EmailStatus.FAILED);
     }
 
     public List<EmailQueue> getUserEmails(String recipientEmail) {
@@ -205,17 +278,7 @@ public class EmailQueueService {
 
     public Map<String, Object> getEmailQueueStats() {
         try {
-            long totalEmails = emailQueueRepository.count();
-            long pendingEmails = emailQueueRepository.countByStatus(EmailQueue.EmailStatus.PENDING);
-            long sentEmails = emailQueueRepository.countByStatus(EmailQueue.EmailStatus.SENT);
-            long failedEmails = emailQueueRepository.countByStatus(EmailQueue.EmailStatus.FAILED);
-
-            return Map.of(
-                    "totalEmails", totalEmails,
-                    "pendingEmails", pendingEmails,
-                    "sentEmails", sentEmails,
-                    "failedEmails", failedEmails
-            );
+            return emailQueueMetrics.getQueueStats();
         } catch (Exception e) {
             log.error("Failed to get email queue stats", e);
             return Map.of(
@@ -227,12 +290,49 @@ public class EmailQueueService {
         }
     }
 
-    private String convertToJson(Map<String, Object> metadata) {
-        try {
-            return objectMapper.writeValueAsString(metadata);
-        } catch (JsonProcessingException e) {
-            log.error("Failed to convert metadata to JSON", e);
-            return "{}";
+    private EmailQueue buildEmail(EmailEnqueueRequest request) {
+        return EmailQueue.builder()
+                .recipientEmail(request.user().getEmail())
+                .subject(subjectFor(request))
+                .htmlContent("") // Will be populated by processor
+                .textContent(textFor(request))
+                .emailType(request.emailType())
+                .status(EmailQueue.EmailStatus.PENDING)
+                .scheduledAt(LocalDateTime.now())
+                .maxRetries(3)
+                .retryCount(0)
+                .metadata(emailPayloadCodec.encode(request.payload()))
+                .build();
+    }
+
+    private String subjectFor(EmailEnqueueRequest request) {
+        return switch (request.emailType()) {
+            case WELCOME_EMAIL -> "🎉 Welcome to ChakraERP - Your Account is Ready!";
+            case LOGIN_SUCCESS -> "🔐 Login Successful - ChakraERP Security Alert";
+            case LOGIN_DIGEST -> "🔐 Recent Sign-ins to Your Account - ChakraERP Security Alert";
+            case PASSWORD_RESET -> "🔐 Password Reset OTP - ChakraERP";
+            case PASSWORD_CHANGE -> "✅ Password Changed Successfully - ChakraERP Security Alert";
+            case ANNOUNCEMENT -> ((EmailPayload.Announcement) request.payload()).subject();
+            case NOTIFICATION_DIGEST -> "🔔 You Have Unread Notifications - ChakraERP";
+        };
+    }
+
+    private String textFor(EmailEnqueueRequest request) {
+        if (request.payload() instanceof EmailPayload.PasswordReset reset) {
+            return "Your password reset OTP is: " + reset.otp();
         }
+        if (request.emailType() == EmailQueue.EmailType.PASSWORD_CHANGE) {
+            return "Your password has been successfully changed.";
+        }
+        return ""; // Will be populated by processor
+    }
+
+    public EmailPayload.Welcome welcomePayload(User user) {
+        return new EmailPayload.Welcome(
+                user.getId().toString(),
+                user.getRole().name(),
+                user.getCreatedAt() != null ? user.getCreatedAt().toString() : LocalDateTime.now().toString(),
+                "http://localhost:8060/login"
+        );
     }
 }
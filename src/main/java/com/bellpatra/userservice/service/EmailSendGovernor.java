@@ -0,0 +1,301 @@
+package com.bellpatra.userservice.service;
+
+import com.bellpatra.userservice.entity.EmailQueue;
+import com.bellpatra.userservice.repository.EmailQueueRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces outbound SMTP sends to stay just under the active provider's per-minute and per-day quotas.
+ * Both limits are continuously refilling token buckets; a share of each is reserved for HIGH priority
+ * mail so OTPs still go out when bulk mail has used up the rest. The quota is shared by the whole
+ * cluster, so each node's buckets are sized to its share of the live Quartz nodes. The day bucket starts
+ * from the cluster's SENT rows of the last 24 hours rather than full, so a restart does not hand back
+ * quota already spent.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class EmailSendGovernor {
+
+    private final MeterRegistry meterRegistry;
+    private final QuartzClusterService quartzClusterService;
+    private final EmailQueueRepository emailQueueRepository;
+
+    @Value("${email.throttle.provider:gmail}")
+    private String provider;
+
+    @Value("${email.throttle.providers.${email.throttle.provider:gmail}.per-minute:20}")
+    private int perMinuteLimit;
+
+    @Value("${email.throttle.providers.${email.throttle.provider:gmail}.per-day:500}")
+    private int perDayLimit;
+
+    @Value("${email.throttle.headroom-percent:5}")
+    private int headroomPercent;
+
+    @Value("${email.throttle.high-priority-reserve-percent:10}")
+    private int highPriorityReservePercent;
+
+    @Value("${email.throttle.max-wait-ms:2000}")
+    private long maxWaitMillis;
+
+    @Value("${email.throttle.quota-exceeded-pause-minutes:15}")
+    private long quotaExceededPauseMinutes;
+
+    @Value("${email.throttle.node-refresh-seconds:30}")
+    private long nodeRefreshSeconds;
+
+    // Provider replies that mean the quota is used up; other rejections (auth, TLS) must not pause sending
+    @Value("${email.throttle.quota-error-patterns:5.4.5,sending limit exceeded,sending quota exceeded,daily message quota exceeded,maximum sending rate exceeded}")
+    private List<String> quotaErrorPatterns;
+
+    private int minuteCapacity;
+    private int dayCapacity;
+    private TokenBucket minuteBucket;
+    private TokenBucket dayBucket;
+    private volatile int liveNodes = 1;
+    private volatile double highPriorityMinuteReserve;
+    private volatile double highPriorityReserve;
+    private volatile long nodesRefreshedAtNanos;
+    private volatile long pausedUntilNanos;
+
+    @PostConstruct
+    void init() {
+        minuteCapacity = Math.max(1, perMinuteLimit * (100 - headroomPercent) / 100);
+        dayCapacity = Math.max(1, perDayLimit * (100 - headroomPercent) / 100);
+        minuteBucket = new TokenBucket(minuteCapacity, Duration.ofMinutes(1));
+        dayBucket = new TokenBucket(dayCapacity, Duration.ofDays(1));
+        applyShare(1);
+        refreshShare();
+        seedDayBucket();
+
+        Gauge.builder("email.quota.remaining", minuteBucket, TokenBucket::available)
+                .tag("provider", provider)
+                .tag("window", "minute")
+                .description("Sends left in the provider's per-minute quota")
+                .register(meterRegistry);
+        Gauge.builder("email.quota.remaining", dayBucket, TokenBucket::available)
+                .tag("provider", provider)
+                .tag("window", "day")
+                .description("Sends left in the provider's per-day quota")
+                .register(meterRegistry);
+
+        log.info("Email send governor for {}: {}/min, {}/day across the cluster ({}% reserved for HIGH priority)",
+                provider, minuteCapacity, dayCapacity, highPriorityReservePercent);
+    }
+
+    /**
+     * Number of emails of this priority worth claiming right now: the tokens this node can spend on it
+     * in both windows. Anything beyond it would only be deferred.
+     */
+    public int claimableNow(EmailQueue.EmailPriority priority) {
+        refreshShare();
+        if (isPaused()) {
+            return 0;
+        }
+        return (int) Math.max(0, Math.min(minuteAllowance(priority), dailyAllowance(priority)));
+    }
+
+    /**
+     * Waits (up to the configured maximum) for a send slot. Returns false when the caller should defer
+     * the email instead, either because the minute window is exhausted or the daily share is used up.
+     */
+    public boolean acquire(EmailQueue.EmailPriority priority) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        while (true) {
+            if (isPaused()) {
+                return false;
+            }
+
+            long waitNanos;
+            synchronized (this) {
+                if (dailyAllowance(priority) < 1) {
+                    return false;
+                }
+                waitNanos = minuteBucket.nanosUntilAvailable(1 + minuteReserveFor(priority));
+                if (waitNanos == 0) {
+                    minuteBucket.take();
+                    dayBucket.take();
+                    return true;
+                }
+            }
+
+            if (System.nanoTime() + waitNanos > deadline) {
+                return false;
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Called when the provider rejects a send for quota reasons: stop sending for a while instead of
+     * burning through retries and risking a lockout.
+     */
+    public void onQuotaExceeded(String reason) {
+        pausedUntilNanos = System.nanoTime() + TimeUnit.MINUTES.toNanos(quotaExceededPauseMinutes);
+        minuteBucket.drain();
+        log.warn("Provider {} reported quota exhaustion ({}); pausing sends for {} minutes", provider, reason, quotaExceededPauseMinutes);
+    }
+
+    public boolean isQuotaError(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            String message = cause.getMessage() != null ? cause.getMessage().toLowerCase() : null;
+            if (message != null && quotaErrorPatterns.stream().anyMatch(pattern -> message.contains(pattern.toLowerCase()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Map<String, Object> getQuotaStats() {
+        return Map.of(
+                "provider", provider,
+                "remainingThisMinute", (long) minuteBucket.available(),
+                "remainingToday", (long) dayBucket.available(),
+                "highPriorityReserve", (long) highPriorityReserve,
+                "highPriorityMinuteReserve", (long) highPriorityMinuteReserve,
+                "liveNodes", liveNodes,
+                "paused", isPaused()
+        );
+    }
+
+    // Nodes come and go, so the share is re-read from the Quartz job store every few seconds
+    private void refreshShare() {
+        long now = System.nanoTime();
+        if (nodesRefreshedAtNanos != 0 && now - nodesRefreshedAtNanos < TimeUnit.SECONDS.toNanos(nodeRefreshSeconds)) {
+            return;
+        }
+        nodesRefreshedAtNanos = now;
+        try {
+            int nodes = quartzClusterService.countLiveNodes();
+            if (nodes != liveNodes) {
+                applyShare(nodes);
+                log.info("Email quota now shared by {} nodes: {}/min, {}/day on this node",
+                        nodes, minuteBucket.capacity(), dayBucket.capacity());
+            }
+        } catch (Exception e) {
+            log.warn("Could not count live scheduler nodes, keeping a 1/{} quota share: {}", liveNodes, e.getMessage());
+        }
+    }
+
+    // A send made h hours ago has refilled h/24 of its token, as it would have had this node kept running
+    private void seedDayBucket() {
+        LocalDateTime now = LocalDateTime.now();
+        double spent = 0;
+        try {
+            for (LocalDateTime sentAt : emailQueueRepository.findProcessedAtByStatusSince(EmailQueue.EmailStatus.SENT, now.minusDays(1))) {
+                spent += 1 - (double) Duration.between(sentAt, now).toNanos() / Duration.ofDays(1).toNanos();
+            }
+        } catch (Exception e) {
+            log.warn("Could not read today's sends, starting the {} day bucket full: {}", provider, e.getMessage());
+            return;
+        }
+        dayBucket.spend(spent / liveNodes);
+        log.info("Seeded {} day quota from {} sends in the last 24 hours: {} left on this node",
+                provider, Math.round(spent), (long) dayBucket.available());
+    }
+
+    private synchronized void applyShare(int nodes) {
+        liveNodes = nodes;
+        minuteBucket.resize(Math.max(1, minuteCapacity / nodes));
+        dayBucket.resize(Math.max(1, dayCapacity / nodes));
+        // Never reserve the whole minute window, or NORMAL and LOW could not send at all
+        highPriorityMinuteReserve = Math.min(minuteBucket.capacity() * highPriorityReservePercent / 100.0,
+                minuteBucket.capacity() - 1);
+        highPriorityReserve = dayBucket.capacity() * highPriorityReservePercent / 100.0;
+    }
+
+    private double minuteAllowance(EmailQueue.EmailPriority priority) {
+        return minuteBucket.available() - minuteReserveFor(priority);
+    }
+
+    private double minuteReserveFor(EmailQueue.EmailPriority priority) {
+        return priority == EmailQueue.EmailPriority.HIGH ? 0 : highPriorityMinuteReserve;
+    }
+
+    private double dailyAllowance(EmailQueue.EmailPriority priority) {
+        double available = dayBucket.available();
+        return priority == EmailQueue.EmailPriority.HIGH ? available : available - highPriorityReserve;
+    }
+
+    private boolean isPaused() {
+        return pausedUntilNanos != 0 && System.nanoTime() < pausedUntilNanos;
+    }
+
+    private static final class TokenBucket {
+
+        private final long refillPeriodNanos;
+        private long capacity;
+        private double tokensPerNano;
+        private double tokens;
+        private long lastRefillNanos;
+
+        TokenBucket(long capacity, Duration refillPeriod) {
+            this.refillPeriodNanos = refillPeriod.toNanos();
+            this.capacity = capacity;
+            this.tokensPerNano = (double) capacity / refillPeriodNanos;
+            this.tokens = capacity;
+            this.lastRefillNanos = System.nanoTime();
+        }
+
+        synchronized long capacity() {
+            return capacity;
+        }
+
+        // Keeps the tokens already spent: a bucket shrinks to at most its new capacity
+        synchronized void resize(long newCapacity) {
+            refill();
+            capacity = newCapacity;
+            tokensPerNano = (double) newCapacity / refillPeriodNanos;
+            tokens = Math.min(tokens, newCapacity);
+        }
+
+        synchronized double available() {
+            refill();
+            return tokens;
+        }
+
+        synchronized long nanosUntilAvailable(double required) {
+            refill();
+            return tokens >= required ? 0 : (long) Math.ceil((required - tokens) / tokensPerNano);
+        }
+
+        synchronized void take() {
+            refill();
+            tokens -= 1;
+        }
+
+        synchronized void spend(double amount) {
+            refill();
+            tokens = Math.max(0, tokens - amount);
+        }
+
+        synchronized void drain() {
+            refill();
+            tokens = 0;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * tokensPerNano);
+            lastRefillNanos = now;
+        }
+    }
+}
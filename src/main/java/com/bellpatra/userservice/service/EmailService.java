@@ -1,8 +1,11 @@
 package com.bellpatra.userservice.service;
 
+import com.bellpatra.userservice.dto.EmailPayload;
+import com.bellpatra.userservice.dto.RenderedEmail;
 import com.bellpatra.userservice.entity.User;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.mail.MailException;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.mail.javamail.MimeMessageHelper;
 import org.springframework.stereotype.Service;
@@ -12,153 +15,161 @@ import org.thymeleaf.context.Context;
 import jakarta.mail.MessagingException;
 import jakarta.mail.internet.MimeMessage;
 
+import java.util.List;
+
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class EmailService {
 
+    private static final String FROM_ADDRESS = "ajayit2020@gmail.com";
+
     private final JavaMailSender mailSender;
     private final TemplateEngine templateEngine;
+    private final EmailQueueMetrics emailQueueMetrics;
 
     public void sendWelcomeEmail(User user) {
         sendWelcomeEmail(user, "http://localhost:8060/login");
     }
 
     public void sendWelcomeEmail(User user, String loginUrl) {
-        try {
-            MimeMessage message = mailSender.createMimeMessage();
-            MimeMessageHelper helper = new MimeMessageHelper(message, true, "UTF-8");
-
-            helper.setFrom("ajayit2020@gmail.com");
-            helper.setTo(user.getEmail());
-            helper.setSubject("🎉 Welcome to ChakraERP - Your Account is Ready!");
-
-            // Prepare the context for Thymeleaf template
-            Context context = new Context();
-            context.setVariable("user", user);
-            context.setVariable("appName", "ChakraERP");
-            context.setVariable("supportEmail", "support@chakraerp.com");
-            context.setVariable("loginUrl", loginUrl);
-
-            // Process the template
-            String htmlContent = templateEngine.process("welcome-email", context);
-            helper.setText(htmlContent, true);
-
-            mailSender.send(message);
-            log.info("Welcome email sent successfully to: {}", user.getEmail());
-
-        } catch (MessagingException e) {
-            log.error("Failed to send welcome email to: {}", user.getEmail(), e);
-            throw new RuntimeException("Failed to send welcome email", e);
-        }
+        send(renderWelcomeEmail(user, loginUrl));
     }
 
     public void sendSimpleEmail(String to, String subject, String htmlContent) {
-        try {
-            MimeMessage message = mailSender.createMimeMessage();
-            MimeMessageHelper helper = new MimeMessageHelper(message, true, "UTF-8");
-
-            helper.setFrom("ajayit2020@gmail.com");
-            helper.setTo(to);
-            helper.setSubject(subject);
-            helper.setText(htmlContent, true);
+        send(new RenderedEmail(to, subject, htmlContent));
+    }
 
-            mailSender.send(message);
-            log.info("Simple email sent successfully to: {}", to);
+    public void sendLoginSuccessEmail(User user, String ipAddress, String deviceInfo) {
+        send(renderLoginSuccessEmail(user, ipAddress, deviceInfo));
+    }
 
-        } catch (MessagingException e) {
-            log.error("Failed to send simple email to: {}", to, e);
-            throw new RuntimeException("Failed to send simple email", e);
-        }
+    public void sendLoginDigestEmail(User user, List<EmailPayload.LoginDigest.Login> logins, int totalLogins) {
+        send(renderLoginDigestEmail(user, logins, totalLogins));
     }
 
-    public void sendLoginSuccessEmail(User user, String ipAddress, String deviceInfo) {
-        try {
-            MimeMessage message = mailSender.createMimeMessage();
-            MimeMessageHelper helper = new MimeMessageHelper(message, true, "UTF-8");
+    public void sendNotificationDigestEmail(User user, EmailPayload.NotificationDigest digest) {
+        send(renderNotificationDigestEmail(user, digest));
+    }
 
-            helper.setFrom("ajayit2020@gmail.com");
-            helper.setTo(user.getEmail());
-            helper.setSubject("🔐 Login Successful - ChakraERP Security Alert");
+    public void sendPasswordResetEmail(User user, String otp, String ipAddress) {
+        send(renderPasswordResetEmail(user, otp, ipAddress));
+    }
 
-            // Prepare the context for Thymeleaf template
-            Context context = new Context();
-            context.setVariable("user", user);
-            context.setVariable("ipAddress", ipAddress);
-            context.setVariable("deviceInfo", deviceInfo);
-            context.setVariable("loginTime", java.time.LocalDateTime.now());
-            context.setVariable("dashboardUrl", "http://localhost:8060/dashboard");
+    public void sendPasswordChangeEmail(User user, String ipAddress, String deviceInfo) {
+        send(renderPasswordChangeEmail(user, ipAddress, deviceInfo));
+    }
 
-            // Process the template
-            String htmlContent = templateEngine.process("login-success-email", context);
-            helper.setText(htmlContent, true);
+    // Rendering is pure CPU work (Thymeleaf); the queue pipeline runs it apart from the SMTP send
 
-            mailSender.send(message);
-            log.info("Login success email sent successfully to: {}", user.getEmail());
+    public RenderedEmail renderWelcomeEmail(User user, String loginUrl) {
+        // Prepare the context for Thymeleaf template
+        Context context = new Context();
+        context.setVariable("user", user);
+        context.setVariable("appName", "ChakraERP");
+        context.setVariable("supportEmail", "support@chakraerp.com");
+        context.setVariable("loginUrl", loginUrl);
 
-        } catch (MessagingException e) {
-            log.error("Failed to send login success email to: {}", user.getEmail(), e);
-            throw new RuntimeException("Failed to send login success email", e);
-        }
+        // Process the template
+        String htmlContent = templateEngine.process("welcome-email", context);
+        return new RenderedEmail(user.getEmail(), "🎉 Welcome to ChakraERP - Your Account is Ready!", htmlContent);
     }
 
-    public void sendPasswordResetEmail(User user, String otp, String ipAddress) {
-        try {
-            MimeMessage message = mailSender.createMimeMessage();
-            MimeMessageHelper helper = new MimeMessageHelper(message, true, "UTF-8");
-
-            helper.setFrom("ajayit2020@gmail.com");
-            helper.setTo(user.getEmail());
-            helper.setSubject("🔐 Password Reset OTP - ChakraERP");
+    public RenderedEmail renderLoginSuccessEmail(User user, String ipAddress, String deviceInfo) {
+        // Prepare the context for Thymeleaf template
+        Context context = new Context();
+        context.setVariable("user", user);
+        context.setVariable("ipAddress", ipAddress);
+        context.setVariable("deviceInfo", deviceInfo);
+        context.setVariable("loginTime", java.time.LocalDateTime.now());
+        context.setVariable("dashboardUrl", "http://localhost:8060/dashboard");
+
+        // Process the template
+        String htmlContent = templateEngine.process("login-success-email", context);
+        return new RenderedEmail(user.getEmail(), "🔐 Login Successful - ChakraERP Security Alert", htmlContent);
+    }
 
-            // Prepare the context for Thymeleaf template
-            Context context = new Context();
-            context.setVariable("user", user);
-            context.setVariable("otp", otp);
-            context.setVariable("ipAddress", ipAddress);
-            context.setVariable("requestTime", java.time.LocalDateTime.now());
-            context.setVariable("expiresAt", java.time.LocalDateTime.now().plusMinutes(10));
+    public RenderedEmail renderLoginDigestEmail(User user, List<EmailPayload.LoginDigest.Login> logins, int totalLogins) {
+        // Prepare the context for Thymeleaf template
+        Context context = new Context();
+        context.setVariable("user", user);
+        context.setVariable("logins", logins);
+        context.setVariable("totalLogins", totalLogins);
+        context.setVariable("omittedLogins", totalLogins - logins.size());
+        context.setVariable("dashboardUrl", "http://localhost:8060/dashboard");
+
+        // Process the template
+        String htmlContent = templateEngine.process("login-digest-email", context);
+        return new RenderedEmail(user.getEmail(), "🔐 Recent Sign-ins to Your Account - ChakraERP Security Alert", htmlContent);
+    }
 
-            // Process the template
-            String htmlContent = templateEngine.process("password-reset-email", context);
-            helper.setText(htmlContent, true);
+    public RenderedEmail renderNotificationDigestEmail(User user, EmailPayload.NotificationDigest digest) {
+        // Prepare the context for Thymeleaf template
+        int total = digest.totalMentions() + digest.totalMessages();
+        Context context = new Context();
+        context.setVariable("user", user);
+        context.setVariable("notifications", digest.notifications());
+        context.setVariable("totalMentions", digest.totalMentions());
+        context.setVariable("totalMessages", digest.totalMessages());
+        context.setVariable("omittedNotifications", total - digest.notifications().size());
+        context.setVariable("dashboardUrl", "http://localhost:8060/dashboard");
+
+        // Process the template
+        String htmlContent = templateEngine.process("notification-digest-email", context);
+        return new RenderedEmail(user.getEmail(), "🔔 You Have Unread Notifications - ChakraERP", htmlContent);
+    }
 
-            mailSender.send(message);
-            log.info("Password reset email sent successfully to: {}", user.getEmail());
+    public RenderedEmail renderPasswordResetEmail(User user, String otp, String ipAddress) {
+        // Prepare the context for Thymeleaf template
+        Context context = new Context();
+        context.setVariable("user", user);
+        context.setVariable("otp", otp);
+        context.setVariable("ipAddress", ipAddress);
+        context.setVariable("requestTime", java.time.LocalDateTime.now());
+        context.setVariable("expiresAt", java.time.LocalDateTime.now().plusMinutes(10));
+
+        // Process the template
+        String htmlContent = templateEngine.process("password-reset-email", context);
+        return new RenderedEmail(user.getEmail(), "🔐 Password Reset OTP - ChakraERP", htmlContent);
+    }
 
-        } catch (MessagingException e) {
-            log.error("Failed to send password reset email to: {}", user.getEmail(), e);
-            throw new RuntimeException("Failed to send password reset email", e);
-        }
+    public RenderedEmail renderPasswordChangeEmail(User user, String ipAddress, String deviceInfo) {
+        // Prepare the context for Thymeleaf template
+        Context context = new Context();
+        context.setVariable("user", user);
+        context.setVariable("ipAddress", ipAddress);
+        context.setVariable("deviceInfo", deviceInfo);
+        context.setVariable("changeTime", java.time.LocalDateTime.now());
+        context.setVariable("loginUrl", "http://localhost:8060/login");
+
+        // Process the template
+        String htmlContent = templateEngine.process("password-change-email", context);
+        return new RenderedEmail(user.getEmail(), "✅ Password Changed Successfully - ChakraERP Security Alert", htmlContent);
     }
 
-    public void sendPasswordChangeEmail(User user, String ipAddress, String deviceInfo) {
+    /**
+     * Assembles the MIME message and hands it to SMTP. This is the blocking, I/O-bound half of a send.
+     */
+    public void send(RenderedEmail email) {
         try {
             MimeMessage message = mailSender.createMimeMessage();
             MimeMessageHelper helper = new MimeMessageHelper(message, true, "UTF-8");
 
-            helper.setFrom("ajayit2020@gmail.com");
-            helper.setTo(user.getEmail());
-            helper.setSubject("✅ Password Changed Successfully - ChakraERP Security Alert");
-
-            // Prepare the context for Thymeleaf template
-            Context context = new Context();
-            context.setVariable("user", user);
-            context.setVariable("ipAddress", ipAddress);
-            context.setVariable("deviceInfo", deviceInfo);
-            context.setVariable("changeTime", java.time.LocalDateTime.now());
-            context.setVariable("loginUrl", "http://localhost:8060/login");
-
-            // Process the template
-            String htmlContent = templateEngine.process("password-change-email", context);
-            helper.setText(htmlContent, true);
+            helper.setFrom(FROM_ADDRESS);
+            helper.setTo(email.to());
+            helper.setSubject(email.subject());
+            helper.setText(email.htmlContent(), true);
 
             mailSender.send(message);
-            log.info("Password change email sent successfully to: {}", user.getEmail());
+            log.info("Email \"{}\" sent successfully to: {}", email.subject(), email.to());
 
         } catch (MessagingException e) {
-            log.error("Failed to send password change email to: {}", user.getEmail(), e);
-            throw new RuntimeException("Failed to send password change email", e);
+            emailQueueMetrics.onSmtpError(e);
+            log.error("Failed to send email to: {}", email.to(), e);
+            throw new RuntimeException("Failed to send email", e);
+        } catch (MailException e) {
+            emailQueueMetrics.onSmtpError(e);
+            throw e;
         }
     }
 }
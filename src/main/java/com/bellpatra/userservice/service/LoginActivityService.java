@@ -0,0 +1,139 @@
+package com.bellpatra.userservice.service;
+
+import com.bellpatra.userservice.dto.ApiResponse;
+import com.bellpatra.userservice.dto.UserEventPayload;
+import com.bellpatra.userservice.kafka.LoginActivityTopology;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.streams.KafkaStreams;
+import org.apache.kafka.streams.KeyQueryMetadata;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.StoreQueryParameters;
+import org.apache.kafka.streams.state.HostInfo;
+import org.apache.kafka.streams.state.QueryableStoreTypes;
+import org.apache.kafka.streams.state.ReadOnlyWindowStore;
+import org.apache.kafka.streams.state.WindowStoreIterator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.kafka.config.StreamsBuilderFactoryBean;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClient;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Reads the login activity window stores built by {@link LoginActivityTopology}. Every store key (event
+ * type, or the active users key) lives on the one instance that owns its partition, found through the
+ * streams metadata; keys owned elsewhere are fetched from that instance's {@code /windows} endpoint.
+ * Nothing is recomputed from {@code user_events} or {@code login_events}.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class LoginActivityService {
+
+    private static final Set<String> QUERYABLE_STORES =
+            Set.of(LoginActivityTopology.EVENT_COUNTS_STORE, LoginActivityTopology.ACTIVE_USERS_STORE);
+    private static final ParameterizedTypeReference<ApiResponse<Map<Long, Long>>> WINDOWS_RESPONSE =
+            new ParameterizedTypeReference<>() { };
+
+    private final StreamsBuilderFactoryBean streamsBuilderFactoryBean;
+    private final RestClient restClient = RestClient.create();
+
+    // host:port other instances reach this one on; also advertised to Kafka Streams as application.server
+    @Value("${spring.kafka.streams.properties.application.server}")
+    private String applicationServer;
+
+    /**
+     * Per-window counts for the last {@code minutes} minutes, oldest first. Windows with no logins are omitted.
+     * {@code authorization} is passed on to the instances owning the keys, which check it like any request.
+     */
+    public List<Map<String, Object>> getRecentActivity(int minutes, String authorization) {
+        KafkaStreams streams = runningStreams();
+
+        Instant to = Instant.now();
+        Instant from = to.minus(Duration.ofMinutes(minutes));
+
+        Map<Long, long[]> windows = new TreeMap<>();
+        merge(windows, 0, fetch(streams, LoginActivityTopology.EVENT_COUNTS_STORE, UserEventPayload.USER_LOGIN, from, to, authorization));
+        merge(windows, 1, fetch(streams, LoginActivityTopology.EVENT_COUNTS_STORE, UserEventPayload.USER_LOGIN_FAILED, from, to, authorization));
+        merge(windows, 2, fetch(streams, LoginActivityTopology.ACTIVE_USERS_STORE, LoginActivityTopology.ACTIVE_USERS_KEY, from, to, authorization));
+
+        List<Map<String, Object>> rows = new ArrayList<>(windows.size());
+        windows.forEach((windowStart, counts) -> {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("windowStart", Instant.ofEpochMilli(windowStart));
+            row.put("logins", counts[0]);
+            row.put("failedLogins", counts[1]);
+            row.put("activeUsers", counts[2]);
+            rows.add(row);
+        });
+        return rows;
+    }
+
+    /**
+     * Counts by window start for one key of this instance's local store; answers the requests other
+     * instances forward for keys this one owns.
+     */
+    public Map<Long, Long> getLocalWindows(String store, String key, Instant from, Instant to) {
+        if (!QUERYABLE_STORES.contains(store)) {
+            throw new IllegalArgumentException("Unknown login activity store: " + store);
+        }
+        ReadOnlyWindowStore<String, Long> windowStore = runningStreams().store(
+                StoreQueryParameters.fromNameAndType(store, QueryableStoreTypes.<String, Long>windowStore()));
+        Map<Long, Long> windows = new TreeMap<>();
+        try (WindowStoreIterator<Long> iterator = windowStore.fetch(key, from, to)) {
+            while (iterator.hasNext()) {
+                KeyValue<Long, Long> window = iterator.next();
+                windows.put(window.key, window.value);
+            }
+        }
+        return windows;
+    }
+
+    private KafkaStreams runningStreams() {
+        KafkaStreams streams = streamsBuilderFactoryBean.getKafkaStreams();
+        if (streams == null || streams.state() != KafkaStreams.State.RUNNING) {
+            throw new RuntimeException("Login activity is not available yet (streams state: "
+                    + (streams == null ? "NOT_STARTED" : streams.state()) + ")");
+        }
+        return streams;
+    }
+
+    private Map<Long, Long> fetch(KafkaStreams streams, String store, String key, Instant from, Instant to,
+                                  String authorization) {
+        KeyQueryMetadata metadata = streams.queryMetadataForKey(store, key, Serdes.String().serializer());
+        if (metadata == null || KeyQueryMetadata.NOT_AVAILABLE.equals(metadata)) {
+            throw new RuntimeException("Login activity is not available yet (" + store + " is being rebalanced)");
+        }
+        HostInfo owner = metadata.activeHost();
+        if (owner.equals(HostInfo.buildFromEndpoint(applicationServer))) {
+            return getLocalWindows(store, key, from, to);
+        }
+
+        log.debug("Fetching {} / {} from {}", store, key, owner);
+        ApiResponse<Map<Long, Long>> response = restClient.get()
+                .uri("http://{host}:{port}/api/v1/login-activity/windows?store={store}&key={key}&from={from}&to={to}",
+                        owner.host(), owner.port(), store, key, from.toEpochMilli(), to.toEpochMilli())
+                .header(HttpHeaders.AUTHORIZATION, authorization)
+                .retrieve()
+                .body(WINDOWS_RESPONSE);
+        if (response == null || response.getData() == null) {
+            throw new RuntimeException("No login activity returned by " + owner + " for " + store + " / " + key);
+        }
+        return response.getData();
+    }
+
+    private static void merge(Map<Long, long[]> windows, int column, Map<Long, Long> counts) {
+        counts.forEach((windowStart, count) -> windows.computeIfAbsent(windowStart, start -> new long[3])[column] = count);
+    }
+}
@@ -0,0 +1,98 @@
+package com.bellpatra.userservice.service;
+
+import com.bellpatra.userservice.entity.KnownLoginDevice;
+import com.bellpatra.userservice.entity.User;
+import com.bellpatra.userservice.repository.KnownLoginDeviceRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Decides how a successful login is announced by email. Logins from a device never seen before
+ * for the user get an immediate alert; repeat logins are folded into a per-recipient digest.
+ * A device is recognised by its User-Agent with version numbers stripped, so neither a browser update
+ * nor a change of network (mobile handover, DHCP or CGNAT churn) reads as a new device; the client
+ * address is only reported in the alert or digest. A login without a User-Agent cannot be recognised
+ * and always alerts immediately.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class LoginAlertCoalescer {
+
+    private static final int MAX_DEVICE_INFO_LENGTH = 255;
+    // Product versions ("Chrome/120.0.6099.109", "Mobile/15E148") and dotted OS versions ("OS 17_1_2", "NT 10.0"); model numbers stay
+    private static final Pattern VERSION = Pattern.compile("/[^\\s;()]+|\\b\\d+(?:[._]\\d+)+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final EmailQueueService emailQueueService;
+    private final KnownLoginDeviceRepository knownLoginDeviceRepository;
+
+    @Value("${email.login-alerts.coalesce-window-minutes:60}")
+    private long coalesceWindowMinutes;
+
+    public void queueLoginAlert(User user, String ipAddress, String deviceInfo) {
+        ipAddress = StringUtils.hasText(ipAddress) ? ipAddress : "Unknown";
+        boolean identified = StringUtils.hasText(deviceInfo);
+        boolean newDevice = !identified || registerDevice(user, ipAddress, deviceInfo);
+        if (!identified) {
+            deviceInfo = "Unknown device";
+        }
+
+        if (newDevice || coalesceWindowMinutes <= 0) {
+            log.info("Sending immediate login alert for user: {} (new device: {})", user.getEmail(), newDevice);
+            emailQueueService.queueLoginSuccessEmail(user, ipAddress, deviceInfo);
+            return;
+        }
+
+        emailQueueService.queueLoginDigestEntry(user, ipAddress, deviceInfo, Duration.ofMinutes(coalesceWindowMinutes));
+    }
+
+    private boolean registerDevice(User user, String ipAddress, String deviceInfo) {
+        String fingerprint = fingerprint(deviceInfo);
+        LocalDateTime now = LocalDateTime.now();
+
+        if (knownLoginDeviceRepository.touch(user.getEmail(), fingerprint, ipAddress, now) > 0) {
+            return false;
+        }
+
+        try {
+            knownLoginDeviceRepository.saveAndFlush(KnownLoginDevice.builder()
+                    .userEmail(user.getEmail())
+                    .fingerprint(fingerprint)
+                    .deviceInfo(deviceInfo.length() > MAX_DEVICE_INFO_LENGTH ? deviceInfo.substring(0, MAX_DEVICE_INFO_LENGTH) : deviceInfo)
+                    .ipAddress(ipAddress)
+                    .lastSeenAt(now)
+                    .build());
+            return true;
+        } catch (DataIntegrityViolationException e) {
+            // A concurrent login registered the same device first
+            return false;
+        }
+    }
+
+    private String fingerprint(String deviceInfo) {
+        String normalized = WHITESPACE.matcher(VERSION.matcher(deviceInfo.toLowerCase(Locale.ROOT)).replaceAll(" "))
+                .replaceAll(" ")
+                .trim();
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(normalized.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.bellpatra.userservice.service;
+
+import com.bellpatra.userservice.dto.EmailEnqueueRequest;
+import com.bellpatra.userservice.entity.EmailQueue;
+import com.bellpatra.userservice.entity.OutboxEvent;
+import com.bellpatra.userservice.entity.User;
+import com.bellpatra.userservice.kafka.KafkaProducerService;
+import com.bellpatra.userservice.repository.OutboxEventRepository;
+import com.bellpatra.userservice.repository.UserRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.errors.RetriableException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Drains the outbox in creation order, EMAIL and KAFKA events in separate batches and transactions, so a
+ * broker outage never holds back OTP or welcome emails. Kafka events are sent keyed by aggregate id, so
+ * per-user order holds within each partition and consumers scale by partition; an event is deleted once
+ * the broker has acknowledged it, so delivery to Kafka is at-least-once (consumers dedupe on the event id
+ * header). Email events become {@code email_queue} rows in the same transaction that deletes them from
+ * the outbox, so delivery to the email queue is exactly-once.
+ * <p>
+ * An event that fails through its own fault (unknown type, undecodable payload, a record the broker
+ * rejects) is counted and parked after {@code outbox.relay.max-attempts}, so it cannot block the events
+ * behind it. Broker unavailability is not the event's fault: those events are simply retried. Either way a
+ * Kafka event that did not go through holds back the later events of its aggregate (topic and key), and a
+ * parked one keeps holding them until it is resolved, so a stale event never lands after a newer one; on
+ * {@code user-snapshots} compaction would otherwise keep the stale snapshot.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class OutboxRelay {
+
+    private static final int MAX_ERROR_LENGTH = 500;
+
+    private final OutboxEventRepository outboxEventRepository;
+    private final UserRepository userRepository;
+    private final KafkaProducerService kafkaProducerService;
+    private final EmailQueueService emailQueueService;
+    private final EmailPayloadCodec emailPayloadCodec;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${outbox.relay.batch-size:500}")
+    private int batchSize;
+
+    @Value("${outbox.relay.max-batches-per-run:20}")
+    private int maxBatchesPerRun;
+
+    @Value("${outbox.relay.send-timeout-ms:10000}")
+    private long sendTimeoutMillis;
+
+    @Value("${outbox.relay.max-attempts:5}")
+    private int maxAttempts;
+
+    // Emails first: nothing on the Kafka side can delay them
+    public int drain() {
+        return drain(OutboxEvent.Destination.EMAIL, this::relayEmailBatch)
+                + drain(OutboxEvent.Destination.KAFKA, this::relayKafkaBatch);
+    }
+
+    private int drain(OutboxEvent.Destination destination, Function<List<OutboxEvent>, BatchResult> relay) {
+        int relayed = 0;
+        for (int batch = 0; batch < maxBatchesPerRun; batch++) {
+            BatchResult result = transactionTemplate.execute(status -> {
+                // Kafka events queued behind a parked event of their aggregate wait for it to be resolved
+                List<OutboxEvent> events = destination == OutboxEvent.Destination.KAFKA
+                        ? outboxEventRepository.findUnblockedByDestination(destination, PageRequest.of(0, batchSize))
+                        : outboxEventRepository.findByDestinationAndParkedAtIsNullOrderByCreatedAtAscIdAsc(
+                                destination, PageRequest.of(0, batchSize));
+                return events.isEmpty() ? new BatchResult(0, false) : relay.apply(events);
+            });
+            if (result == null) {
+                break;
+            }
+            relayed += result.relayed();
+            if (!result.more()) {
+                break;
+            }
+        }
+        return relayed;
+    }
+
+    private BatchResult relayEmailBatch(List<OutboxEvent> events) {
+        // One IN query for every email recipient in the batch
+        List<OutboxEvent> addressed = new ArrayList<>();
+        for (OutboxEvent event : events) {
+            if (recipientId(event) != null) {
+                addressed.add(event);
+            } else {
+                park(event, new IllegalArgumentException("Invalid recipient id " + event.getAggregateId()));
+            }
+        }
+        Map<UUID, User> usersById = userRepository.findAllById(addressed.stream().map(OutboxRelay::recipientId).distinct().toList())
+                .stream()
+                .collect(Collectors.toMap(User::getId, Function.identity()));
+
+        List<EmailEnqueueRequest> emails = new ArrayList<>();
+        List<Long> done = new ArrayList<>();
+        for (OutboxEvent event : addressed) {
+            User user = usersById.get(recipientId(event));
+            if (user == null) {
+                log.warn("Dropping outbox email {} ({}): user {} no longer exists",
+                        event.getEventId(), event.getEventType(), event.getAggregateId());
+                done.add(event.getId());
+                continue;
+            }
+            try {
+                EmailQueue.EmailType emailType = EmailQueue.EmailType.valueOf(event.getEventType());
+                emails.add(new EmailEnqueueRequest(user, emailType, emailPayloadCodec.decode(emailType, event.getPayload())));
+                done.add(event.getId());
+            } catch (RuntimeException e) {
+                // Retrying cannot fix an unknown type or an undecodable payload
+                park(event, e);
+            }
+        }
+
+        // Joins this transaction: the email rows and the outbox delete commit together
+        emailQueueService.queueEmails(emails);
+        outboxEventRepository.deleteAllByIdInBatch(done);
+        log.info("Relayed {} outbox email events", emails.size());
+        return new BatchResult(events.size(), events.size() == batchSize);
+    }
+
+    private BatchResult relayKafkaBatch(List<OutboxEvent> events) {
+        // Hand every record to the producer up front so it can batch them; it keeps per-key order
+        Map<OutboxEvent, CompletableFuture<?>> sends = new LinkedHashMap<>();
+        for (OutboxEvent event : events) {
+            try {
+                // An empty payload is a tombstone for a compacted topic
+                sends.put(event, kafkaProducerService.send(event.getTopic(), event.getAggregateId(), event.getEventId(),
+                        event.getEventType(), event.getPayload().isEmpty() ? null : event.getPayload()));
+            } catch (RuntimeException e) {
+                sends.put(event, CompletableFuture.failedFuture(e));
+            }
+        }
+
+        try {
+            CompletableFuture.allOf(sends.values().toArray(CompletableFuture[]::new)).get(sendTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            // Settled per record below: acknowledged ones are deleted, the rest stay for the next run
+            log.debug("Not every outbox record was acknowledged: {}", e.getMessage());
+        }
+
+        // Once an aggregate has an event that did not go through, its later events stay in the outbox even if
+        // the broker took them: deleting them would let the earlier event land after them on the next run
+        List<Long> acknowledged = new ArrayList<>();
+        Map<OutboxEvent, Throwable> rejected = new LinkedHashMap<>();
+        Set<Aggregate> held = new HashSet<>();
+        int unacknowledged = 0;
+        int heldBack = 0;
+        for (Map.Entry<OutboxEvent, CompletableFuture<?>> send : sends.entrySet()) {
+            OutboxEvent event = send.getKey();
+            Aggregate aggregate = new Aggregate(event.getTopic(), event.getAggregateId());
+            if (held.contains(aggregate)) {
+                heldBack++;
+                continue;
+            }
+            CompletableFuture<?> future = send.getValue();
+            if (!future.isDone()) {
+                unacknowledged++;
+                held.add(aggregate);
+            } else if (!future.isCompletedExceptionally()) {
+                acknowledged.add(event.getId());
+            } else {
+                Throwable cause = failureOf(future);
+                if (cause instanceof RetriableException) {
+                    unacknowledged++;
+                } else {
+                    rejected.put(event, cause);
+                }
+                held.add(aggregate);
+            }
+        }
+
+        outboxEventRepository.deleteAllByIdInBatch(acknowledged);
+        rejected.forEach((event, cause) -> recordFailure(event, cause));
+        if (unacknowledged > 0) {
+            log.warn("Kafka did not acknowledge {} of {} outbox events starting at id {}; retrying next run",
+                    unacknowledged, events.size(), events.get(0).getId());
+        } else {
+            log.info("Relayed {} outbox Kafka events", acknowledged.size());
+        }
+        if (heldBack > 0) {
+            log.warn("Held back {} outbox events behind earlier events of the same aggregate", heldBack);
+        }
+        // Events left behind end this run instead of being resent at once
+        return new BatchResult(acknowledged.size() + rejected.size(),
+                events.size() == batchSize && unacknowledged == 0 && heldBack == 0);
+    }
+
+    private void recordFailure(OutboxEvent event, Throwable cause) {
+        outboxEventRepository.recordFailure(event.getId(), errorMessage(cause), maxAttempts, LocalDateTime.now());
+        if (event.getAttempts() + 1 >= maxAttempts) {
+            log.error("Parked outbox event {} ({} to {}) after {} failed attempts", event.getEventId(),
+                    event.getEventType(), event.getTopic(), maxAttempts, cause);
+        } else {
+            log.warn("Outbox event {} ({}) failed: {}", event.getEventId(), event.getEventType(), cause.getMessage());
+        }
+    }
+
+    private void park(OutboxEvent event, Throwable cause) {
+        outboxEventRepository.park(event.getId(), errorMessage(cause), LocalDateTime.now());
+        log.error("Parked outbox event {} ({}): {}", event.getEventId(), event.getEventType(), cause.getMessage());
+    }
+
+    private static UUID recipientId(OutboxEvent event) {
+        try {
+            return UUID.fromString(event.getAggregateId());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static Throwable failureOf(CompletableFuture<?> future) {
+        try {
+            future.join();
+            return null;
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            // KafkaException wraps the producer's own exception
+            return cause.getCause() instanceof RetriableException ? cause.getCause() : cause;
+        } catch (RuntimeException e) {
+            return e;
+        }
+    }
+
+    private static String errorMessage(Throwable cause) {
+        String message = cause.getClass().getSimpleName() + ": " + cause.getMessage();
+        return message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message;
+    }
+
+    private record BatchResult(int relayed, boolean more) {
+    }
+
+    // Events sharing a topic and key are ordered on that topic
+    private record Aggregate(String topic, String id) {
+    }
+}
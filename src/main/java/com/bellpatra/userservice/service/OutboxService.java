@@ -0,0 +1,110 @@
+package com.bellpatra.userservice.service;
+
+import com.bellpatra.userservice.dto.EmailEnqueueRequest;
+import com.bellpatra.userservice.dto.UserEvent;
+import com.bellpatra.userservice.dto.UserSnapshot;
+import com.bellpatra.userservice.entity.OutboxEvent;
+import com.bellpatra.userservice.entity.User;
+import com.bellpatra.userservice.kafka.KafkaProducerService;
+import com.bellpatra.userservice.repository.OutboxEventRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.UUID;
+
+/**
+ * Records side effects in the outbox table. Every method joins the caller's transaction (and refuses to
+ * run without one), so the event commits or rolls back together with the business change;
+ * {@link OutboxRelay} forwards it afterwards.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class OutboxService {
+
+    public static final String EMAIL_QUEUE_TOPIC = "email_queue";
+    public static final String USER_SNAPSHOT_EVENT = "USER_SNAPSHOT";
+    public static final String USER_DELETED_EVENT = "USER_DELETED";
+
+    private final OutboxEventRepository outboxEventRepository;
+    private final EmailPayloadCodec emailPayloadCodec;
+    private final KafkaProducerService kafkaProducerService;
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordUserEvent(UserEvent event) {
+        outboxEventRepository.save(userEvent(event));
+    }
+
+    /**
+     * Records the current state of each user for {@code user-snapshots}. Call after the change is flushed,
+     * so the generated timestamps are set.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordUserSnapshots(Collection<User> users) {
+        if (!users.isEmpty()) {
+            outboxEventRepository.saveAll(users.stream().map(this::snapshotEvent).toList());
+        }
+    }
+
+    // An empty payload is relayed as a tombstone, so compaction drops the user from user-snapshots
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordUserDeleted(UUID userId) {
+        outboxEventRepository.save(OutboxEvent.builder()
+                .eventId(UUID.randomUUID())
+                .destination(OutboxEvent.Destination.KAFKA)
+                .topic(KafkaProducerService.USER_SNAPSHOTS_TOPIC)
+                .aggregateId(userId.toString())
+                .eventType(USER_DELETED_EVENT)
+                .payload("")
+                .build());
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordEmail(EmailEnqueueRequest request) {
+        outboxEventRepository.save(emailEvent(request));
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordEmails(Collection<EmailEnqueueRequest> requests) {
+        if (!requests.isEmpty()) {
+            outboxEventRepository.saveAll(requests.stream().map(this::emailEvent).toList());
+        }
+    }
+
+    private OutboxEvent userEvent(UserEvent event) {
+        return OutboxEvent.builder()
+                .eventId(event.eventId())
+                .destination(OutboxEvent.Destination.KAFKA)
+                .topic(KafkaProducerService.USER_EVENTS_TOPIC)
+                .aggregateId(event.userId())
+                .eventType(event.eventType())
+                .payload(kafkaProducerService.serialize(event))
+                .build();
+    }
+
+    private OutboxEvent snapshotEvent(User user) {
+        return OutboxEvent.builder()
+                .eventId(UUID.randomUUID())
+                .destination(OutboxEvent.Destination.KAFKA)
+                .topic(KafkaProducerService.USER_SNAPSHOTS_TOPIC)
+                .aggregateId(user.getId().toString())
+                .eventType(USER_SNAPSHOT_EVENT)
+                .payload(kafkaProducerService.serialize(UserSnapshot.of(user)))
+                .build();
+    }
+
+    private OutboxEvent emailEvent(EmailEnqueueRequest request) {
+        return OutboxEvent.builder()
+                .eventId(UUID.randomUUID())
+                .destination(OutboxEvent.Destination.EMAIL)
+                .topic(EMAIL_QUEUE_TOPIC)
+                .aggregateId(request.user().getId().toString())
+                .eventType(request.emailType().name())
+                .payload(emailPayloadCodec.encode(request.payload()))
+                .build();
+    }
+}
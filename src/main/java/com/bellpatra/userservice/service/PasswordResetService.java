@@ -1,7 +1,12 @@
 package com.bellpatra.userservice.service;
 
+import com.bellpatra.userservice.dto.EmailEnqueueRequest;
+import com.bellpatra.userservice.dto.EmailPayload;
 import com.bellpatra.userservice.dto.ForgotPasswordRequest;
 import com.bellpatra.userservice.dto.ResetPasswordRequest;
+import com.bellpatra.userservice.dto.UserEvent;
+import com.bellpatra.userservice.dto.UserEventPayload;
+import com.bellpatra.userservice.entity.EmailQueue;
 import com.bellpatra.userservice.entity.PasswordResetToken;
 import com.bellpatra.userservice.entity.User;
 import com.bellpatra.userservice.repository.PasswordResetTokenRepository;
@@ -24,7 +29,7 @@ public class PasswordResetService {
 
     private final UserRepository userRepository;
     private final PasswordResetTokenRepository passwordResetTokenRepository;
-    private final EmailQueueService emailQueueService;
+    private final OutboxService outboxService;
     private final EmailService emailService;
     private final PasswordEncoder passwordEncoder;
 
@@ -66,15 +71,11 @@ public class PasswordResetService {
             passwordResetTokenRepository.save(resetToken);
             log.info("Password reset token saved for user: {}", user.getEmail());
 
-            // Queue password reset email
-            try {
-                String ipAddress = getClientIPAddress(); // You can implement this method
-                emailQueueService.queuePasswordResetEmail(user, otp, ipAddress);
-                log.info("Password reset email queued successfully for: {}", user.getEmail());
-            } catch (Exception e) {
-                log.error("Failed to queue password reset email for: {}", user.getEmail(), e);
-                // Don't fail the request if email queuing fails
-            }
+            // Password reset email commits together with the token (relayed by OutboxRelay)
+            String ipAddress = getClientIPAddress(); // You can implement this method
+            outboxService.recordEmail(new EmailEnqueueRequest(
+                    user, EmailQueue.EmailType.PASSWORD_RESET, new EmailPayload.PasswordReset(otp, ipAddress)));
+            log.info("Password reset email recorded for: {}", user.getEmail());
 
             return ApiResponse.success(
                 "If an account with this email exists, a password reset OTP has been sent.",
@@ -139,16 +140,13 @@ public class PasswordResetService {
             passwordResetTokenRepository.save(resetToken);
             log.info("OTP marked as used for user: {}", user.getEmail());
 
-            // Queue password change confirmation email
-            try {
-                String ipAddress = getClientIPAddress(); // You can implement this method
-                String deviceInfo = "Web Browser"; // You can enhance this with actual device detection
-                emailQueueService.queuePasswordChangeEmail(user, ipAddress, deviceInfo);
-                log.info("Password change confirmation email queued successfully for: {}", user.getEmail());
-            } catch (Exception e) {
-                log.error("Failed to queue password change confirmation email for: {}", user.getEmail(), e);
-                // Don't fail the password reset if email queuing fails
-            }
+            // Confirmation email and password change event commit together with the new password
+            String ipAddress = getClientIPAddress(); // You can implement this method
+            String deviceInfo = "Web Browser"; // You can enhance this with actual device detection
+            outboxService.recordEmail(new EmailEnqueueRequest(
+                    user, EmailQueue.EmailType.PASSWORD_CHANGE, new EmailPayload.PasswordChange(ipAddress, deviceInfo)));
+            outboxService.recordUserEvent(UserEvent.of(user.getId(), new UserEventPayload.PasswordChange(user.getEmail())));
+            log.info("Password change confirmation recorded for: {}", user.getEmail());
 
             return ApiResponse.success(
                 "Password reset successfully",
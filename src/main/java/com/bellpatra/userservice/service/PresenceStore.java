@@ -0,0 +1,277 @@
+package com.bellpatra.userservice.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Node-local presence of every user seen on {@code user-presence}. Entries live in open-addressing
+ * tables of primitive arrays (UUID halves, a one-byte status and an int last-seen second, about 21
+ * bytes a slot) split over independently locked segments, instead of a map of boxed objects.
+ * Offline users are removed outright; entries not refreshed within the TTL read as offline and are
+ * dropped when their segment is next swept or resized.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class PresenceStore {
+
+    public enum Status { ONLINE, AWAY, BUSY }
+
+    private static final Status[] STATUSES = Status.values();
+    private static final int SEGMENT_BITS = 6;
+    private static final int SEGMENTS = 1 << SEGMENT_BITS;
+    private static final double MAX_LOAD = 0.6;
+    private static final byte EMPTY = 0;
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${presence.ttl-seconds:300}")
+    private int ttlSeconds;
+
+    @Value("${presence.sweep-interval-seconds:60}")
+    private int sweepIntervalSeconds;
+
+    @Value("${presence.expected-users:1000000}")
+    private int expectedUsers;
+
+    // Last-seen times are stored as int seconds relative to this instant
+    private final long epochMillis = System.currentTimeMillis();
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    @PostConstruct
+    void init() {
+        int perSegment = Math.max(16, expectedUsers / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(tableSizeFor(perSegment));
+        }
+        Gauge.builder("presence.users", this, PresenceStore::size)
+                .description("Users currently tracked as present on this node")
+                .register(meterRegistry);
+        log.info("Presence store sized for {} users ({} segments, TTL {}s)", expectedUsers, SEGMENTS, ttlSeconds);
+    }
+
+    /**
+     * Records a presence update; a null status means the user went offline. Updates older than the one
+     * already stored are ignored, so out-of-order redeliveries cannot roll a user back.
+     */
+    public void update(UUID userId, Status status, long timestampMillis) {
+        long hash = hash(userId.getMostSignificantBits(), userId.getLeastSignificantBits());
+        byte code = status == null ? EMPTY : (byte) (status.ordinal() + 1);
+        segmentFor(hash).put(userId.getMostSignificantBits(), userId.getLeastSignificantBits(), (int) hash,
+                code, toSeconds(timestampMillis), nowSeconds());
+    }
+
+    /**
+     * Current status of the user, or null when offline, unknown or expired.
+     */
+    public Status get(UUID userId) {
+        long hash = hash(userId.getMostSignificantBits(), userId.getLeastSignificantBits());
+        byte code = segmentFor(hash).statusOf(userId.getMostSignificantBits(), userId.getLeastSignificantBits(),
+                (int) hash, nowSeconds());
+        return code == EMPTY ? null : STATUSES[code - 1];
+    }
+
+    /**
+     * The subset of the given users that are present, in request order, with their status.
+     */
+    public Map<UUID, Status> getPresent(Collection<UUID> userIds) {
+        Map<UUID, Status> present = new LinkedHashMap<>();
+        for (UUID userId : userIds) {
+            Status status = get(userId);
+            if (status != null) {
+                present.put(userId, status);
+            }
+        }
+        return present;
+    }
+
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    private Segment segmentFor(long hash) {
+        // Segment from the top bits, slot from the bottom bits of the same mixed hash
+        return segments[(int) (hash >>> (64 - SEGMENT_BITS))];
+    }
+
+    private int nowSeconds() {
+        return toSeconds(System.currentTimeMillis());
+    }
+
+    private int toSeconds(long timestampMillis) {
+        return (int) Math.floorDiv(timestampMillis - epochMillis, 1000L);
+    }
+
+    private static long hash(long msb, long lsb) {
+        // murmur3 fmix64
+        long h = msb ^ Long.rotateLeft(lsb, 32);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static int tableSizeFor(int entries) {
+        int needed = (int) Math.ceil(entries / MAX_LOAD);
+        return Math.max(16, Integer.highestOneBit(needed - 1) << 1);
+    }
+
+    /**
+     * One linear-probing table. A slot is free when its status is {@link #EMPTY}.
+     */
+    private final class Segment {
+
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private long[] msb;
+        private long[] lsb;
+        private int[] seenAt;
+        private byte[] status;
+        private int size;
+        private int nextSweepAt;
+
+        Segment(int capacity) {
+            allocate(capacity);
+        }
+
+        int size() {
+            lock.readLock().lock();
+            try {
+                return size;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        byte statusOf(long hi, long lo, int hash, int now) {
+            lock.readLock().lock();
+            try {
+                int index = find(hi, lo, hash);
+                if (index < 0 || isExpired(seenAt[index], now)) {
+                    return EMPTY;
+                }
+                return status[index];
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void put(long hi, long lo, int hash, byte code, int seen, int now) {
+            lock.writeLock().lock();
+            try {
+                if (now >= nextSweepAt) {
+                    rehash(status.length, now);
+                }
+
+                int index = find(hi, lo, hash);
+                if (index >= 0) {
+                    if (seen < seenAt[index]) {
+                        return;
+                    }
+                    if (code == EMPTY) {
+                        removeAt(index);
+                    } else {
+                        status[index] = code;
+                        seenAt[index] = seen;
+                    }
+                    return;
+                }
+
+                if (code == EMPTY || isExpired(seen, now)) {
+                    return;
+                }
+                if (size + 1 > status.length * MAX_LOAD) {
+                    rehash(status.length * 2, now);
+                }
+                insert(hi, lo, hash, code, seen);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private int find(long hi, long lo, int hash) {
+            int mask = status.length - 1;
+            for (int i = hash & mask; status[i] != EMPTY; i = (i + 1) & mask) {
+                if (msb[i] == hi && lsb[i] == lo) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void insert(long hi, long lo, int hash, byte code, int seen) {
+            int mask = status.length - 1;
+            int i = hash & mask;
+            while (status[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            msb[i] = hi;
+            lsb[i] = lo;
+            seenAt[i] = seen;
+            status[i] = code;
+            size++;
+        }
+
+        private void removeAt(int index) {
+            // Backward-shift deletion keeps probe chains intact without tombstones
+            int mask = status.length - 1;
+            int hole = index;
+            status[hole] = EMPTY;
+            size--;
+            for (int j = (hole + 1) & mask; status[j] != EMPTY; j = (j + 1) & mask) {
+                int home = (int) hash(msb[j], lsb[j]) & mask;
+                if (((j - home) & mask) >= ((j - hole) & mask)) {
+                    msb[hole] = msb[j];
+                    lsb[hole] = lsb[j];
+                    seenAt[hole] = seenAt[j];
+                    status[hole] = status[j];
+                    status[j] = EMPTY;
+                    hole = j;
+                }
+            }
+        }
+
+        // Copies live, unexpired entries into fresh arrays of the given capacity
+        private void rehash(int capacity, int now) {
+            long[] oldMsb = msb;
+            long[] oldLsb = lsb;
+            int[] oldSeenAt = seenAt;
+            byte[] oldStatus = status;
+            allocate(capacity);
+            for (int i = 0; i < oldStatus.length; i++) {
+                if (oldStatus[i] != EMPTY && !isExpired(oldSeenAt[i], now)) {
+                    insert(oldMsb[i], oldLsb[i], (int) hash(oldMsb[i], oldLsb[i]), oldStatus[i], oldSeenAt[i]);
+                }
+            }
+            nextSweepAt = now + sweepIntervalSeconds;
+        }
+
+        private void allocate(int capacity) {
+            msb = new long[capacity];
+            lsb = new long[capacity];
+            seenAt = new int[capacity];
+            status = new byte[capacity];
+            size = 0;
+        }
+
+        private boolean isExpired(int seen, int now) {
+            return now - seen > ttlSeconds;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.bellpatra.userservice.service;
+
+import com.bellpatra.userservice.entity.QuartzJobRun;
+import com.bellpatra.userservice.repository.QuartzJobRunRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cluster view of the Quartz scheduler: the nodes checked in to the JDBC job store, what each is
+ * executing right now (from the job store tables) and the latest run of every job per node
+ * (from {@code quartz_job_runs}).
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class QuartzClusterService {
+
+    // Quartz's ClusterManager declares a node failed this long after its check-in interval has lapsed
+    private static final long CHECKIN_GRACE_MS = 7500;
+
+    private final Scheduler scheduler;
+    private final JdbcTemplate jdbcTemplate;
+    private final QuartzJobRunRepository quartzJobRunRepository;
+
+    @Value("${spring.quartz.properties.org.quartz.jobStore.tablePrefix:QRTZ_}")
+    private String tablePrefix;
+
+    public Map<String, Object> getClusterView() throws SchedulerException {
+        String schedulerName = scheduler.getSchedulerName();
+        String currentNode = scheduler.getSchedulerInstanceId();
+        long now = System.currentTimeMillis();
+
+        Map<String, Map<String, Object>> nodes = new LinkedHashMap<>();
+        for (Map<String, Object> state : jdbcTemplate.queryForList(
+                "SELECT instance_name, last_checkin_time, checkin_interval FROM " + tablePrefix + "SCHEDULER_STATE"
+                        + " WHERE sched_name = ? ORDER BY instance_name", schedulerName)) {
+            String instanceId = (String) state.get("instance_name");
+            long lastCheckin = ((Number) state.get("last_checkin_time")).longValue();
+            long checkinInterval = ((Number) state.get("checkin_interval")).longValue();
+            Map<String, Object> node = node(nodes, instanceId, currentNode);
+            node.put("lastCheckinAt", Instant.ofEpochMilli(lastCheckin));
+            node.put("checkinIntervalMs", checkinInterval);
+            node.put("alive", now <= lastCheckin + checkinInterval + CHECKIN_GRACE_MS);
+        }
+
+        for (Map<String, Object> fired : jdbcTemplate.queryForList(
+                "SELECT instance_name, job_name, job_group, trigger_name, fired_time, state FROM " + tablePrefix + "FIRED_TRIGGERS"
+                        + " WHERE sched_name = ? ORDER BY fired_time", schedulerName)) {
+            Map<String, Object> execution = new LinkedHashMap<>();
+            execution.put("jobName", fired.get("job_name"));
+            execution.put("jobGroup", fired.get("job_group"));
+            execution.put("triggerName", fired.get("trigger_name"));
+            execution.put("firedAt", Instant.ofEpochMilli(((Number) fired.get("fired_time")).longValue()));
+            execution.put("state", fired.get("state"));
+            executing(node(nodes, (String) fired.get("instance_name"), currentNode)).add(execution);
+        }
+
+        for (QuartzJobRun run : quartzJobRunRepository.findAllByOrderByInstanceIdAscJobNameAsc()) {
+            Map<String, Object> jobRun = new LinkedHashMap<>();
+            jobRun.put("jobName", run.getJobName());
+            jobRun.put("jobGroup", run.getJobGroup());
+            jobRun.put("lastTriggerName", run.getLastTriggerName());
+            jobRun.put("executionCount", run.getExecutionCount());
+            jobRun.put("failureCount", run.getFailureCount());
+            jobRun.put("lastFiredAt", run.getLastFiredAt());
+            jobRun.put("lastFinishedAt", run.getLastFinishedAt());
+            jobRun.put("lastDurationMs", run.getLastDurationMs());
+            jobRun.put("lastSucceeded", run.getLastSucceeded());
+            jobRun.put("lastError", run.getLastError());
+            jobRuns(node(nodes, run.getInstanceId(), currentNode)).add(jobRun);
+        }
+
+        Map<String, Object> view = new LinkedHashMap<>();
+        view.put("schedulerName", schedulerName);
+        view.put("clustered", scheduler.getMetaData().isJobStoreClustered());
+        view.put("currentNode", currentNode);
+        view.put("nodes", new ArrayList<>(nodes.values()));
+        return view;
+    }
+
+    // Nodes whose last check-in is recent enough for Quartz to still consider them alive; at least this one
+    public int countLiveNodes() throws SchedulerException {
+        Integer live = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM " + tablePrefix + "SCHEDULER_STATE"
+                        + " WHERE sched_name = ? AND last_checkin_time + checkin_interval + ? >= ?",
+                Integer.class, scheduler.getSchedulerName(), CHECKIN_GRACE_MS, System.currentTimeMillis());
+        return Math.max(1, live != null ? live : 0);
+    }
+
+    // Nodes only known from past runs have left the cluster (or, unclustered, never checked in)
+    private static Map<String, Object> node(Map<String, Map<String, Object>> nodes, String instanceId, String currentNode) {
+        return nodes.computeIfAbsent(instanceId, id -> {
+            Map<String, Object> node = new LinkedHashMap<>();
+            node.put("instanceId", id);
+            node.put("current", id.equals(currentNode));
+            node.put("alive", id.equals(currentNode));
+            return node;
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> executing(Map<String, Object> node) {
+        return (List<Map<String, Object>>) node.computeIfAbsent("executing", key -> new ArrayList<>());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> jobRuns(Map<String, Object> node) {
+        return (List<Map<String, Object>>) node.computeIfAbsent("jobRuns", key -> new ArrayList<>());
+    }
+}
@@ -13,7 +13,9 @@ import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.sql.Timestamp;
 import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -104,75 +106,107 @@ public class UserPinService {
                 .build();
     }
     
+    /**
+     * Verifies a PIN in two round trips: one read for the hash, then one conditional UPDATE that applies the
+     * attempt and returns the state it left. Attempts against a PIN that is locked by then are not counted,
+     * so parallel guesses cannot exceed {@link #MAX_FAILED_ATTEMPTS}. {@code userId} comes from the JWT; it
+     * is only looked up by email for tokens issued without it.
+     */
     @Transactional
-    public PinResponse verifyPin(String userEmail, VerifyPinRequest request) {
-        // Get user
-        User user = userRepository.findByEmail(userEmail)
-                .orElseThrow(() -> new RuntimeException("User not found"));
+    public PinResponse verifyPin(UUID userId, String userEmail, VerifyPinRequest request) {
+        if (userId == null) {
+            userId = userRepository.findByEmail(userEmail)
+                    .orElseThrow(() -> new RuntimeException("User not found"))
+                    .getId();
+        }
         
         // Get user's PIN
-        UserPin userPin = userPinRepository.findByUserIdAndIsActiveTrue(user.getId())
+        UserPin userPin = userPinRepository.findByUserIdAndIsActiveTrue(userId)
                 .orElseThrow(() -> new RuntimeException("No active PIN found"));
         
+        LocalDateTime now = LocalDateTime.now();
+        
         // Check if PIN is locked
-        if (userPin.getLockedUntil() != null && userPin.getLockedUntil().isAfter(LocalDateTime.now())) {
-            return PinResponse.builder()
-                    .hasPin(true)
-                    .isLocked(true)
-                    .lockedUntil(userPin.getLockedUntil())
-                    .failedAttempts(userPin.getFailedAttempts())
-                    .message("PIN is locked due to too many failed attempts. Please try again later.")
-                    .build();
+        if (userPin.getLockedUntil() != null && userPin.getLockedUntil().isAfter(now)) {
+            return lockedResponse(userPin.getLockedUntil(), userPin.getFailedAttempts(),
+                    "PIN is locked due to too many failed attempts. Please try again later.");
         }
         
         // Verify PIN
         if (passwordEncoder.matches(request.getPin(), userPin.getPinHash())) {
-            // PIN is correct - reset failed attempts and update last used
-            userPinRepository.resetFailedAttempts(user.getId());
-            userPinRepository.updateLastUsedAt(user.getId(), LocalDateTime.now());
+            PinState state = PinState.of(userPinRepository.recordSuccessfulAttempt(userId, now));
+            if (state == null) {
+                throw new RuntimeException("No active PIN found");
+            }
+            if (state.isLockedAt(now)) {
+                // A concurrent wrong guess locked the PIN after it was read
+                return lockedResponse(state.lockedUntil(), state.failedAttempts(),
+                        "PIN is locked due to too many failed attempts. Please try again later.");
+            }
             
             log.info("PIN verified successfully for user: {}", userEmail);
             
             return PinResponse.builder()
                     .hasPin(true)
                     .isLocked(false)
-                    .lastUsedAt(LocalDateTime.now())
+                    .lastUsedAt(now)
                     .failedAttempts(0)
                     .message("PIN verified successfully")
                     .build();
-        } else {
-            // PIN is incorrect - increment failed attempts
-            userPinRepository.incrementFailedAttempts(user.getId());
-            
-            // Get updated PIN to check if it should be locked
-            UserPin updatedPin = userPinRepository.findByUserIdAndIsActiveTrue(user.getId())
-                    .orElseThrow(() -> new RuntimeException("PIN not found"));
-            
-            if (updatedPin.getFailedAttempts() >= MAX_FAILED_ATTEMPTS) {
-                // Lock the PIN
-                LocalDateTime lockUntil = LocalDateTime.now().plusMinutes(LOCK_TIME_MINUTES);
-                userPinRepository.lockPin(user.getId(), lockUntil);
-                
-                log.warn("PIN locked for user: {} due to {} failed attempts", userEmail, updatedPin.getFailedAttempts());
-                
-                return PinResponse.builder()
-                        .hasPin(true)
-                        .isLocked(true)
-                        .lockedUntil(lockUntil)
-                        .failedAttempts(updatedPin.getFailedAttempts())
-                        .message("PIN is now locked due to too many failed attempts. Please try again in " + LOCK_TIME_MINUTES + " minutes.")
-                        .build();
-            } else {
-                int remainingAttempts = MAX_FAILED_ATTEMPTS - updatedPin.getFailedAttempts();
-                log.warn("Invalid PIN attempt for user: {}. {} attempts remaining", userEmail, remainingAttempts);
-                
-                return PinResponse.builder()
-                        .hasPin(true)
-                        .isLocked(false)
-                        .failedAttempts(updatedPin.getFailedAttempts())
-                        .message("Invalid PIN. " + remainingAttempts + " attempts remaining.")
-                        .build();
+        }
+        
+        // PIN is incorrect - count the attempt and lock on the last allowed one, in one statement
+        LocalDateTime lockUntil = now.plusMinutes(LOCK_TIME_MINUTES);
+        PinState state = PinState.of(userPinRepository.recordFailedAttempt(userId, now, MAX_FAILED_ATTEMPTS, lockUntil));
+        if (state == null) {
+            throw new RuntimeException("PIN not found");
+        }
+        
+        if (state.isLockedAt(now)) {
+            if (!lockUntil.equals(state.lockedUntil())) {
+                return lockedResponse(state.lockedUntil(), state.failedAttempts(),
+                        "PIN is locked due to too many failed attempts. Please try again later.");
             }
+            log.warn("PIN locked for user: {} due to {} failed attempts", userEmail, state.failedAttempts());
+            return lockedResponse(lockUntil, state.failedAttempts(),
+                    "PIN is now locked due to too many failed attempts. Please try again in " + LOCK_TIME_MINUTES + " minutes.");
+        }
+        
+        int remainingAttempts = MAX_FAILED_ATTEMPTS - state.failedAttempts();
+        log.warn("Invalid PIN attempt for user: {}. {} attempts remaining", userEmail, remainingAttempts);
+        
+        return PinResponse.builder()
+                .hasPin(true)
+                .isLocked(false)
+                .failedAttempts(state.failedAttempts())
+                .message("Invalid PIN. " + remainingAttempts + " attempts remaining.")
+                .build();
+    }
+    
+    private PinResponse lockedResponse(LocalDateTime lockedUntil, int failedAttempts, String message) {
+        return PinResponse.builder()
+                .hasPin(true)
+                .isLocked(true)
+                .lockedUntil(lockedUntil)
+                .failedAttempts(failedAttempts)
+                .message(message)
+                .build();
+    }
+    
+    private record PinState(int failedAttempts, LocalDateTime lockedUntil) {
+        
+        // The row an attempt UPDATE returned, or null when there was no active PIN to update
+        static PinState of(List<Object[]> rows) {
+            if (rows.isEmpty()) {
+                return null;
+            }
+            Object[] row = rows.get(0);
+            LocalDateTime lockedUntil = row[1] instanceof Timestamp timestamp ? timestamp.toLocalDateTime() : (LocalDateTime) row[1];
+            return new PinState(((Number) row[0]).intValue(), lockedUntil);
+        }
+        
+        boolean isLockedAt(LocalDateTime now) {
+            return lockedUntil != null && lockedUntil.isAfter(now);
         }
     }
     
@@ -1,8 +1,12 @@
 package com.bellpatra.userservice.service;
 
+import com.bellpatra.userservice.dto.EmailEnqueueRequest;
 import com.bellpatra.userservice.dto.PagedResponse;
+import com.bellpatra.userservice.dto.UserEvent;
+import com.bellpatra.userservice.dto.UserEventPayload;
 import com.bellpatra.userservice.dto.UserDTO;
 import com.bellpatra.userservice.dto.UserSearchRequest;
+import com.bellpatra.userservice.entity.EmailQueue;
 import com.bellpatra.userservice.entity.User;
 import com.bellpatra.userservice.repository.UserRepository;
 import lombok.RequiredArgsConstructor;
@@ -11,10 +15,15 @@ import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
@@ -23,6 +32,8 @@ import java.util.stream.Collectors;
 public class UserService {
     
     private final UserRepository userRepository;
+    private final EmailQueueService emailQueueService;
+    private final OutboxService outboxService;
     
     public List<User> getAllUsers() {
         return userRepository.findAll();
@@ -36,6 +47,7 @@ public class UserService {
         return userRepository.findByEmail(email);
     }
     
+    @Transactional
     public User createUser(User user) {
         if (userRepository.existsByEmail(user.getEmail())) {
             throw new RuntimeException("User with email " + user.getEmail() + " already exists");
@@ -43,9 +55,53 @@ public class UserService {
         if (user.getPhoneNumber() != null && userRepository.existsByPhoneNumber(user.getPhoneNumber())) {
             throw new RuntimeException("User with phone number " + user.getPhoneNumber() + " already exists");
         }
-        return userRepository.save(user);
+        User savedUser = userRepository.saveAndFlush(user);
+        outboxService.recordUserSnapshots(List.of(savedUser));
+        return savedUser;
+    }
+    
+    /**
+     * Creates users in one transaction, skipping any whose email or phone number is already taken
+     * (in the database or earlier in the same batch). Welcome emails and registration events go
+     * through the outbox in the same transaction.
+     */
+    @Transactional
+    public List<User> createUsers(List<User> users) {
+        Set<String> takenEmails = userRepository.findByEmailIn(users.stream().map(User::getEmail).toList()).stream()
+                .map(User::getEmail)
+                .collect(Collectors.toCollection(HashSet::new));
+        Set<String> takenPhoneNumbers = userRepository.findByPhoneNumberIn(users.stream()
+                        .map(User::getPhoneNumber)
+                        .filter(Objects::nonNull)
+                        .toList()).stream()
+                .map(User::getPhoneNumber)
+                .collect(Collectors.toCollection(HashSet::new));
+        
+        List<User> accepted = new ArrayList<>();
+        for (User user : users) {
+            if (!takenEmails.add(user.getEmail())) {
+                continue;
+            }
+            if (user.getPhoneNumber() != null && !takenPhoneNumbers.add(user.getPhoneNumber())) {
+                continue;
+            }
+            accepted.add(user);
+        }
+        
+        List<User> savedUsers = userRepository.saveAll(accepted);
+        userRepository.flush();
+        outboxService.recordUserSnapshots(savedUsers);
+        outboxService.recordEmails(savedUsers.stream()
+                .map(user -> new EmailEnqueueRequest(user, EmailQueue.EmailType.WELCOME_EMAIL, emailQueueService.welcomePayload(user)))
+                .toList());
+        for (User user : savedUsers) {
+            outboxService.recordUserEvent(UserEvent.of(user.getId(), new UserEventPayload.Registration(
+                    user.getEmail(), user.getFirstName(), user.getLastName())));
+        }
+        return savedUsers;
     }
     
+    @Transactional
     public User updateUser(UUID id, User userDetails) {
         User user = userRepository.findById(id)
                 .orElseThrow(() -> new RuntimeException("User not found with id: " + id));
@@ -59,14 +115,18 @@ public class UserService {
         user.setRole(userDetails.getRole());
         user.setStatus(userDetails.getStatus());
         
-        return userRepository.save(user);
+        User savedUser = userRepository.saveAndFlush(user);
+        outboxService.recordUserSnapshots(List.of(savedUser));
+        return savedUser;
     }
     
+    @Transactional
     public void deleteUser(UUID id) {
         if (!userRepository.existsById(id)) {
             throw new RuntimeException("User not found with id: " + id);
         }
         userRepository.deleteById(id);
+        outboxService.recordUserDeleted(id);
     }
     
     public List<User> getUsersByRole(User.UserRole role) {
@@ -0,0 +1,54 @@
+package com.bellpatra.userservice.service;
+
+import com.bellpatra.userservice.entity.User;
+import com.bellpatra.userservice.repository.UserRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Writes a snapshot of every existing user to the outbox, so {@code user-snapshots} holds the full user
+ * set even for users that have not changed since the topic was introduced. Pages by id, one transaction
+ * per page. Each page is read FOR SHARE, so concurrent updates to its users wait until their snapshots
+ * are written, and then write newer ones after them. It is safe to re-run, since compaction keeps only
+ * the latest snapshot per user.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class UserSnapshotBackfill {
+
+    private final UserRepository userRepository;
+    private final OutboxService outboxService;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${user.snapshots.backfill.page-size:1000}")
+    private int pageSize;
+
+    public long backfill() {
+        long total = 0;
+        UUID after = new UUID(0L, 0L);
+        while (true) {
+            UUID cursor = after;
+            List<User> page = transactionTemplate.execute(status -> {
+                List<User> users = userRepository.findByIdGreaterThanOrderByIdAsc(cursor, PageRequest.of(0, pageSize));
+                outboxService.recordUserSnapshots(users);
+                return users;
+            });
+            if (page == null || page.isEmpty()) {
+                break;
+            }
+            total += page.size();
+            after = page.get(page.size() - 1).getId();
+            log.debug("Backfilled {} user snapshots so far", total);
+        }
+        log.info("User snapshot backfill recorded {} snapshots", total);
+        return total;
+    }
+}
@@ -0,0 +1,140 @@
+package com.bellpatra.userservice.kafka;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.BatchAcknowledgingMessageListener;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Consumes the same keyed load through batch listeners built like {@code kafkaListenerContainerFactory}
+ * (one consumer thread per partition, {@link KeyOrderedBatchProcessor}, manual ack) for several
+ * partition counts, reporting records/sec and checking per-key order and committed offsets.
+ * Run with {@code mvn test -Pbenchmark}; size with {@code -Dbenchmark.kafka.records} and {@code -Dbenchmark.kafka.work-micros}.
+ */
+@Tag("benchmark")
+@EmbeddedKafka
+class BatchListenerBenchmarkTest {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchListenerBenchmarkTest.class);
+
+    private static final int RECORDS = Integer.getInteger("benchmark.kafka.records", 20_000);
+    private static final int KEYS = Integer.getInteger("benchmark.kafka.keys", 500);
+    private static final long WORK_NANOS = TimeUnit.MICROSECONDS.toNanos(Integer.getInteger("benchmark.kafka.work-micros", 500));
+    private static final int[] PARTITION_COUNTS = {1, 3, 6};
+
+    @Test
+    void throughputPerPartitionCount(EmbeddedKafkaBroker broker) throws Exception {
+        StringBuilder report = new StringBuilder(String.format(
+                "Batch listener benchmark: %d records, %d keys, %d us work per record%n", RECORDS, KEYS, WORK_NANOS / 1000));
+        for (int partitions : PARTITION_COUNTS) {
+            double recordsPerSecond = run(broker, partitions);
+            report.append(String.format("  %d partition(s): %.1f records/sec%n", partitions, recordsPerSecond));
+        }
+        log.info(report.toString());
+    }
+
+    private double run(EmbeddedKafkaBroker broker, int partitions) throws Exception {
+        String topic = "notifications-bench-" + partitions;
+        String group = "batch-bench-" + partitions;
+        broker.addTopics(new NewTopic(topic, partitions, (short) 1));
+        produce(broker, topic);
+
+        KeyOrderedBatchProcessor processor = new KeyOrderedBatchProcessor(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(processor, "batchTimeoutMillis", 60_000L);
+
+        Map<String, Integer> lastSeq = new ConcurrentHashMap<>();
+        AtomicInteger outOfOrder = new AtomicInteger();
+        AtomicInteger processed = new AtomicInteger();
+
+        Map<String, Object> props = KafkaTestUtils.consumerProps(broker, group, false);
+        props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, 500);
+        ContainerProperties containerProperties = new ContainerProperties(topic);
+        containerProperties.setAckMode(ContainerProperties.AckMode.MANUAL);
+        containerProperties.setMessageListener((BatchAcknowledgingMessageListener<String, String>) (records, acknowledgment) -> {
+            processor.process(records, record -> {
+                LockSupport.parkNanos(WORK_NANOS);
+                int seq = Integer.parseInt(record.value());
+                Integer previous = lastSeq.put(record.key(), seq);
+                if (previous != null && seq != previous + 1) {
+                    outOfOrder.incrementAndGet();
+                }
+                processed.incrementAndGet();
+            });
+            acknowledgment.acknowledge();
+        });
+
+        ConcurrentMessageListenerContainer<String, String> container = new ConcurrentMessageListenerContainer<>(
+                new DefaultKafkaConsumerFactory<>(props), containerProperties);
+        container.setConcurrency(partitions);
+
+        long start = System.nanoTime();
+        container.start();
+        long deadline = start + TimeUnit.MINUTES.toNanos(5);
+        try {
+            while (processed.get() < RECORDS && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            long elapsedNanos = System.nanoTime() - start;
+
+            // Offsets of the last batch are committed on the following poll
+            while (committed(broker, group, topic, partitions) < RECORDS && System.nanoTime() < deadline) {
+                Thread.sleep(50);
+            }
+
+            assertThat(processed.get()).isEqualTo(RECORDS);
+            assertThat(outOfOrder.get()).as("records handled out of per-key order").isZero();
+            assertThat(committed(broker, group, topic, partitions)).isEqualTo(RECORDS);
+            return RECORDS / (elapsedNanos / 1_000_000_000.0);
+        } finally {
+            container.stop();
+            ReflectionTestUtils.invokeMethod(processor, "shutdown");
+        }
+    }
+
+    private static void produce(EmbeddedKafkaBroker broker, String topic) {
+        DefaultKafkaProducerFactory<String, String> producerFactory =
+                new DefaultKafkaProducerFactory<>(KafkaTestUtils.producerProps(broker));
+        try {
+            KafkaTemplate<String, String> template = new KafkaTemplate<>(producerFactory);
+            for (int i = 0; i < RECORDS; i++) {
+                // Value is the record's sequence number within its key
+                template.send(topic, "user-" + (i % KEYS), String.valueOf(i / KEYS));
+            }
+            template.flush();
+        } finally {
+            producerFactory.destroy();
+        }
+    }
+
+    private static long committed(EmbeddedKafkaBroker broker, String group, String topic, int partitions) throws Exception {
+        long total = 0;
+        for (int partition = 0; partition < partitions; partition++) {
+            OffsetAndMetadata offset = KafkaTestUtils.getCurrentOffset(broker.getBrokersAsString(), group, topic, partition);
+            total += offset != null ? offset.offset() : 0;
+        }
+        return total;
+    }
+}
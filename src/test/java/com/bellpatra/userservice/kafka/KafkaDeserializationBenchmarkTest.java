@@ -0,0 +1,120 @@
+package com.bellpatra.userservice.kafka;
+
+import com.bellpatra.userservice.dto.NotificationEvent;
+import com.bellpatra.userservice.dto.PresenceEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-record cost of the old listener path (StringDeserializer, then readValue into a Map and dispatch on
+ * the {@code type} string) against the typed path (ByteArrayDeserializer, then a precompiled ObjectReader
+ * into a sealed record). Run with {@code mvn test -Pbenchmark}; the GC profiler's
+ * {@code gc.alloc.rate.norm} line is the allocation per record.
+ */
+@Tag("benchmark")
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class KafkaDeserializationBenchmarkTest {
+
+    private ObjectMapper objectMapper;
+    private ObjectReader notificationReader;
+    private ObjectReader presenceReader;
+    private byte[] notificationBytes;
+    private byte[] presenceBytes;
+
+    @Setup
+    public void setUp() {
+        objectMapper = new ObjectMapper();
+        notificationReader = objectMapper.readerFor(NotificationEvent.class);
+        presenceReader = objectMapper.readerFor(PresenceEvent.class);
+        notificationBytes = ("{\"type\":\"MENTION\",\"userId\":\"" + UUID.randomUUID() + "\",\"mentionedBy\":\""
+                + UUID.randomUUID() + "\",\"content\":\"Can you take a look at the release checklist before noon?\"}")
+                .getBytes(StandardCharsets.UTF_8);
+        presenceBytes = ("{\"userId\":\"" + UUID.randomUUID() + "\",\"status\":\"ONLINE\",\"timestamp\":"
+                + System.currentTimeMillis() + "}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public void notificationStringToMap(Blackhole blackhole) throws Exception {
+        String message = new String(notificationBytes, StandardCharsets.UTF_8);
+        Map<String, Object> notification = objectMapper.readValue(message, Map.class);
+        switch ((String) notification.get("type")) {
+            case "MENTION" -> {
+                blackhole.consume(notification.get("userId"));
+                blackhole.consume(notification.get("mentionedBy"));
+                blackhole.consume(notification.get("content"));
+            }
+            case "MESSAGE" -> blackhole.consume(notification.get("channelId"));
+            case "CALL" -> blackhole.consume(notification.get("callType"));
+            default -> blackhole.consume(notification);
+        }
+    }
+
+    @Benchmark
+    public void notificationBytesToRecord(Blackhole blackhole) throws Exception {
+        NotificationEvent notification = notificationReader.readValue(notificationBytes);
+        switch (notification) {
+            case NotificationEvent.Mention mention -> {
+                blackhole.consume(mention.userId());
+                blackhole.consume(mention.mentionedBy());
+                blackhole.consume(mention.content());
+            }
+            case NotificationEvent.Message message -> blackhole.consume(message.channelId());
+            case NotificationEvent.Call call -> blackhole.consume(call.callType());
+        }
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public void presenceStringToMap(Blackhole blackhole) throws Exception {
+        String message = new String(presenceBytes, StandardCharsets.UTF_8);
+        Map<String, Object> presence = objectMapper.readValue(message, Map.class);
+        blackhole.consume(UUID.fromString((String) presence.get("userId")));
+        blackhole.consume(presence.get("status"));
+        blackhole.consume(((Number) presence.get("timestamp")).longValue());
+    }
+
+    @Benchmark
+    public void presenceBytesToRecord(Blackhole blackhole) throws Exception {
+        PresenceEvent presence = presenceReader.readValue(presenceBytes);
+        blackhole.consume(presence.userId());
+        blackhole.consume(presence.status());
+        blackhole.consume(presence.timestamp());
+    }
+
+    @Test
+    void run() throws Exception {
+        // In-process (forks = 0): surefire's classpath is not reliably visible to a forked JMH JVM
+        Options options = new OptionsBuilder()
+                .include(KafkaDeserializationBenchmarkTest.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .forks(0)
+                .build();
+        new Runner(options).run();
+    }
+}
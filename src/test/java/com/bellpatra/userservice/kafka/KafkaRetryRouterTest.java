@@ -0,0 +1,155 @@
+package com.bellpatra.userservice.kafka;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class KafkaRetryRouterTest {
+
+    private static final String TOPIC = KafkaConsumerService.NOTIFICATIONS_TOPIC;
+
+    private KafkaTemplate<String, byte[]> retryKafkaTemplate;
+    private SimpleMeterRegistry meterRegistry;
+    private KafkaRetryRouter router;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        retryKafkaTemplate = mock(KafkaTemplate.class);
+        when(retryKafkaTemplate.send(any(ProducerRecord.class))).thenReturn(CompletableFuture.completedFuture(null));
+        meterRegistry = new SimpleMeterRegistry();
+        router = new KafkaRetryRouter();
+        ReflectionTestUtils.setField(router, "retryKafkaTemplate", retryKafkaTemplate);
+        ReflectionTestUtils.setField(router, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(router, "retryDelaysMs", List.of(1000L, 10000L));
+        ReflectionTestUtils.setField(router, "sendTimeoutMs", 1000L);
+    }
+
+    @Test
+    void failedRecordMovesThroughTheTiersKeepingItsOrigin() {
+        ConsumerRecord<String, byte[]> original = new ConsumerRecord<>(TOPIC, 3, 42L, "user-1", payload());
+        original.headers().add("trace-id", bytes("abc"));
+
+        ProducerRecord<String, byte[]> first = recover(original, new RuntimeException("mail down"));
+
+        assertThat(first.topic()).isEqualTo(KafkaRetryRouter.retryTopic(TOPIC, 0));
+        assertThat(first.key()).isEqualTo("user-1");
+        assertThat(header(first, KafkaRetryRouter.RETRY_ATTEMPT_HEADER)).isEqualTo("1");
+        assertThat(header(first, KafkaRetryRouter.ORIGINAL_TOPIC_HEADER)).isEqualTo(TOPIC);
+        assertThat(header(first, KafkaRetryRouter.ORIGINAL_PARTITION_HEADER)).isEqualTo("3");
+        assertThat(header(first, KafkaRetryRouter.ORIGINAL_OFFSET_HEADER)).isEqualTo("42");
+        assertThat(header(first, KafkaRetryRouter.EXCEPTION_MESSAGE_HEADER)).isEqualTo("mail down");
+        assertThat(header(first, "trace-id")).isEqualTo("abc");
+
+        ProducerRecord<String, byte[]> second = recover(consumed(first, 0, 7L), new RuntimeException("still down"));
+
+        assertThat(second.topic()).isEqualTo(KafkaRetryRouter.retryTopic(TOPIC, 1));
+        assertThat(header(second, KafkaRetryRouter.RETRY_ATTEMPT_HEADER)).isEqualTo("2");
+        // Origin and pass-through headers are carried once, not stacked per hop
+        assertThat(second.headers().headers(KafkaRetryRouter.ORIGINAL_OFFSET_HEADER)).hasSize(1);
+        assertThat(header(second, KafkaRetryRouter.ORIGINAL_OFFSET_HEADER)).isEqualTo("42");
+        assertThat(header(second, KafkaRetryRouter.EXCEPTION_MESSAGE_HEADER)).isEqualTo("still down");
+        assertThat(second.headers().headers("trace-id")).hasSize(1);
+
+        ProducerRecord<String, byte[]> last = recover(consumed(second, 0, 9L), new RuntimeException("gave up"));
+
+        assertThat(last.topic()).isEqualTo(KafkaRetryRouter.deadLetterTopic(TOPIC));
+        assertThat(header(last, KafkaRetryRouter.RETRY_ATTEMPT_HEADER)).isEqualTo("3");
+        assertThat(last.headers().lastHeader(KafkaRetryRouter.RETRY_DUE_AT_HEADER)).isNull();
+        assertThat(meterRegistry.get("kafka.consumer.retries").tag("tier", "1").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("kafka.consumer.dead.letters").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void unparseablePayloadGoesStraightToTheDeadLetterTopic() {
+        ConsumerRecord<String, byte[]> original = new ConsumerRecord<>(TOPIC, 0, 1L, "user-1", bytes("{not json"));
+
+        ProducerRecord<String, byte[]> forwarded = recover(original,
+                new RuntimeException("wrapped", new JsonParseException(null, "Unexpected character")));
+
+        assertThat(forwarded.topic()).isEqualTo(KafkaRetryRouter.deadLetterTopic(TOPIC));
+        assertThat(header(forwarded, KafkaRetryRouter.EXCEPTION_HEADER)).isEqualTo(JsonParseException.class.getName());
+    }
+
+    @Test
+    void deadLetterSkipsTheTiers() {
+        ConsumerRecord<String, byte[]> original = new ConsumerRecord<>("user-presence", 1, 5L, "user-1", payload());
+
+        router.deadLetter(original, new RuntimeException("store unavailable"));
+
+        ProducerRecord<String, byte[]> forwarded = sent();
+        assertThat(forwarded.topic()).isEqualTo(KafkaRetryRouter.deadLetterTopic("user-presence"));
+        assertThat(header(forwarded, KafkaRetryRouter.ORIGINAL_OFFSET_HEADER)).isEqualTo("5");
+    }
+
+    @Test
+    void retriedRecordIsDueAfterItsTierDelay() {
+        ProducerRecord<String, byte[]> parked = recover(new ConsumerRecord<>(TOPIC, 0, 1L, "user-1", payload()),
+                new RuntimeException("mail down"));
+
+        assertThat(router.delayRemaining(consumed(parked, 0, 1L))).isBetween(1L, 1000L);
+        assertThat(router.originalTopic(consumed(parked, 0, 1L))).isEqualTo(TOPIC);
+        assertThat(router.delayRemaining(new ConsumerRecord<>(TOPIC, 0, 1L, "user-1", payload()))).isZero();
+    }
+
+    @Test
+    void failedForwardFailsTheCaller() {
+        when(retryKafkaTemplate.send(any(ProducerRecord.class))).thenReturn(CompletableFuture.failedFuture(new IllegalStateException("broker down")));
+
+        assertThatThrownBy(() -> router.recover(new ConsumerRecord<>(TOPIC, 0, 1L, "user-1", payload()), new RuntimeException("mail down")))
+                .hasMessageContaining(KafkaRetryRouter.retryTopic(TOPIC, 0));
+    }
+
+    private ProducerRecord<String, byte[]> recover(ConsumerRecord<String, byte[]> record, Exception error) {
+        router.recover(record, error);
+        return sent();
+    }
+
+    @SuppressWarnings("unchecked")
+    private ProducerRecord<String, byte[]> sent() {
+        ArgumentCaptor<ProducerRecord<String, byte[]>> captor = ArgumentCaptor.forClass(ProducerRecord.class);
+        verify(retryKafkaTemplate, atLeastOnce()).send(captor.capture());
+        return captor.getValue();
+    }
+
+    // The forwarded record as a retry listener would read it back
+    private static ConsumerRecord<String, byte[]> consumed(ProducerRecord<String, byte[]> forwarded, int partition, long offset) {
+        ConsumerRecord<String, byte[]> record = new ConsumerRecord<>(forwarded.topic(), partition, offset, forwarded.key(), forwarded.value());
+        for (Header header : forwarded.headers()) {
+            record.headers().add(header);
+        }
+        return record;
+    }
+
+    private static String header(ProducerRecord<String, byte[]> record, String key) {
+        Header header = record.headers().lastHeader(key);
+        return header != null ? new String(header.value(), StandardCharsets.UTF_8) : null;
+    }
+
+    private static byte[] payload() {
+        return bytes("{\"userId\":\"user-1\"}");
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
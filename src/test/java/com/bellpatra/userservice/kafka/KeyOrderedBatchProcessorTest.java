@@ -0,0 +1,108 @@
+package com.bellpatra.userservice.kafka;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class KeyOrderedBatchProcessorTest {
+
+    private static final String TOPIC = "user-notifications";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final KeyOrderedBatchProcessor processor = new KeyOrderedBatchProcessor(meterRegistry);
+
+    KeyOrderedBatchProcessorTest() {
+        ReflectionTestUtils.setField(processor, "batchTimeoutMillis", 10_000L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        processor.shutdown();
+    }
+
+    @Test
+    void recordsSharingAKeyAreHandledInOffsetOrder() {
+        List<ConsumerRecord<String, String>> records = new ArrayList<>();
+        for (int offset = 0; offset < 200; offset++) {
+            records.add(record(offset % 3, offset, "user-" + (offset % 5)));
+        }
+        Map<String, Queue<Long>> handled = new ConcurrentHashMap<>();
+
+        processor.process(records, record -> {
+            // Uneven handling times, so parallel keys interleave
+            Thread.sleep(ThreadLocalRandom.current().nextInt(2));
+            handled.computeIfAbsent(record.key(), key -> new ConcurrentLinkedQueue<>()).add(record.offset());
+        });
+
+        assertThat(handled).hasSize(5);
+        handled.values().forEach(offsets -> assertThat(new ArrayList<>(offsets)).hasSize(40).isSorted());
+        assertThat(meterRegistry.get("kafka.consumer.records").tag("topic", TOPIC).counter().count()).isEqualTo(200);
+    }
+
+    @Test
+    void failedRecordStopsItsKeyAndFailsTheBatch() {
+        List<ConsumerRecord<String, String>> records = List.of(
+                record(0, 0, "user-1"), record(0, 1, "user-1"), record(0, 2, "user-1"), record(0, 3, "user-2"));
+        Queue<Long> handled = new ConcurrentLinkedQueue<>();
+
+        assertThatThrownBy(() -> processor.process(records, record -> {
+            if (record.offset() == 1) {
+                throw new IllegalStateException("boom");
+            }
+            handled.add(record.offset());
+        })).hasRootCauseInstanceOf(IllegalStateException.class);
+
+        assertThat(handled).containsExactlyInAnyOrder(0L, 3L);
+    }
+
+    @Test
+    void recovererTakesTheFailedRecordAndTheKeyCarriesOn() {
+        List<ConsumerRecord<String, String>> records = List.of(
+                record(0, 0, "user-1"), record(0, 1, "user-1"), record(0, 2, "user-1"));
+        Queue<Long> handled = new ConcurrentLinkedQueue<>();
+        Queue<Long> recovered = new ConcurrentLinkedQueue<>();
+
+        processor.process(records, record -> {
+            if (record.offset() == 1) {
+                throw new IllegalStateException("boom");
+            }
+            handled.add(record.offset());
+        }, (record, error) -> recovered.add(record.offset()));
+
+        assertThat(handled).containsExactly(0L, 2L);
+        assertThat(recovered).containsExactly(1L);
+    }
+
+    @Test
+    void keylessRecordsKeepPartitionOrder() {
+        List<ConsumerRecord<String, String>> records = new ArrayList<>();
+        for (int offset = 0; offset < 50; offset++) {
+            records.add(record(offset % 2, offset, null));
+        }
+        Map<Integer, Queue<Long>> handled = new ConcurrentHashMap<>();
+
+        processor.process(records, record -> {
+            Thread.sleep(ThreadLocalRandom.current().nextInt(2));
+            handled.computeIfAbsent(record.partition(), partition -> new ConcurrentLinkedQueue<>()).add(record.offset());
+        });
+
+        handled.values().forEach(offsets -> assertThat(new ArrayList<>(offsets)).hasSize(25).isSorted());
+    }
+
+    private static ConsumerRecord<String, String> record(int partition, long offset, String key) {
+        return new ConsumerRecord<>(TOPIC, partition, offset, key, "payload-" + offset);
+    }
+}
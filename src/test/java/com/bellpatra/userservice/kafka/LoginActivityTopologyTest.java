@@ -0,0 +1,96 @@
+package com.bellpatra.userservice.kafka;
+
+import com.bellpatra.userservice.dto.UserEvent;
+import com.bellpatra.userservice.dto.UserEventPayload;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.streams.StreamsBuilder;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.TestInputTopic;
+import org.apache.kafka.streams.TopologyTestDriver;
+import org.apache.kafka.streams.state.WindowStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Properties;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs {@link LoginActivityTopology} in a TopologyTestDriver, no broker needed: events are piped with
+ * explicit timestamps and the window stores are read back directly.
+ */
+class LoginActivityTopologyTest {
+
+    private static final Instant MINUTE_0 = Instant.parse("2025-01-01T10:00:00Z");
+    private static final Instant MINUTE_1 = MINUTE_0.plus(Duration.ofMinutes(1));
+
+    private final ObjectWriter eventWriter = new ObjectMapper().writerFor(UserEvent.class);
+
+    private TopologyTestDriver driver;
+    private TestInputTopic<String, String> userEvents;
+
+    @BeforeEach
+    void setUp() {
+        StreamsBuilder builder = new StreamsBuilder();
+        LoginActivityTopology.build(builder, Duration.ofMinutes(1), Duration.ofSeconds(30), Duration.ofHours(1));
+
+        Properties config = new Properties();
+        config.put(StreamsConfig.APPLICATION_ID_CONFIG, "login-activity-test");
+        config.put(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG, "dummy:9092");
+        driver = new TopologyTestDriver(builder.build(), config);
+        userEvents = driver.createInputTopic(KafkaProducerService.USER_EVENTS_TOPIC, new StringSerializer(), new StringSerializer());
+    }
+
+    @AfterEach
+    void tearDown() {
+        driver.close();
+    }
+
+    @Test
+    void countsLoginsFailuresAndDistinctUsersPerWindow() throws Exception {
+        UUID alice = UUID.randomUUID();
+        UUID bob = UUID.randomUUID();
+
+        login(alice, MINUTE_0.plusSeconds(5));
+        login(alice, MINUTE_0.plusSeconds(20));
+        login(bob, MINUTE_0.plusSeconds(30));
+        pipe(null, UserEvent.of(null, new UserEventPayload.LoginFailed("nobody@example.com", "10.0.0.9", "UNKNOWN_EMAIL")),
+                MINUTE_0.plusSeconds(40));
+        pipe(alice, UserEvent.of(alice, new UserEventPayload.Logout("alice@example.com")), MINUTE_0.plusSeconds(50));
+        login(alice, MINUTE_1.plusSeconds(10));
+
+        WindowStore<String, Long> eventCounts = driver.getWindowStore(LoginActivityTopology.EVENT_COUNTS_STORE);
+        WindowStore<String, Long> activeUsers = driver.getWindowStore(LoginActivityTopology.ACTIVE_USERS_STORE);
+
+        assertThat(eventCounts.fetch(UserEventPayload.USER_LOGIN, MINUTE_0.toEpochMilli())).isEqualTo(3L);
+        assertThat(eventCounts.fetch(UserEventPayload.USER_LOGIN_FAILED, MINUTE_0.toEpochMilli())).isEqualTo(1L);
+        assertThat(activeUsers.fetch(LoginActivityTopology.ACTIVE_USERS_KEY, MINUTE_0.toEpochMilli())).isEqualTo(2L);
+
+        assertThat(eventCounts.fetch(UserEventPayload.USER_LOGIN, MINUTE_1.toEpochMilli())).isEqualTo(1L);
+        assertThat(eventCounts.fetch(UserEventPayload.USER_LOGIN_FAILED, MINUTE_1.toEpochMilli())).isNull();
+        assertThat(activeUsers.fetch(LoginActivityTopology.ACTIVE_USERS_KEY, MINUTE_1.toEpochMilli())).isEqualTo(1L);
+    }
+
+    @Test
+    void ignoresMalformedEvents() {
+        userEvents.pipeInput("some-user", "not json", MINUTE_0);
+        userEvents.pipeInput("some-user", null, MINUTE_0);
+
+        WindowStore<String, Long> eventCounts = driver.getWindowStore(LoginActivityTopology.EVENT_COUNTS_STORE);
+        assertThat(eventCounts.fetch(UserEventPayload.USER_LOGIN, MINUTE_0.toEpochMilli())).isNull();
+    }
+
+    private void login(UUID userId, Instant at) throws Exception {
+        pipe(userId, UserEvent.of(userId, new UserEventPayload.Login("user@example.com", "10.0.0.1")), at);
+    }
+
+    private void pipe(UUID key, UserEvent event, Instant at) throws Exception {
+        userEvents.pipeInput(key != null ? key.toString() : null, eventWriter.writeValueAsString(event), at);
+    }
+}
@@ -0,0 +1,74 @@
+package com.bellpatra.userservice.kafka;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Measures the de-duplication window at its configured defaults: memory per million remembered ids,
+ * the observed false-positive rate on never-seen ids, and that every id of the guaranteed window is
+ * still recognised after rotations. Run with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+class RotatingBloomFilterBenchmarkTest {
+
+    private static final Logger log = LoggerFactory.getLogger(RotatingBloomFilterBenchmarkTest.class);
+
+    private static final int GENERATIONS = 3;
+    private static final int IDS_PER_GENERATION = 100_000;
+    private static final double FALSE_POSITIVE_RATE = 0.000001;
+    private static final int PROBES = Integer.getInteger("benchmark.dedup.probes", 5_000_000);
+
+    @Test
+    void falsePositiveRateAndMemoryPerMillionIds() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(GENERATIONS, IDS_PER_GENERATION, FALSE_POSITIVE_RATE);
+
+        // Fill every generation, then rotate once more so the oldest has been recycled
+        int inserted = GENERATIONS * IDS_PER_GENERATION + IDS_PER_GENERATION / 2;
+        List<UUID> recent = new ArrayList<>();
+        long insertStart = System.nanoTime();
+        for (int i = 0; i < inserted; i++) {
+            UUID id = UUID.randomUUID();
+            filter.put(id);
+            if (i >= inserted - (GENERATIONS - 1) * IDS_PER_GENERATION) {
+                recent.add(id);
+            }
+        }
+        long insertNanos = System.nanoTime() - insertStart;
+
+        for (UUID id : recent) {
+            assertThat(filter.mightContain(id)).isTrue();
+        }
+
+        int falsePositives = 0;
+        long probeStart = System.nanoTime();
+        for (int i = 0; i < PROBES; i++) {
+            if (filter.mightContain(UUID.randomUUID())) {
+                falsePositives++;
+            }
+        }
+        long probeNanos = System.nanoTime() - probeStart;
+
+        double observedRate = (double) falsePositives / PROBES;
+        double bytesPerId = (double) filter.memoryBytes() / (GENERATIONS * IDS_PER_GENERATION);
+        log.info(String.format("""
+                        De-duplication window: %d generations x %d ids, %d hashes, target FPR %.1e
+                          memory:          %d bytes per partition, %.2f MB per million ids
+                          false positives: %d of %d probes (%.2e)
+                          insert:          %.0f ns/id, lookup: %.0f ns/id
+                        """,
+                GENERATIONS, IDS_PER_GENERATION, filter.hashes(), FALSE_POSITIVE_RATE,
+                filter.memoryBytes(), bytesPerId * 1_000_000 / (1024 * 1024),
+                falsePositives, PROBES, observedRate,
+                (double) insertNanos / inserted, (double) probeNanos / PROBES));
+
+        assertThat(observedRate).isLessThan(FALSE_POSITIVE_RATE * 10);
+    }
+}
@@ -0,0 +1,134 @@
+package com.bellpatra.userservice.kafka;
+
+import com.bellpatra.userservice.config.KafkaConfig;
+import com.bellpatra.userservice.dto.UserEvent;
+import com.bellpatra.userservice.dto.UserEventPayload;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Publishes user events through the production producer settings against an embedded broker and
+ * reports records/sec, then checks every user's events were consumed in the order they were sent.
+ * Run with {@code mvn test -Pbenchmark}; size with {@code -Dbenchmark.kafka.events} and {@code -Dbenchmark.kafka.users}.
+ */
+@Tag("benchmark")
+@EmbeddedKafka(partitions = 6, topics = KafkaProducerService.USER_EVENTS_TOPIC)
+class UserEventProducerBenchmarkTest {
+
+    private static final Logger log = LoggerFactory.getLogger(UserEventProducerBenchmarkTest.class);
+
+    private static final int EVENTS = Integer.getInteger("benchmark.kafka.events", 100_000);
+    private static final int USERS = Integer.getInteger("benchmark.kafka.users", 1_000);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void keyedBatchedThroughputPreservesPerUserOrder(EmbeddedKafkaBroker broker) throws Exception {
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        KafkaProducerService producer = producer(broker, meterRegistry);
+
+        List<UUID> users = new ArrayList<>(USERS);
+        for (int i = 0; i < USERS; i++) {
+            users.add(UUID.randomUUID());
+        }
+
+        List<CompletableFuture<SendResult<String, String>>> sends = new ArrayList<>(EVENTS);
+        long start = System.nanoTime();
+        for (int i = 0; i < EVENTS; i++) {
+            UUID userId = users.get(i % USERS);
+            // Per-user sequence number, so the consumer can check ordering
+            UserEventPayload payload = new UserEventPayload.ProfileUpdate("bench@example.com", Map.of("seq", i / USERS));
+            sends.add(producer.publishUserEvent(UserEvent.of(userId, payload)));
+        }
+        CompletableFuture.allOf(sends.toArray(CompletableFuture[]::new)).get(2, TimeUnit.MINUTES);
+        long elapsedNanos = System.nanoTime() - start;
+
+        double sent = meterRegistry.get("kafka.producer.sends").tag("result", "success").counter().count();
+        double p99Millis = meterRegistry.get("kafka.producer.send.latency").timer()
+                .takeSnapshot().percentileValues()[1].value(TimeUnit.MILLISECONDS);
+        log.info(String.format("""
+                        User event producer benchmark: %d events across %d users
+                          throughput: %.1f records/sec
+                          ack latency p99: %.1f ms
+                        """,
+                EVENTS, USERS, EVENTS / (elapsedNanos / 1_000_000_000.0), p99Millis));
+
+        assertThat(sent).isEqualTo(EVENTS);
+        assertPerUserOrder(broker);
+    }
+
+    private void assertPerUserOrder(EmbeddedKafkaBroker broker) throws Exception {
+        Map<String, Object> props = KafkaTestUtils.consumerProps(broker, "user-events-benchmark", true);
+        props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, 5_000);
+
+        Map<String, Integer> lastSeq = new HashMap<>();
+        int received = 0;
+        try (Consumer<String, String> consumer = new DefaultKafkaConsumerFactory<>(props,
+                new StringDeserializer(), new StringDeserializer()).createConsumer()) {
+            broker.consumeFromAnEmbeddedTopic(consumer, KafkaProducerService.USER_EVENTS_TOPIC);
+            long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(2);
+            while (received < EVENTS && System.nanoTime() < deadline) {
+                ConsumerRecords<String, String> records = consumer.poll(Duration.ofMillis(500));
+                for (ConsumerRecord<String, String> record : records) {
+                    JsonNode event = objectMapper.readTree(record.value());
+                    assertThat(event.get("userId").asText()).isEqualTo(record.key());
+                    assertThat(event.get("eventType").asText()).isEqualTo(UserEventPayload.PROFILE_UPDATE);
+                    assertThat(record.headers().lastHeader(KafkaProducerService.EVENT_ID_HEADER)).isNotNull();
+
+                    int seq = event.get("payload").get("changes").get("seq").asInt();
+                    Integer previous = lastSeq.put(record.key(), seq);
+                    assertThat(seq).as("sequence for user %s", record.key()).isEqualTo(previous == null ? 0 : previous + 1);
+                    received++;
+                }
+            }
+        }
+        assertThat(received).isEqualTo(EVENTS);
+    }
+
+    private KafkaProducerService producer(EmbeddedKafkaBroker broker, MeterRegistry meterRegistry) {
+        // Same producer tuning as application.properties
+        KafkaConfig kafkaConfig = new KafkaConfig();
+        ReflectionTestUtils.setField(kafkaConfig, "bootstrapServers", broker.getBrokersAsString());
+        ReflectionTestUtils.setField(kafkaConfig, "lingerMs", 20);
+        ReflectionTestUtils.setField(kafkaConfig, "batchSize", 65536);
+        ReflectionTestUtils.setField(kafkaConfig, "compressionType", "lz4");
+        KafkaTemplate<String, String> kafkaTemplate = kafkaConfig.kafkaTemplate();
+
+        KafkaProducerService producer = new KafkaProducerService();
+        ReflectionTestUtils.setField(producer, "kafkaTemplate", kafkaTemplate);
+        ReflectionTestUtils.setField(producer, "objectMapper", objectMapper);
+        ReflectionTestUtils.setField(producer, "meterRegistry", meterRegistry);
+        producer.init();
+        return producer;
+    }
+}
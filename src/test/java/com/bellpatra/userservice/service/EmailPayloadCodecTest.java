@@ -0,0 +1,63 @@
+package com.bellpatra.userservice.service;
+
+import com.bellpatra.userservice.dto.EmailPayload;
+import com.bellpatra.userservice.entity.EmailQueue;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EmailPayloadCodecTest {
+
+    private final EmailPayloadCodec codec = new EmailPayloadCodec(new ObjectMapper());
+
+    @Test
+    void everyEmailTypeRoundTrips() {
+        List<EmailPayload> payloads = List.of(
+                new EmailPayload.Welcome("u-1", "USER", "2025-01-01T10:00", "https://app/login"),
+                new EmailPayload.LoginSuccess("u-1", "ADMIN", "10.0.0.1", "Firefox", "2025-01-01T10:00"),
+                new EmailPayload.LoginDigest("u-1", 7, List.of(new EmailPayload.LoginDigest.Login("10.0.0.2", "Safari", "2025-01-01T10:05"))),
+                new EmailPayload.PasswordReset("123456", "10.0.0.3"),
+                new EmailPayload.PasswordChange("10.0.0.4", "Chrome"),
+                new EmailPayload.Announcement("Maintenance", "<p>Down at noon</p>", "admin@example.com"),
+                new EmailPayload.NotificationDigest("u-1", "2025-01-01T10:00:00Z", 2, 5, List.of(
+                        new EmailPayload.NotificationDigest.Notification("MENTION", "u-2", null, "hi @u-1", "2025-01-01T10:01"))));
+
+        for (EmailQueue.EmailType emailType : EmailQueue.EmailType.values()) {
+            EmailPayload payload = payloads.stream()
+                    .filter(candidate -> candidate.getClass() == codec.decode(emailType, null).getClass())
+                    .findFirst()
+                    .orElseThrow(() -> new AssertionError("No sample payload for " + emailType));
+
+            assertThat(codec.decode(emailType, codec.encode(payload))).as(emailType.name()).isEqualTo(payload);
+        }
+    }
+
+    @Test
+    void decodesRowsWrittenAsPlainMaps() {
+        // Metadata written before the typed payloads: same keys, plus ones no record declares
+        String legacy = "{\"userId\":\"u-1\",\"userRole\":\"USER\",\"registrationTime\":\"2025-01-01T10:00\",\"source\":\"seed\"}";
+
+        EmailPayload payload = codec.decode(EmailQueue.EmailType.WELCOME_EMAIL, legacy);
+
+        assertThat(payload).isEqualTo(new EmailPayload.Welcome("u-1", "USER", "2025-01-01T10:00", null));
+    }
+
+    @Test
+    void nullFieldsAreLeftOutOfTheJson() {
+        String json = codec.encode(new EmailPayload.PasswordReset("123456", null));
+
+        assertThat(json).isEqualTo("{\"otp\":\"123456\"}");
+    }
+
+    @Test
+    void missingOrUnreadableMetadataDecodesToAnEmptyPayload() {
+        EmailPayload.PasswordChange empty = new EmailPayload.PasswordChange(null, null);
+
+        assertThat(codec.decode(EmailQueue.EmailType.PASSWORD_CHANGE, null)).isEqualTo(empty);
+        assertThat(codec.decode(EmailQueue.EmailType.PASSWORD_CHANGE, " ")).isEqualTo(empty);
+        assertThat(codec.decode(EmailQueue.EmailType.PASSWORD_CHANGE, "{not json")).isEqualTo(empty);
+    }
+}
@@ -0,0 +1,298 @@
+package com.bellpatra.userservice.service;
+
+import com.bellpatra.userservice.dto.EmailPayload;
+import com.bellpatra.userservice.entity.EmailQueue;
+import com.bellpatra.userservice.entity.User;
+import com.bellpatra.userservice.job.EmailProcessingJob;
+import com.bellpatra.userservice.repository.EmailQueueRepository;
+import com.bellpatra.userservice.repository.UserRepository;
+import com.icegreen.greenmail.junit5.GreenMailExtension;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.mail.Address;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.quartz.JobDataMap;
+import org.quartz.JobExecutionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * End-to-end throughput benchmark of EmailQueueService → EmailProcessingJob → EmailProcessor → EmailService,
+ * against H2 and an in-process GreenMail SMTP server. SMTP latency and failure rate are injected in front of
+ * GreenMail. Run with {@code mvn test -Pbenchmark}; knobs are in application-benchmark.properties.
+ */
+@Tag("benchmark")
+@SpringBootTest
+@ActiveProfiles("benchmark")
+class EmailPipelineBenchmarkTest {
+
+    private static final Logger log = LoggerFactory.getLogger(EmailPipelineBenchmarkTest.class);
+
+    // Mirrors EmailDispatcher: an email is retried until its retry count reaches 3
+    private static final int MAX_ATTEMPTS = 3;
+
+    @RegisterExtension
+    static GreenMailExtension greenMail = new GreenMailExtension(ServerSetupTest.SMTP).withPerMethodLifecycle(false);
+
+    @Autowired
+    private EmailQueueService emailQueueService;
+
+    @Autowired
+    private EmailProcessingJob emailProcessingJob;
+
+    @Autowired
+    private EmailQueueRepository emailQueueRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private BenchmarkMailSender mailSender;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Value("${benchmark.emails}")
+    private int emailCount;
+
+    @Value("${benchmark.trigger-interval-ms}")
+    private long triggerIntervalMillis;
+
+    @Value("${benchmark.timeout-seconds}")
+    private long timeoutSeconds;
+
+    @Test
+    void sustainedThroughputAcrossAllEmailTypes() throws Exception {
+        List<User> users = userRepository.saveAll(benchmarkUsers(emailCount));
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        Map<String, Long> enqueuedAt = new ConcurrentHashMap<>();
+
+        // Enqueue: one email per user, types spread evenly, each through its normal entry point
+        statistics.clear();
+        long enqueueStart = System.nanoTime();
+        EmailQueue.EmailType[] types = EmailQueue.EmailType.values();
+        List<User> announcementUsers = new ArrayList<>();
+        for (int i = 0; i < users.size(); i++) {
+            User user = users.get(i);
+            EmailQueue.EmailType type = types[i % types.length];
+            enqueuedAt.put(user.getEmail(), System.nanoTime());
+            switch (type) {
+                case WELCOME_EMAIL -> emailQueueService.queueWelcomeEmail(user);
+                case LOGIN_SUCCESS -> emailQueueService.queueLoginSuccessEmail(user, "10.0.0.1", "Benchmark/1.0");
+                case LOGIN_DIGEST -> emailQueueService.queueLoginDigestEntry(user, "10.0.0.2", "Benchmark/1.0", Duration.ZERO);
+                case PASSWORD_RESET -> emailQueueService.queuePasswordResetEmail(user, "123456", "10.0.0.3");
+                case PASSWORD_CHANGE -> emailQueueService.queuePasswordChangeEmail(user, "10.0.0.4", "Benchmark/1.0");
+                case ANNOUNCEMENT -> announcementUsers.add(user);
+                case NOTIFICATION_DIGEST -> emailQueueService.queueNotificationDigests(Map.of(user, notificationDigest(user)));
+            }
+        }
+        emailQueueService.queueAnnouncement(announcementUsers, "Benchmark announcement", "<p>Benchmark</p>", "benchmark");
+        long enqueueNanos = System.nanoTime() - enqueueStart;
+        long enqueueStatements = statistics.getPrepareStatementCount();
+
+        // Drain: fire the job the way Quartz would until every email is delivered or out of retries
+        JobExecutionContext context = mock(JobExecutionContext.class);
+        when(context.getMergedJobDataMap()).thenReturn(new JobDataMap());
+        statistics.clear();
+        long drainStart = System.nanoTime();
+        long deadline = drainStart + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        while (mailSender.settledCount() < emailCount && System.nanoTime() < deadline) {
+            emailProcessingJob.execute(context);
+            Thread.sleep(triggerIntervalMillis);
+        }
+        long drainNanos = System.nanoTime() - drainStart;
+        awaitAcknowledged(deadline);
+        long drainStatements = statistics.getPrepareStatementCount();
+
+        long[] latencies = mailSender.deliveredAt.entrySet().stream()
+                .mapToLong(delivery -> delivery.getValue() - enqueuedAt.get(delivery.getKey()))
+                .sorted()
+                .toArray();
+        int delivered = latencies.length;
+
+        log.info(String.format("""
+                        Email pipeline benchmark: %d emails, SMTP latency %d ms, failure rate %.2f
+                          enqueue:        %.1f emails/sec, %.2f DB statements/email
+                          delivery:       %.1f emails/sec, %.2f DB statements/email
+                          delivered:      %d (%d exhausted retries, %d injected SMTP failures)
+                          latency (enqueue -> SMTP accept): p50 %d ms, p99 %d ms, max %d ms
+                        """,
+                emailCount, mailSender.latencyMillis, mailSender.failureRate,
+                emailCount / seconds(enqueueNanos), (double) enqueueStatements / emailCount,
+                delivered / seconds(drainNanos), (double) drainStatements / emailCount,
+                delivered, mailSender.exhaustedCount(), mailSender.injectedFailures(),
+                percentileMillis(latencies, 0.50), percentileMillis(latencies, 0.99), percentileMillis(latencies, 1.0)));
+
+        assertThat(mailSender.settledCount()).as("emails settled before timeout").isEqualTo(emailCount);
+        assertThat(greenMail.getReceivedMessages()).hasSize(delivered);
+        if (mailSender.failureRate == 0.0) {
+            assertThat(emailQueueRepository.countByStatus(EmailQueue.EmailStatus.SENT)).isEqualTo(emailCount);
+        }
+    }
+
+    private void awaitAcknowledged(long deadline) throws InterruptedException {
+        // Sends are acknowledged in one UPDATE per batch after the batch's last send; wait for the lanes to empty
+        while (System.nanoTime() < deadline && meterRegistry.find("email.pipeline.in.flight").gauges().stream()
+                .mapToDouble(Gauge::value).sum() > 0) {
+            Thread.sleep(20);
+        }
+        Thread.sleep(500);
+    }
+
+    private static EmailPayload.NotificationDigest notificationDigest(User user) {
+        return new EmailPayload.NotificationDigest(user.getId().toString(), Instant.now().toString(), 1, 1, List.of(
+                new EmailPayload.NotificationDigest.Notification("MENTION", "bench-author", null, "Benchmark mention", LocalDateTime.now().toString()),
+                new EmailPayload.NotificationDigest.Notification("MESSAGE", null, "bench-channel", null, LocalDateTime.now().toString())));
+    }
+
+    private static List<User> benchmarkUsers(int count) {
+        List<User> users = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            User user = new User();
+            user.setEmail("bench-" + i + "@example.com");
+            user.setFirstName("Bench");
+            user.setLastName("User " + i);
+            user.setPassword("not-a-real-hash");
+            users.add(user);
+        }
+        return users;
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1_000_000_000.0;
+    }
+
+    private static long percentileMillis(long[] sortedNanos, double percentile) {
+        if (sortedNanos.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sortedNanos.length) - 1;
+        return TimeUnit.NANOSECONDS.toMillis(sortedNanos[Math.max(0, index)]);
+    }
+
+    @TestConfiguration
+    static class BenchmarkMailConfig {
+
+        @Bean
+        BenchmarkMailSender benchmarkMailSender(@Value("${benchmark.smtp.latency-ms}") long latencyMillis,
+                                                @Value("${benchmark.smtp.failure-rate}") double failureRate) {
+            JavaMailSenderImpl greenMailSender = new JavaMailSenderImpl();
+            greenMailSender.setHost("localhost");
+            greenMailSender.setPort(ServerSetupTest.SMTP.getPort());
+            return new BenchmarkMailSender(greenMailSender, latencyMillis, failureRate);
+        }
+    }
+
+    /**
+     * SMTP stand-in: adds a fixed latency and random failures in front of GreenMail, and records when
+     * each recipient's message was accepted.
+     */
+    static class BenchmarkMailSender implements JavaMailSender {
+
+        private final JavaMailSenderImpl delegate;
+        private final long latencyMillis;
+        private final double failureRate;
+        private final Map<String, Long> deliveredAt = new ConcurrentHashMap<>();
+        private final Map<String, Integer> failedAttempts = new ConcurrentHashMap<>();
+
+        BenchmarkMailSender(JavaMailSenderImpl delegate, long latencyMillis, double failureRate) {
+            this.delegate = delegate;
+            this.latencyMillis = latencyMillis;
+            this.failureRate = failureRate;
+        }
+
+        int settledCount() {
+            return deliveredAt.size() + exhaustedCount();
+        }
+
+        int exhaustedCount() {
+            return (int) failedAttempts.values().stream().filter(attempts -> attempts >= MAX_ATTEMPTS).count();
+        }
+
+        int injectedFailures() {
+            return failedAttempts.values().stream().mapToInt(Integer::intValue).sum();
+        }
+
+        @Override
+        public MimeMessage createMimeMessage() {
+            return delegate.createMimeMessage();
+        }
+
+        @Override
+        public MimeMessage createMimeMessage(InputStream contentStream) throws MailException {
+            return delegate.createMimeMessage(contentStream);
+        }
+
+        @Override
+        public void send(MimeMessage... mimeMessages) throws MailException {
+            for (MimeMessage message : mimeMessages) {
+                String recipient = recipientOf(message);
+                if (latencyMillis > 0) {
+                    try {
+                        Thread.sleep(latencyMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new MailSendException("Interrupted during injected SMTP latency", e);
+                    }
+                }
+                if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+                    failedAttempts.merge(recipient, 1, Integer::sum);
+                    throw new MailSendException("Injected SMTP failure");
+                }
+                delegate.send(message);
+                deliveredAt.put(recipient, System.nanoTime());
+            }
+        }
+
+        @Override
+        public void send(SimpleMailMessage... simpleMessages) throws MailException {
+            delegate.send(simpleMessages);
+        }
+
+        private static String recipientOf(MimeMessage message) {
+            try {
+                Address[] recipients = message.getAllRecipients();
+                return recipients != null && recipients.length > 0 ? recipients[0].toString() : "";
+            } catch (MessagingException e) {
+                throw new MailSendException("Unreadable recipient", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.bellpatra.userservice.service;
+
+import com.bellpatra.userservice.entity.EmailQueue;
+import com.bellpatra.userservice.repository.EmailQueueRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Quotas are large enough per period that refills during a test run stay well below one token.
+ */
+class EmailSendGovernorTest {
+
+    private QuartzClusterService quartzClusterService;
+    private EmailQueueRepository emailQueueRepository;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        quartzClusterService = mock(QuartzClusterService.class);
+        when(quartzClusterService.countLiveNodes()).thenReturn(1);
+        emailQueueRepository = mock(EmailQueueRepository.class);
+    }
+
+    @Test
+    void minuteReserveIsLeftForHighPriority() {
+        // 20/min less 5% headroom = 19 sends, 10% of them (1.9) reserved for HIGH
+        EmailSendGovernor governor = governor(20, 100_000);
+
+        assertThat(governor.claimableNow(EmailQueue.EmailPriority.LOW)).isEqualTo(17);
+        assertThat(governor.claimableNow(EmailQueue.EmailPriority.HIGH)).isEqualTo(19);
+
+        assertThat(drain(governor, EmailQueue.EmailPriority.LOW)).isEqualTo(17);
+        assertThat(governor.claimableNow(EmailQueue.EmailPriority.LOW)).isZero();
+        assertThat(drain(governor, EmailQueue.EmailPriority.HIGH)).isEqualTo(2);
+    }
+
+    @Test
+    void dailyReserveIsLeftForHighPriority() {
+        // 100/day less 5% headroom = 95 sends, 9.5 reserved for HIGH
+        EmailSendGovernor governor = governor(100_000, 100);
+
+        assertThat(drain(governor, EmailQueue.EmailPriority.NORMAL)).isEqualTo(85);
+        assertThat(governor.claimableNow(EmailQueue.EmailPriority.NORMAL)).isZero();
+        assertThat(drain(governor, EmailQueue.EmailPriority.HIGH)).isEqualTo(10);
+    }
+
+    @Test
+    void restartKeepsTheDayQuotaAlreadySpent() throws Exception {
+        // 40 sends just now and 20 half a day ago, which have refilled half their tokens: 95 - 50 = 45 left
+        LocalDateTime now = LocalDateTime.now();
+        List<LocalDateTime> sent = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            sent.add(now);
+        }
+        for (int i = 0; i < 20; i++) {
+            sent.add(now.minusHours(12));
+        }
+        when(emailQueueRepository.findProcessedAtByStatusSince(eq(EmailQueue.EmailStatus.SENT), any())).thenReturn(sent);
+
+        EmailSendGovernor governor = governor(100_000, 100);
+
+        assertThat(governor.claimableNow(EmailQueue.EmailPriority.HIGH)).isEqualTo(45);
+
+        // Split across two nodes, each starts from its half of what the cluster spent
+        when(quartzClusterService.countLiveNodes()).thenReturn(2);
+        assertThat(governor(100_000, 100).claimableNow(EmailQueue.EmailPriority.HIGH)).isEqualTo(22);
+    }
+
+    @Test
+    void quotaIsSplitAcrossLiveNodes() throws Exception {
+        EmailSendGovernor governor = governor(20, 100_000);
+        when(quartzClusterService.countLiveNodes()).thenReturn(2);
+        ReflectionTestUtils.setField(governor, "nodesRefreshedAtNanos", 0L);
+
+        // 19/min across the cluster, 9 of them on this node
+        assertThat(governor.claimableNow(EmailQueue.EmailPriority.HIGH)).isEqualTo(9);
+        assertThat(governor.getQuotaStats()).containsEntry("liveNodes", 2);
+    }
+
+    @Test
+    void quotaErrorFromTheProviderPausesSending() {
+        EmailSendGovernor governor = governor(20, 100_000);
+
+        assertThat(governor.isQuotaError(new RuntimeException("wrapped", new RuntimeException("550 5.4.5 Daily sending limit exceeded")))).isTrue();
+        governor.onQuotaExceeded("550 5.4.5");
+
+        assertThat(governor.claimableNow(EmailQueue.EmailPriority.HIGH)).isZero();
+        assertThat(governor.acquire(EmailQueue.EmailPriority.HIGH)).isFalse();
+    }
+
+    @Test
+    void otherProviderRejectionsAreNotQuotaErrors() {
+        EmailSendGovernor governor = governor(20, 100_000);
+
+        assertThat(governor.isQuotaError(new RuntimeException("454 4.7.0 Too many login attempts, please try again later"))).isFalse();
+        assertThat(governor.isQuotaError(new RuntimeException("454 4.7.0 TLS not available due to local problem"))).isFalse();
+        assertThat(governor.isQuotaError(new RuntimeException("454 Throttling failure: Maximum sending rate exceeded."))).isTrue();
+    }
+
+    private EmailSendGovernor governor(int perMinute, int perDay) {
+        EmailSendGovernor governor = new EmailSendGovernor(new SimpleMeterRegistry(), quartzClusterService, emailQueueRepository);
+        ReflectionTestUtils.setField(governor, "provider", "test");
+        ReflectionTestUtils.setField(governor, "perMinuteLimit", perMinute);
+        ReflectionTestUtils.setField(governor, "perDayLimit", perDay);
+        ReflectionTestUtils.setField(governor, "headroomPercent", 5);
+        ReflectionTestUtils.setField(governor, "highPriorityReservePercent", 10);
+        ReflectionTestUtils.setField(governor, "maxWaitMillis", 0L);
+        ReflectionTestUtils.setField(governor, "quotaExceededPauseMinutes", 15L);
+        ReflectionTestUtils.setField(governor, "nodeRefreshSeconds", 3600L);
+        ReflectionTestUtils.setField(governor, "quotaErrorPatterns", List.of("5.4.5", "sending limit exceeded",
+                "sending quota exceeded", "daily message quota exceeded", "maximum sending rate exceeded"));
+        governor.init();
+        return governor;
+    }
+
+    // Sends acquired without waiting until the governor asks to defer
+    private static int drain(EmailSendGovernor governor, EmailQueue.EmailPriority priority) {
+        int acquired = 0;
+        while (governor.acquire(priority)) {
+            acquired++;
+        }
+        return acquired;
+    }
+}
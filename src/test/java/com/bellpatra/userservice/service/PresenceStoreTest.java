@@ -0,0 +1,100 @@
+package com.bellpatra.userservice.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PresenceStoreTest {
+
+    @Test
+    void updatesAreReadBackAndOfflineRemovesTheUser() {
+        PresenceStore store = store(300, 60);
+        UUID userId = UUID.randomUUID();
+        long now = System.currentTimeMillis();
+
+        store.update(userId, PresenceStore.Status.ONLINE, now);
+        store.update(userId, PresenceStore.Status.BUSY, now + 1000);
+
+        assertThat(store.get(userId)).isEqualTo(PresenceStore.Status.BUSY);
+        assertThat(store.get(UUID.randomUUID())).isNull();
+        assertThat(store.size()).isEqualTo(1);
+
+        store.update(userId, null, now + 2000);
+
+        assertThat(store.get(userId)).isNull();
+        assertThat(store.size()).isZero();
+    }
+
+    @Test
+    void olderUpdatesAreIgnored() {
+        PresenceStore store = store(300, 60);
+        UUID userId = UUID.randomUUID();
+        long now = System.currentTimeMillis();
+
+        store.update(userId, PresenceStore.Status.ONLINE, now);
+        store.update(userId, PresenceStore.Status.AWAY, now - 5000);
+        store.update(userId, null, now - 5000);
+
+        assertThat(store.get(userId)).isEqualTo(PresenceStore.Status.ONLINE);
+    }
+
+    @Test
+    void removalsKeepCollidingUsersFindable() {
+        // Sized for few users, so the segments grow and probe chains run long
+        PresenceStore store = store(300, 60);
+        long now = System.currentTimeMillis();
+        List<UUID> kept = new ArrayList<>();
+        List<UUID> removed = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            UUID userId = UUID.randomUUID();
+            store.update(userId, PresenceStore.Status.ONLINE, now);
+            (i % 2 == 0 ? kept : removed).add(userId);
+        }
+
+        for (UUID userId : removed) {
+            store.update(userId, null, now);
+        }
+
+        assertThat(store.size()).isEqualTo(kept.size());
+        assertThat(store.getPresent(kept)).hasSize(kept.size());
+        assertThat(store.getPresent(removed)).isEmpty();
+    }
+
+    @Test
+    void entriesExpireAfterTheTtl() throws InterruptedException {
+        PresenceStore store = store(1, 0);
+        UUID userId = UUID.randomUUID();
+
+        store.update(UUID.randomUUID(), PresenceStore.Status.ONLINE, System.currentTimeMillis() - 10_000);
+        store.update(userId, PresenceStore.Status.ONLINE, System.currentTimeMillis());
+
+        assertThat(store.get(userId)).isEqualTo(PresenceStore.Status.ONLINE);
+        assertThat(store.size()).isEqualTo(1);
+
+        Thread.sleep(2100);
+
+        assertThat(store.get(userId)).isNull();
+        // The next write to each segment sweeps it; write to every one of them
+        for (int i = 0; i < 1000; i++) {
+            UUID other = UUID.randomUUID();
+            store.update(other, PresenceStore.Status.ONLINE, System.currentTimeMillis());
+            store.update(other, null, System.currentTimeMillis());
+        }
+        assertThat(store.size()).isZero();
+    }
+
+    private static PresenceStore store(int ttlSeconds, int sweepIntervalSeconds) {
+        PresenceStore store = new PresenceStore(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(store, "ttlSeconds", ttlSeconds);
+        ReflectionTestUtils.setField(store, "sweepIntervalSeconds", sweepIntervalSeconds);
+        ReflectionTestUtils.setField(store, "expectedUsers", 16);
+        store.init();
+        return store;
+    }
+}
@@ -0,0 +1,185 @@
+package com.bellpatra.userservice.service;
+
+import com.bellpatra.userservice.dto.PinResponse;
+import com.bellpatra.userservice.dto.VerifyPinRequest;
+import com.bellpatra.userservice.entity.UserPin;
+import com.bellpatra.userservice.repository.UserPinRepository;
+import com.bellpatra.userservice.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs {@link UserPinService#verifyPin} against H2 in PostgreSQL mode, each call in its own transaction
+ * as in production, to check the conditional attempt UPDATE under concurrent guesses.
+ */
+class UserPinServiceTest {
+
+    // Mirrors UserPinService
+    private static final int MAX_FAILED_ATTEMPTS = 3;
+
+    private static final String PIN = "1234";
+    private static final String WRONG_PIN = "9999";
+
+    private final BCryptPasswordEncoder passwordEncoder = new BCryptPasswordEncoder(4);
+    private final UUID userId = UUID.randomUUID();
+
+    private DriverManagerDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+    private UserPinService userPinService;
+
+    @BeforeEach
+    void setUp() {
+        dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:user_pins_" + UUID.randomUUID() + ";MODE=PostgreSQL;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000", "sa", "");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        jdbcTemplate.execute("""
+                CREATE TABLE user_pins (
+                    id UUID PRIMARY KEY,
+                    user_id UUID NOT NULL,
+                    pin_hash VARCHAR(255) NOT NULL,
+                    is_active BOOLEAN NOT NULL,
+                    failed_attempts INT NOT NULL,
+                    locked_until TIMESTAMP,
+                    last_used_at TIMESTAMP,
+                    created_at TIMESTAMP NOT NULL,
+                    updated_at TIMESTAMP NOT NULL
+                )
+                """);
+        LocalDateTime now = LocalDateTime.now();
+        jdbcTemplate.update("INSERT INTO user_pins VALUES (?, ?, ?, true, 0, NULL, NULL, ?, ?)",
+                UUID.randomUUID(), userId, passwordEncoder.encode(PIN), now, now);
+
+        // The PIN is read through JPA in production; here the repository reads the same table
+        UserPinRepository userPinRepository = mock(UserPinRepository.class);
+        when(userPinRepository.findByUserIdAndIsActiveTrue(userId)).thenAnswer(invocation -> Optional.ofNullable(
+                jdbcTemplate.query("SELECT * FROM user_pins WHERE user_id = ? AND is_active = true", rs -> rs.next()
+                        ? UserPin.builder()
+                                .userId(userId)
+                                .pinHash(rs.getString("pin_hash"))
+                                .failedAttempts(rs.getInt("failed_attempts"))
+                                .lockedUntil(rs.getObject("locked_until", LocalDateTime.class))
+                                .build()
+                        : null, userId)));
+
+        when(userPinRepository.recordSuccessfulAttempt(any(), any())).thenAnswer(invocation -> attemptUpdate("recordSuccessfulAttempt",
+                Map.of("userId", invocation.getArgument(0), "now", invocation.getArgument(1))));
+        when(userPinRepository.recordFailedAttempt(any(), any(), anyInt(), any())).thenAnswer(invocation -> attemptUpdate("recordFailedAttempt",
+                Map.of("userId", invocation.getArgument(0), "now", invocation.getArgument(1),
+                        "maxAttempts", invocation.getArgument(2), "lockUntil", invocation.getArgument(3))));
+
+        userPinService = new UserPinService(userPinRepository, mock(UserRepository.class), passwordEncoder);
+    }
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.execute("SHUTDOWN");
+    }
+
+    @Test
+    void concurrentWrongGuessesStopCountingAtTheLimit() throws Exception {
+        int guesses = 20;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<PinResponse>> responses = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(guesses)) {
+            for (int i = 0; i < guesses; i++) {
+                responses.add(executor.submit(() -> {
+                    start.await();
+                    return verify(WRONG_PIN);
+                }));
+            }
+            start.countDown();
+        }
+
+        int rejectedUnlocked = 0;
+        for (Future<PinResponse> response : responses) {
+            if (!response.get().isLocked()) {
+                rejectedUnlocked++;
+            }
+        }
+
+        Map<String, Object> pin = pinRow();
+        assertThat(((Number) pin.get("failed_attempts")).intValue()).isEqualTo(MAX_FAILED_ATTEMPTS);
+        assertThat(pin.get("locked_until")).isNotNull();
+        // Only the guesses before the locking one are answered with attempts remaining
+        assertThat(rejectedUnlocked).isEqualTo(MAX_FAILED_ATTEMPTS - 1);
+    }
+
+    @Test
+    void correctPinIsRejectedWhileLocked() {
+        for (int i = 0; i < MAX_FAILED_ATTEMPTS; i++) {
+            verify(WRONG_PIN);
+        }
+
+        PinResponse response = verify(PIN);
+
+        assertThat(response.isLocked()).isTrue();
+        Map<String, Object> pin = pinRow();
+        assertThat(((Number) pin.get("failed_attempts")).intValue()).isEqualTo(MAX_FAILED_ATTEMPTS);
+        assertThat(pin.get("last_used_at")).isNull();
+    }
+
+    @Test
+    void correctPinResetsFailedAttempts() {
+        verify(WRONG_PIN);
+
+        PinResponse response = verify(PIN);
+
+        assertThat(response.isLocked()).isFalse();
+        assertThat(response.getFailedAttempts()).isZero();
+        Map<String, Object> pin = pinRow();
+        assertThat(((Number) pin.get("failed_attempts")).intValue()).isZero();
+        assertThat(pin.get("last_used_at")).isNotNull();
+    }
+
+    // Runs the repository's own UPDATE; H2 has no RETURNING, so its rows are read FROM FINAL TABLE instead
+    private List<Object[]> attemptUpdate(String method, Map<String, Object> params) {
+        String sql = Arrays.stream(UserPinRepository.class.getMethods())
+                .filter(candidate -> candidate.getName().equals(method))
+                .findFirst()
+                .orElseThrow()
+                .getAnnotation(Query.class)
+                .value();
+        String update = sql.substring(0, sql.lastIndexOf(" RETURNING "));
+        return new NamedParameterJdbcTemplate(jdbcTemplate).query(
+                "SELECT failed_attempts, locked_until FROM FINAL TABLE (" + update + ")", params,
+                (rs, rowNum) -> new Object[]{rs.getInt("failed_attempts"), rs.getTimestamp("locked_until")});
+    }
+
+    private PinResponse verify(String pin) {
+        VerifyPinRequest request = new VerifyPinRequest();
+        request.setPin(pin);
+        return transactionTemplate.execute(status -> userPinService.verifyPin(userId, "user@example.com", request));
+    }
+
+    private Map<String, Object> pinRow() {
+        return jdbcTemplate.queryForMap("SELECT failed_attempts, locked_until, last_used_at FROM user_pins WHERE user_id = ?", userId);
+    }
+}